@@ -0,0 +1,133 @@
+package cn.xtmax.graalcdc;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * AIMD 自适应并发限制
+ * <p>
+ * 请求成功且耗时低于阈值时并发数加性增长（每轮约加 1），收到 429、超时或者耗时超过阈值时并发数减半；
+ * 同一轮内的多次过载只减一次，避免突发错误把并发数压到最小。获取许可不阻塞线程，超出并发的请求排队等待
+ *
+ * @author 起风了
+ * @email m.zxt@foxmail.com
+ * @date 2026/01/04 15:20
+ */
+public final class AdaptiveConcurrencyLimiter {
+
+    /**
+     * 请求结果
+     */
+    public enum Outcome {
+        // 成功
+        SUCCESS,
+        // 过载（429、超时）
+        DROPPED,
+        // 其他错误，不调整并发数
+        IGNORED
+    }
+
+    /**
+     * 限制器状态
+     */
+    public record Stats(int limit, int inflight, int waiting, long dropped) {
+    }
+
+    private final int minLimit;
+
+    private final int maxLimit;
+
+    private final long latencyThresholdNanos;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final ArrayDeque<CompletableFuture<Void>> waiters = new ArrayDeque<>();
+
+    // 当前并发数，小数部分用于加性增长
+    private double limit;
+
+    private int inflight;
+
+    private long dropped;
+
+    // 最近一次减小并发数的时间，此后发出的请求返回前不再减小
+    private long lastDecreaseAt = Long.MIN_VALUE;
+
+    public AdaptiveConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit, long latencyThresholdMs) {
+        this.minLimit = Math.max(1, minLimit);
+        this.maxLimit = Math.max(this.minLimit, maxLimit);
+        this.limit = Math.clamp(initialLimit, this.minLimit, this.maxLimit);
+        this.latencyThresholdNanos = TimeUnit.MILLISECONDS.toNanos(latencyThresholdMs);
+    }
+
+    /**
+     * 获取许可
+     *
+     * @return 获得许可时完成
+     */
+    public CompletableFuture<Void> acquire() {
+        lock.lock();
+        try {
+            if (waiters.isEmpty() && inflight < (int) limit) {
+                inflight++;
+                return CompletableFuture.completedFuture(null);
+            }
+            CompletableFuture<Void> waiter = new CompletableFuture<>();
+            waiters.add(waiter);
+            return waiter;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 释放许可，并根据请求结果调整并发数
+     *
+     * @param outcome   请求结果
+     * @param startedAt 请求开始时间（System.nanoTime）
+     */
+    public void release(Outcome outcome, long startedAt) {
+        long now = System.nanoTime();
+        List<CompletableFuture<Void>> granted = new ArrayList<>();
+        lock.lock();
+        try {
+            inflight--;
+            if (outcome == Outcome.SUCCESS && now - startedAt > latencyThresholdNanos) {
+                outcome = Outcome.DROPPED;
+            }
+            switch (outcome) {
+                case SUCCESS -> limit = Math.min(maxLimit, limit + 1.0 / limit);
+                case DROPPED -> {
+                    dropped++;
+                    if (startedAt > lastDecreaseAt) {
+                        limit = Math.max(minLimit, limit / 2);
+                        lastDecreaseAt = now;
+                    }
+                }
+                case IGNORED -> {
+                }
+            }
+            while (inflight < (int) limit && !waiters.isEmpty()) {
+                granted.add(waiters.poll());
+                inflight++;
+            }
+        } finally {
+            lock.unlock();
+        }
+        // 在锁外完成，避免回调在锁内执行
+        granted.forEach(waiter -> waiter.complete(null));
+    }
+
+    public Stats stats() {
+        lock.lock();
+        try {
+            return new Stats((int) limit, inflight, waiters.size(), dropped);
+        } finally {
+            lock.unlock();
+        }
+    }
+}
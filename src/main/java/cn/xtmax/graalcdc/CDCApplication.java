@@ -14,7 +14,7 @@ import org.springframework.boot.autoconfigure.SpringBootApplication;
 public class CDCApplication {
 
 
-    static void main(String[] args) {
+    public static void main(String[] args) {
         SpringApplication.run(CDCApplication.class, args);
     }
 }
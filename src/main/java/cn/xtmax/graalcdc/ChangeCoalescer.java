@@ -0,0 +1,60 @@
+package cn.xtmax.graalcdc;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 变更合并器，窗口内同一主键的多次变更只保留最终状态（包括删除）
+ * <p>
+ * 合并后的事件按各主键最后一次变更的先后顺序输出，不同主键之间的相对顺序保持不变
+ *
+ * @author 起风了
+ * @email m.zxt@foxmail.com
+ * @date 2025/12/30 14:20
+ */
+final class ChangeCoalescer<T> {
+
+    private final Map<Object, T> pending = new LinkedHashMap<>();
+
+    // 窗口内读取的事件数
+    private int received;
+
+    /**
+     * 加入一条变更
+     *
+     * @param key   主键，为空时（无主键的表）不参与合并
+     * @param event 事件
+     */
+    void add(String key, T event) {
+        Object k = key == null || key.isEmpty() ? new Object() : key;
+        // 先移除再放入，保证按最后一次变更的位置输出
+        pending.remove(k);
+        pending.put(k, event);
+        received++;
+    }
+
+    boolean isEmpty() {
+        return pending.isEmpty();
+    }
+
+    /**
+     * 窗口内读取的事件数
+     */
+    int received() {
+        return received;
+    }
+
+    /**
+     * 取出合并后的事件，并重置窗口
+     *
+     * @return 合并后的事件
+     */
+    List<T> drain() {
+        List<T> events = new ArrayList<>(pending.values());
+        pending.clear();
+        received = 0;
+        return events;
+    }
+}
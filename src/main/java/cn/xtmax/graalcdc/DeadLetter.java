@@ -0,0 +1,74 @@
+package cn.xtmax.graalcdc;
+
+import net.openhft.chronicle.wire.WireIn;
+import net.openhft.chronicle.wire.WireOut;
+
+/**
+ * 死信，脚本执行失败的事件
+ *
+ * @param index    死信队列索引
+ * @param source   事件在实例队列中的索引
+ * @param key      顺序键（记录主键），没有主键或者事务批次时为空字符串
+ * @param database 数据库
+ * @param table    表
+ * @param op       操作类型 c/u/d/r
+ * @param value    脚本参数（已按脚本声明的列裁剪）
+ * @param attempts 已执行失败的次数
+ * @param nextAt   下次重试时间（毫秒时间戳）
+ * @param error    最后一次的错误信息
+ * @author 起风了
+ * @email m.zxt@foxmail.com
+ * @date 2026/01/04 09:40
+ */
+public record DeadLetter(long index,
+                         long source,
+                         String key,
+                         String database,
+                         String table,
+                         String op,
+                         String value,
+                         int attempts,
+                         long nextAt,
+                         String error) {
+
+    static DeadLetter read(long index, WireIn wire) {
+        return new DeadLetter(
+            index,
+            wire.read("source").int64(),
+            wire.read("key").text(),
+            wire.read("db").text(),
+            wire.read("table").text(),
+            wire.read("op").text(),
+            wire.read("value").text(),
+            wire.read("attempts").int32(),
+            wire.read("nextAt").int64(),
+            wire.read("error").text()
+        );
+    }
+
+    void write(WireOut wire) {
+        wire.write("source").int64(source)
+            .write("key").text(key)
+            .write("db").text(database)
+            .write("table").text(table)
+            .write("op").text(op)
+            .write("value").text(value)
+            .write("attempts").int32(attempts)
+            .write("nextAt").int64(nextAt)
+            .write("error").text(error);
+    }
+
+    /**
+     * 写入重试队列后的死信
+     */
+    DeadLetter at(long index) {
+        return new DeadLetter(index, source, key, database, table, op, value, attempts, nextAt, error);
+    }
+
+    /**
+     * 再次失败后的死信
+     */
+    DeadLetter retried(long nextAt, String error) {
+        return new DeadLetter(-1, source, key, database, table, op, value, attempts + 1, nextAt, error);
+    }
+}
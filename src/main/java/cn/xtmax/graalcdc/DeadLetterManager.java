@@ -0,0 +1,171 @@
+package cn.xtmax.graalcdc;
+
+import cn.xtmax.graalcdc.config.ScriptCDCConfig;
+import cn.xtmax.graalcdc.config.SystemConfig;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BooleanSupplier;
+
+/**
+ * 死信队列管理，每个脚本在每个实例下一个死信队列，随实例的脚本消费者创建、关闭
+ * <p>
+ * 集群模式下运行目录是共享的，死信队列按实例隔离后只有持有实例租约的节点打开、重试，
+ * 不会出现多个节点同时重试同一批死信、争用同一个 tailer 的情况
+ *
+ * @author 起风了
+ * @email m.zxt@foxmail.com
+ * @date 2026/01/04 10:30
+ */
+@Slf4j
+@Component
+public class DeadLetterManager implements DisposableBean {
+
+    @Autowired
+    SystemConfig systemConfig;
+
+    @Autowired
+    ScriptScheduler scriptScheduler;
+
+    @Autowired
+    ScriptExecutor scriptExecutor;
+
+    /**
+     * @param scriptId 脚本ID
+     * @param instance 实例名称
+     */
+    record Key(String scriptId, String instance) {
+    }
+
+    private final Map<Key, DeadLetterQueue> queues = new ConcurrentHashMap<>();
+
+    /**
+     * 脚本的目录名（死信队列、窗口检查点），脚本文件名加路径的哈希，避免不同目录下的同名脚本冲突
+     */
+    static String directoryName(String scriptId) {
+        String fileName = Path.of(scriptId).getFileName().toString();
+        return fileName.replaceAll("[^A-Za-z0-9_.-]", "_") + "-" + Integer.toHexString(scriptId.hashCode());
+    }
+
+    /**
+     * 获取脚本在实例下的死信队列，不存在时创建，存在时更新重试配置
+     *
+     * @param scriptId 脚本ID
+     * @param instance 实例名称
+     * @param retry    重试配置
+     * @param active   是否允许重试，集群模式下为实例的租约是否有效
+     * @return 死信队列
+     */
+    DeadLetterQueue acquire(String scriptId, String instance, ScriptCDCConfig.Retry retry, BooleanSupplier active) {
+        DeadLetterQueue queue = queues.computeIfAbsent(new Key(scriptId, instance), _ -> new DeadLetterQueue(
+            scriptId,
+            instance,
+            directory(scriptId, instance).toString(),
+            retry,
+            active,
+            scriptScheduler,
+            scriptExecutor
+        ));
+        queue.setRetry(retry);
+        return queue;
+    }
+
+    /**
+     * 死信队列的目录，旧版本每个脚本一个（各实例共用），首次打开时移动到打开它的实例下
+     */
+    private synchronized Path directory(String scriptId, String instance) {
+        Path script = Path.of(systemConfig.getQueueDirectory(), "dlq", directoryName(scriptId));
+        Path directory = script.resolve(instance);
+        if (Files.exists(directory)) {
+            return directory;
+        }
+        try {
+            Files.createDirectories(directory);
+            for (String name : List.of("retry", "dead")) {
+                Path legacy = script.resolve(name);
+                if (Files.isDirectory(legacy)) {
+                    Files.move(legacy, directory.resolve(name));
+                    log.warn("脚本 {} 旧的死信队列 {} 已移动到实例 {} 下", scriptId, legacy, instance);
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("创建死信队列目录失败: " + directory, e);
+        }
+        return directory;
+    }
+
+    /**
+     * 关闭脚本在实例下的死信队列，队列文件保留，脚本重新加入（或者其他节点接管实例）后继续重试
+     *
+     * @param scriptId 脚本ID
+     * @param instance 实例名称
+     */
+    public void release(String scriptId, String instance) {
+        close(new Key(scriptId, instance));
+    }
+
+    /**
+     * 关闭脚本在所有实例下的死信队列
+     *
+     * @param scriptId 脚本ID
+     */
+    public void release(String scriptId) {
+        for (Key key : List.copyOf(queues.keySet())) {
+            if (key.scriptId().equals(scriptId)) {
+                close(key);
+            }
+        }
+    }
+
+    private void close(Key key) {
+        DeadLetterQueue queue = queues.remove(key);
+        if (queue != null) {
+            try {
+                queue.close();
+            } catch (Exception e) {
+                log.error("关闭脚本 {} 在实例 {} 下的死信队列失败！", key.scriptId(), key.instance(), e);
+            }
+        }
+    }
+
+    /**
+     * 重放脚本死亡队列中的事件，只包括本节点运行的实例
+     *
+     * @param scriptId 脚本ID
+     * @return 重放的事件数，本节点没有该脚本的死信队列时为 -1
+     */
+    public int replay(String scriptId) {
+        int count = -1;
+        for (Map.Entry<Key, DeadLetterQueue> entry : queues.entrySet()) {
+            if (entry.getKey().scriptId().equals(scriptId)) {
+                count = Math.max(count, 0) + entry.getValue().replay();
+            }
+        }
+        return count;
+    }
+
+    /**
+     * 各脚本的死信统计
+     */
+    public List<DeadLetterQueue.Stats> stats() {
+        List<DeadLetterQueue.Stats> list = new ArrayList<>(queues.size());
+        queues.values().forEach(queue -> list.add(queue.stats()));
+        return list;
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        for (Key key : List.copyOf(queues.keySet())) {
+            close(key);
+        }
+    }
+}
@@ -0,0 +1,446 @@
+package cn.xtmax.graalcdc;
+
+import cn.xtmax.graalcdc.config.ScriptCDCConfig;
+import lombok.extern.slf4j.Slf4j;
+import net.openhft.chronicle.queue.ExcerptAppender;
+import net.openhft.chronicle.queue.ExcerptTailer;
+import net.openhft.chronicle.queue.RollCycles;
+import net.openhft.chronicle.queue.impl.single.SingleChronicleQueue;
+import net.openhft.chronicle.queue.impl.single.SingleChronicleQueueBuilder;
+import net.openhft.chronicle.wire.DocumentContext;
+
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+
+/**
+ * 脚本的死信队列，每个脚本在每个实例下一个
+ * <p>
+ * 脚本执行失败的事件写入重试队列，由独立的重试线程按退避时间重新执行，不阻塞脚本消费者；
+ * 超过最大重试次数的事件转入死亡队列，可以通过管理接口重放回重试队列。
+ * <p>
+ * 同一个表、同一个主键的事件保持顺序：某个键存在未处理完的死信时，脚本消费者把该键的后续事件也排进重试队列，
+ * 重试线程对每个键只调度 source 最小的一个，整体按到期时间先后执行。没有主键的表、事务批次不受此约束；
+ * 从死亡队列重放的旧事件可能晚于同一个键的新事件执行。
+ * <p>
+ * 重试线程把未处理完的死信读入内存，tailer 只提交到最早的一个未处理完的死信，
+ * 进程退出时未处理完的死信、以及它之后已经处理过的死信会重新处理
+ *
+ * @author 起风了
+ * @email m.zxt@foxmail.com
+ * @date 2026/01/04 10:00
+ */
+@Slf4j
+public final class DeadLetterQueue implements AutoCloseable {
+
+    // 重试队列为空时的等待时间
+    static final long POLL_TIMEOUT_MS = 1000;
+
+    // 同一个键的死信按事件在实例队列中的顺序
+    static final Comparator<DeadLetter> BY_SOURCE = Comparator.comparingLong(DeadLetter::source).thenComparingLong(DeadLetter::index);
+
+    static final Comparator<DeadLetter> BY_NEXT_AT = Comparator.comparingLong(DeadLetter::nextAt).thenComparingLong(DeadLetter::index);
+
+    /**
+     * 死信统计
+     */
+    public record Stats(String scriptId, String instance, long deadLettered, long recovered, long retried, long exhausted, long replayed) {
+    }
+
+    final String scriptId;
+
+    final String instance;
+
+    // 是否允许重试，集群模式下失去实例租约后暂停
+    final BooleanSupplier active;
+
+    final ScriptScheduler scriptScheduler;
+
+    final ScriptExecutor scriptExecutor;
+
+    // 等待重试的事件
+    private final SingleChronicleQueue retryQueue;
+
+    // 超过最大重试次数的事件
+    private final SingleChronicleQueue deadQueue;
+
+    private final ExcerptAppender retryAppender;
+
+    private final ExcerptAppender deadAppender;
+
+    // 读取重试队列，领先于已提交的位置
+    private final ExcerptTailer reader;
+
+    // 已提交的位置，之前的死信都已处理完
+    private final ExcerptTailer committed;
+
+    // 以下只在重试线程访问
+    // 按顺序键排队的死信
+    private final Map<String, PriorityQueue<DeadLetter>> byKey = new HashMap<>();
+    // 参与调度的死信：没有顺序键的，以及每个键排在最前的一个
+    private final PriorityQueue<DeadLetter> due = new PriorityQueue<>(BY_NEXT_AT);
+    // 未处理完的死信在重试队列中的索引
+    private final TreeSet<Long> unfinished = new TreeSet<>();
+    // 重试线程自己追加的死信（再次失败），读到时跳过
+    private final Set<Long> requeued = new HashSet<>();
+    private long lastRead = -1;
+    private long committedAt = -1;
+
+    // 各顺序键未处理完的死信数
+    private final Map<String, Integer> parked = new ConcurrentHashMap<>();
+
+    // 写入信号，唤醒重试线程
+    private final Semaphore signal = new Semaphore(0);
+
+    private final Thread thread;
+
+    private volatile ScriptCDCConfig.Retry retry;
+
+    private final AtomicLong deadLettered = new AtomicLong();
+    private final AtomicLong recovered = new AtomicLong();
+    private final AtomicLong retried = new AtomicLong();
+    private final AtomicLong exhausted = new AtomicLong();
+    private final AtomicLong replayed = new AtomicLong();
+
+    DeadLetterQueue(String scriptId,
+                    String instance,
+                    String directory,
+                    ScriptCDCConfig.Retry retry,
+                    BooleanSupplier active,
+                    ScriptScheduler scriptScheduler,
+                    ScriptExecutor scriptExecutor) {
+        this.scriptId = scriptId;
+        this.instance = instance;
+        this.active = active;
+        this.retry = retry == null ? new ScriptCDCConfig.Retry() : retry;
+        this.scriptScheduler = scriptScheduler;
+        this.scriptExecutor = scriptExecutor;
+        this.retryQueue = SingleChronicleQueueBuilder.binary(directory + "/retry").rollCycle(RollCycles.DAILY).build();
+        this.deadQueue = SingleChronicleQueueBuilder.binary(directory + "/dead").rollCycle(RollCycles.DAILY).build();
+        // 脚本消费者与重试线程共用，写入时加锁
+        this.retryAppender = retryQueue.createAppender();
+        this.retryAppender.singleThreadedCheckDisabled(true);
+        this.deadAppender = deadQueue.createAppender();
+        this.deadAppender.singleThreadedCheckDisabled(true);
+        this.committed = retryQueue.createTailer("retry");
+        this.reader = retryQueue.createTailer();
+        if (committed.index() != 0) {
+            reader.moveToIndex(committed.index());
+        }
+        // 先于脚本消费者恢复各个键的死信数
+        load();
+        this.thread = Thread.startVirtualThread(this::run);
+    }
+
+    void setRetry(ScriptCDCConfig.Retry retry) {
+        this.retry = retry == null ? new ScriptCDCConfig.Retry() : retry;
+    }
+
+    long backoff(int attempts) {
+        ScriptCDCConfig.Retry r = retry;
+        long delay = r.getInitialBackoffMs() << Math.min(attempts - 1, 30);
+        return delay <= 0 ? r.getMaxBackoffMs() : Math.min(delay, r.getMaxBackoffMs());
+    }
+
+    /**
+     * 顺序键，没有主键时为 null
+     */
+    static String gate(String table, String key) {
+        return key == null || key.isEmpty() ? null : table + "/" + key;
+    }
+
+    /**
+     * 同一个键是否有未处理完的死信，有时后续事件需要排在死信之后
+     *
+     * @param table 表
+     * @param key   顺序键
+     */
+    boolean parked(String table, String key) {
+        String gate = gate(table, key);
+        return gate != null && parked.containsKey(gate);
+    }
+
+    /**
+     * 加入脚本执行失败的事件
+     *
+     * @param event 事件
+     * @param key   顺序键，事务批次为空字符串
+     * @param text  脚本参数
+     * @param error 错误
+     */
+    void add(QueueEvent event, String key, String text, Throwable error) {
+        DeadLetter letter = new DeadLetter(
+            -1, event.index(), key, event.database(), event.table(), event.op(), text,
+            1, System.currentTimeMillis() + backoff(1), String.valueOf(error)
+        );
+        deadLettered.incrementAndGet();
+        if (retry.getMaxAttempts() <= 1) {
+            exhaust(letter);
+        } else {
+            append(letter, true);
+        }
+    }
+
+    /**
+     * 加入排在同一个键的死信之后的事件，前面的死信处理完后立即执行
+     *
+     * @param event 事件
+     * @param key   顺序键
+     * @param text  脚本参数
+     */
+    void park(QueueEvent event, String key, String text) {
+        append(new DeadLetter(
+            -1, event.index(), key, event.database(), event.table(), event.op(), text,
+            0, System.currentTimeMillis(), "等待同一个键之前的死信"
+        ), true);
+    }
+
+    private synchronized long append(DeadLetter letter, boolean added) {
+        retryAppender.writeDocument(letter::write);
+        if (added) {
+            String gate = gate(letter.table(), letter.key());
+            if (gate != null) {
+                parked.merge(gate, 1, Integer::sum);
+            }
+        }
+        signal.release();
+        return retryAppender.lastIndexAppended();
+    }
+
+    private void resolve(DeadLetter letter) {
+        String gate = gate(letter.table(), letter.key());
+        if (gate != null) {
+            parked.computeIfPresent(gate, (_, count) -> count > 1 ? count - 1 : null);
+        }
+    }
+
+    private synchronized void exhaust(DeadLetter letter) {
+        exhausted.incrementAndGet();
+        deadAppender.writeDocument(letter::write);
+        log.warn("scriptId: {}, 事件 {} 重试 {} 次后仍然失败，转入死亡队列", scriptId, letter.source(), letter.attempts());
+    }
+
+    /**
+     * 读入上次提交之后的死信，再次失败追加的死信与原来的死信是同一个事件，只保留最新的
+     */
+    private void load() {
+        record Identity(long source, String table, String key, String value) {
+        }
+        Map<Identity, DeadLetter> letters = new LinkedHashMap<>();
+        while (true) {
+            try (DocumentContext dc = reader.readingDocument()) {
+                if (!dc.isPresent()) {
+                    break;
+                }
+                DeadLetter letter = DeadLetter.read(dc.index(), dc.wire());
+                letters.put(new Identity(letter.source(), letter.table(), letter.key(), letter.value()), letter);
+                lastRead = letter.index();
+            }
+        }
+        for (DeadLetter letter : letters.values()) {
+            String gate = gate(letter.table(), letter.key());
+            if (gate != null) {
+                parked.merge(gate, 1, Integer::sum);
+            }
+            unfinished.add(letter.index());
+            enqueue(letter);
+        }
+    }
+
+    private void run() {
+        reader.singleThreadedCheckReset();
+        committed.singleThreadedCheckReset();
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                read();
+                commit();
+                DeadLetter letter = due.peek();
+                long wait = letter == null || !active.getAsBoolean()
+                    ? POLL_TIMEOUT_MS
+                    : letter.nextAt() - System.currentTimeMillis();
+                if (wait > 0) {
+                    // 新写入的死信可能更早到期，收到信号时提前醒来
+                    signal.tryAcquire(Math.min(wait, POLL_TIMEOUT_MS), TimeUnit.MILLISECONDS);
+                    signal.drainPermits();
+                    continue;
+                }
+                due.poll();
+                finish(letter, process(letter));
+            }
+        } catch (InterruptedException e) {
+            // 正常停止
+        } catch (Throwable e) {
+            log.error("scriptId: {}, 死信重试线程异常退出！", scriptId, e);
+        }
+    }
+
+    private void read() {
+        while (true) {
+            DeadLetter letter;
+            try (DocumentContext dc = reader.readingDocument()) {
+                if (!dc.isPresent()) {
+                    return;
+                }
+                letter = DeadLetter.read(dc.index(), dc.wire());
+            }
+            lastRead = letter.index();
+            if (!requeued.remove(letter.index())) {
+                unfinished.add(letter.index());
+                enqueue(letter);
+            }
+        }
+    }
+
+    private void enqueue(DeadLetter letter) {
+        String gate = gate(letter.table(), letter.key());
+        if (gate == null) {
+            due.add(letter);
+            return;
+        }
+        PriorityQueue<DeadLetter> queue = byKey.computeIfAbsent(gate, _ -> new PriorityQueue<>(BY_SOURCE));
+        DeadLetter head = queue.peek();
+        queue.add(letter);
+        if (queue.peek() == letter) {
+            // 重放的旧事件排到了最前
+            if (head != null) {
+                due.remove(head);
+            }
+            due.add(letter);
+        }
+    }
+
+    /**
+     * 死信处理完成
+     *
+     * @param letter 死信
+     * @param next   再次失败后追加的死信，处理完毕时为 null
+     */
+    private void finish(DeadLetter letter, DeadLetter next) {
+        unfinished.remove(letter.index());
+        if (next != null) {
+            unfinished.add(next.index());
+            requeued.add(next.index());
+        } else {
+            resolve(letter);
+        }
+        String gate = gate(letter.table(), letter.key());
+        if (gate == null) {
+            if (next != null) {
+                due.add(next);
+            }
+            return;
+        }
+        PriorityQueue<DeadLetter> queue = byKey.get(gate);
+        queue.remove(letter);
+        if (next != null) {
+            queue.add(next);
+        }
+        if (queue.isEmpty()) {
+            byKey.remove(gate);
+        } else {
+            due.add(queue.peek());
+        }
+    }
+
+    /**
+     * 提交到最早的未处理完的死信，都处理完时提交到最后读取的位置之后
+     */
+    private void commit() {
+        long index = unfinished.isEmpty() ? lastRead : unfinished.first();
+        if (index < 0 || index == committedAt) {
+            return;
+        }
+        committed.moveToIndex(index);
+        if (unfinished.isEmpty()) {
+            try (DocumentContext dc = committed.readingDocument()) {
+                // 跳过已处理的死信
+            }
+        }
+        committedAt = index;
+    }
+
+    /**
+     * 重新执行死信
+     *
+     * @return 再次失败后追加的死信，成功或者转入死亡队列时为 null
+     */
+    private DeadLetter process(DeadLetter letter) throws InterruptedException {
+        retried.incrementAndGet();
+        Throwable error = scriptScheduler.execute(scriptId, () -> scriptExecutor.execute(scriptId, letter.value()));
+        if (error == null) {
+            recovered.incrementAndGet();
+            return null;
+        }
+        DeadLetter next = letter.retried(System.currentTimeMillis() + backoff(letter.attempts() + 1), String.valueOf(error));
+        if (next.attempts() >= retry.getMaxAttempts()) {
+            exhaust(next);
+            return null;
+        }
+        log.warn("scriptId: {}, 事件 {} 第 {} 次执行失败，{} 毫秒后重试",
+            scriptId, next.source(), next.attempts(), next.nextAt() - System.currentTimeMillis());
+        return next.at(append(next, false));
+    }
+
+    /**
+     * 将死亡队列中上次重放之后的事件放回重试队列，重置重试次数
+     *
+     * @return 重放的事件数
+     */
+    synchronized int replay() {
+        int count = 0;
+        long now = System.currentTimeMillis();
+        try (ExcerptTailer tailer = deadQueue.createTailer("replay")) {
+            while (true) {
+                try (DocumentContext dc = tailer.readingDocument()) {
+                    if (!dc.isPresent()) {
+                        break;
+                    }
+                    DeadLetter letter = DeadLetter.read(dc.index(), dc.wire());
+                    DeadLetter reset = new DeadLetter(-1, letter.source(), letter.key(), letter.database(),
+                        letter.table(), letter.op(), letter.value(), 0, now, letter.error());
+                    retryAppender.writeDocument(reset::write);
+                    String gate = gate(reset.table(), reset.key());
+                    if (gate != null) {
+                        parked.merge(gate, 1, Integer::sum);
+                    }
+                    count++;
+                }
+            }
+        }
+        replayed.addAndGet(count);
+        signal.release();
+        return count;
+    }
+
+    Stats stats() {
+        return new Stats(scriptId, instance, deadLettered.get(), recovered.get(), retried.get(), exhausted.get(), replayed.get());
+    }
+
+    @Override
+    public void close() {
+        thread.interrupt();
+        try {
+            thread.join(TimeUnit.SECONDS.toMillis(30));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            retryAppender.close();
+            deadAppender.close();
+        }
+        reader.close();
+        committed.close();
+        retryQueue.close();
+        deadQueue.close();
+    }
+}
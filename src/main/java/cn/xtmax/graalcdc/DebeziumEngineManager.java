@@ -1,41 +1,147 @@
 package cn.xtmax.graalcdc;
 
 import cn.xtmax.graalcdc.config.ListenDatabaseInstanceConfig;
+import cn.xtmax.graalcdc.config.ScriptCDCConfig;
 import cn.xtmax.graalcdc.config.SystemConfig;
+import cn.xtmax.graalcdc.sink.SinkRegistry;
+import cn.xtmax.graalcdc.storage.CompactedSchemaHistory;
+import cn.xtmax.graalcdc.storage.LogOffsetBackingStore;
 import io.debezium.engine.ChangeEvent;
 import io.debezium.engine.DebeziumEngine;
 import io.debezium.engine.format.Json;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
-import java.util.Map;
-import java.util.Objects;
-import java.util.Properties;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Predicate;
 
 /**
  * @author 起风了
  * @email m.zxt@foxmail.com
  * @date 2025/12/27 20:01
  */
+@Slf4j
 @Component
-public class DebeziumEngineManager {
+public class DebeziumEngineManager implements DisposableBean {
 
+    // 已注册的实例
+    private final Map<String, ListenDatabaseInstanceConfig> instances = new ConcurrentHashMap<>();
 
+    // 运行中的实例
     private final Map<String, Item> engines = new ConcurrentHashMap<>();
 
-    record Item(DebeziumEngine<ChangeEvent<String, String>> engine,
-                ExecutorService executorService
+    // debezium 异步引擎
+    static final String ASYNC_ENGINE_BUILDER_FACTORY = "io.debezium.embedded.async.ConvertingAsyncEngineBuilderFactory";
+
+    // 所有引擎共享的虚拟线程执行器，引擎数量不再受平台线程数限制
+    private final ExecutorService engineExecutor = Executors.newVirtualThreadPerTaskExecutor();
+
+    // 实例是否允许写入队列，参数为实例唯一标识，集群模式下由 ClusterCoordinator 设置为租约检查
+    private volatile Predicate<String> writeGuard = _ -> true;
+
+    /**
+     * 运行中的实例
+     *
+     * @param name               实例名称（队列目录、offset 文件名）
+     * @param engine             debezium 引擎
+     * @param future             引擎运行任务
+     * @param recordHandler      记录处理器
+     * @param columnIncludeList  启动时下推的列
+     * @param transactionMetadata 启动时是否开启了事务元数据
+     */
+    record Item(String name,
+                DebeziumEngine<ChangeEvent<String, String>> engine,
+                Future<?> future,
+                DebeziumEngineRecordHandler recordHandler,
+                String columnIncludeList,
+                boolean transactionMetadata
     ) {
     }
 
+    @Autowired
+    QueueManager queueManager;
+
     @Autowired
     SystemConfig systemConfig;
 
-//    @Autowired
-//    DebeziumEngineRecordHandler recordHandler;
+    @Autowired
+    ScriptScheduler scriptScheduler;
+
+    @Autowired
+    ScriptExecutor scriptExecutor;
+
+    @Autowired
+    DeadLetterManager deadLetterManager;
+
+    @Autowired
+    StateStoreManager stateStoreManager;
+
+    @Autowired
+    SinkRegistry sinkRegistry;
+
+    /**
+     * 根据脚本声明的列，计算每张表需要捕获的列（各脚本的并集），生成 column.include.list
+     *
+     * @param cdcConfigs 订阅实例的脚本的cdc配置
+     * @return column.include.list，为 null 表示无法下推，需要捕获全部列
+     */
+    static String columnIncludeList(Collection<ScriptCDCConfig> cdcConfigs) {
+        if (cdcConfigs.isEmpty()) {
+            return null;
+        }
+        // value 为 null 表示该表需要全部列
+        Map<String, Set<String>> tableColumns = new LinkedHashMap<>();
+        for (ScriptCDCConfig cdcConfig : cdcConfigs) {
+            // 未限定表的脚本需要全部表的全部列，无法下推
+            if (cdcConfig.getTables() == null || cdcConfig.getTables().isEmpty()) {
+                return null;
+            }
+            for (String table : cdcConfig.getTables()) {
+                Set<String> columns = cdcConfig.columnsOf(table);
+                if (columns == null) {
+                    tableColumns.put(table, null);
+                } else if (!tableColumns.containsKey(table)) {
+                    tableColumns.put(table, new LinkedHashSet<>(columns));
+                } else if (tableColumns.get(table) != null) {
+                    tableColumns.get(table).addAll(columns);
+                }
+            }
+        }
+        // 物化的表需要全部列
+        stateTables(cdcConfigs).forEach(table -> tableColumns.put(table, null));
+        if (tableColumns.values().stream().allMatch(Objects::isNull)) {
+            return null;
+        }
+        StringJoiner joiner = new StringJoiner(",");
+        tableColumns.forEach((table, columns) -> {
+            String prefix = table.replace(".", "\\.") + "\\.";
+            if (columns == null) {
+                joiner.add(prefix + ".*");
+            } else {
+                columns.forEach(column -> joiner.add(prefix + column.replace(".", "\\.")));
+            }
+        });
+        return joiner.toString();
+    }
+
+    /**
+     * 脚本声明的物化表（各脚本的并集）
+     *
+     * @param cdcConfigs 脚本的cdc配置
+     * @return 表
+     */
+    static Set<String> stateTables(Collection<ScriptCDCConfig> cdcConfigs) {
+        Set<String> tables = new LinkedHashSet<>();
+        for (ScriptCDCConfig cdcConfig : cdcConfigs) {
+            if (cdcConfig.getState() != null) {
+                tables.addAll(cdcConfig.getState());
+            }
+        }
+        return tables;
+    }
 
     private Item createEngine(ListenDatabaseInstanceConfig databaseInstanceConfig) {
         DbType dbType = databaseInstanceConfig.getDbType();
@@ -49,15 +155,39 @@ public class DebeziumEngineManager {
         props.setProperty("name", name);
         props.setProperty("topic.prefix", dbType.getValue() + "_" + databaseInstanceConfig.getName());
 
-        // 配置 offset 存储文件
-        props.setProperty(
-            "offset.storage",
-            "org.apache.kafka.connect.storage.FileOffsetBackingStore"
-        );
-        props.setProperty(
-            "offset.storage.file.filename",
-            offsetPath + "/" + name + "_offset.dat"
-        );
+        // 配置 offset 存储
+        if ("file".equals(systemConfig.getOffsetStore())) {
+            props.setProperty(
+                "offset.storage",
+                "org.apache.kafka.connect.storage.FileOffsetBackingStore"
+            );
+            props.setProperty(
+                "offset.storage.file.filename",
+                offsetPath + "/" + name + "_offset.dat"
+            );
+        } else {
+            // 所有实例共享一个追加写日志，按实例名称隔离
+            props.setProperty("offset.storage", LogOffsetBackingStore.class.getName());
+            // 集群模式下实例会在节点间迁移，每个实例使用独立的日志，避免多个节点同时写一个文件
+            props.setProperty(
+                LogOffsetBackingStore.FILENAME_CONFIG,
+                systemConfig.getCluster().isEnabled()
+                    ? offsetPath + "/" + name + "_offsets.log"
+                    : offsetPath + "/offsets.log"
+            );
+            props.setProperty(LogOffsetBackingStore.FSYNC_CONFIG, systemConfig.getOffsetFsync());
+            props.setProperty(
+                LogOffsetBackingStore.FSYNC_INTERVAL_MS_CONFIG,
+                String.valueOf(systemConfig.getOffsetFsyncIntervalMs())
+            );
+            props.setProperty(
+                LogOffsetBackingStore.LEGACY_FILENAME_CONFIG,
+                offsetPath + "/" + name + "_offset.dat"
+            );
+        }
+        if (systemConfig.getOffsetFlushIntervalMs() > 0) {
+            props.setProperty("offset.flush.interval.ms", String.valueOf(systemConfig.getOffsetFlushIntervalMs()));
+        }
 
         // 通用数据库连接配置
         props.setProperty("database.hostname", databaseInstanceConfig.getHost());
@@ -72,6 +202,18 @@ public class DebeziumEngineManager {
             props.setProperty("table.include.list", String.join(",", databaseInstanceConfig.getTables()));
         }
 
+        // 列裁剪下推，只捕获订阅该实例的脚本声明需要的列
+        Map<String, ScriptCDCConfig> cdcConfigs = scriptExecutor.getCDCConfigs();
+        List<ScriptCDCConfig> subscribers = subscribers(databaseInstanceConfig, cdcConfigs);
+        String columnIncludeList = columnIncludeList(subscribers);
+
+        // 事务元数据：事件携带事务ID，并额外输出事务的 BEGIN/END，供脚本按事务成批处理
+        boolean transactionMetadata = transactionMetadata(databaseInstanceConfig, subscribers);
+        props.setProperty("provide.transaction.metadata", String.valueOf(transactionMetadata));
+        if (columnIncludeList != null) {
+            props.setProperty("column.include.list", columnIncludeList);
+        }
+
         switch (dbType) {
             case MYSQL -> {
                 props.setProperty("connector.class", "io.debezium.connector.mysql.MySqlConnector");
@@ -88,14 +230,19 @@ public class DebeziumEngineManager {
                         String.join(",", databaseInstanceConfig.getDatabases())
                     );
                 }
+                // 可压缩的 schema history，文件格式与 FileSchemaHistory 兼容
                 props.setProperty(
                     "schema.history.internal",
-                    "io.debezium.storage.file.history.FileSchemaHistory"
+                    CompactedSchemaHistory.class.getName()
                 );
                 props.setProperty(
                     "schema.history.internal.file.filename",
                     offsetPath + "/mysql-" + databaseInstanceConfig.getName() + "_dbhistory.dat"
                 );
+                props.setProperty(
+                    CompactedSchemaHistory.COMPACT_THRESHOLD.name(),
+                    String.valueOf(systemConfig.getSchemaHistoryCompactThreshold())
+                );
             }
 
             case POSTGRESQL -> {
@@ -108,38 +255,254 @@ public class DebeziumEngineManager {
                 props.setProperty("plugin.name", "pgoutput");
                 props.setProperty("slot.name", "debezium_" + databaseInstanceConfig.getName());
                 props.setProperty("publication.name", "debezium_" + databaseInstanceConfig.getName());
-
-                // schema history（PG）
-                props.setProperty(
-                    "database.history",
-                    "io.debezium.relational.history.FileDatabaseHistory"
-                );
-                props.setProperty(
-                    "database.history.file.filename",
-                    offsetPath + "/pg-" + databaseInstanceConfig.getName() + "_dbhistory.dat"
-                );
+                // PG 的表结构随逻辑复制消息下发，不需要 schema history
             }
 
             default -> throw new UnsupportedOperationException("不支持的数据库类型: " + dbType);
         }
 
-        DebeziumEngine<ChangeEvent<String, String>> engine =
-            DebeziumEngine.create(Json.class)
+        DebeziumEngineRecordHandler recordHandler = new DebeziumEngineRecordHandler(
+            systemConfig, scriptScheduler, scriptExecutor, deadLetterManager, stateStoreManager, sinkRegistry,
+            databaseInstanceConfig, queueManager.acquire(name), queueManager.codec(name),
+            // 解析任务同样跑在共享的虚拟线程上，不再为每个实例创建线程池
+            engineExecutor
+        );
+        String key = databaseInstanceConfig.uniqueKey();
+        recordHandler.setWriteGuard(() -> writeGuard.test(key));
+        cdcConfigs.forEach((filepath, cdcConfig) -> {
+            if (isSubscribed(databaseInstanceConfig, cdcConfig)) {
+                recordHandler.setScriptHandler(filepath, cdcConfig);
+            }
+        });
+        recordHandler.setStateTables(stateTables(cdcConfigs.values()));
+
+        DebeziumEngine<ChangeEvent<String, String>> engine;
+        int threads = databaseInstanceConfig.getRecordProcessingThreads();
+        if (threads > 1) {
+            // 异步引擎：SMT 与 JSON 转换在多个线程上并行，按源库顺序成批交给处理器
+            props.setProperty("record.processing.threads", String.valueOf(threads));
+            props.setProperty("record.processing.order", "ORDERED");
+            engine = DebeziumEngine.create(Json.class, ASYNC_ENGINE_BUILDER_FACTORY)
+                .using(props)
+                .notifying(recordHandler::handleBatch)
+                .build();
+        } else {
+            engine = DebeziumEngine.create(Json.class)
                 .using(props)
-//                .notifying(v -> recordHandler.handle(databaseInstanceConfig, v))
+                .notifying(recordHandler::handle)
                 .build();
+        }
+
+
+        Future<?> future = engineExecutor.submit(engine);
+        log.info("实例 {} 已启动", name);
+        return new Item(name, engine, future, recordHandler, columnIncludeList, transactionMetadata);
+    }
+
+    /**
+     * 脚本是否订阅了实例
+     *
+     * @param databaseInstanceConfig 实例配置
+     * @param cdcConfig              脚本的cdc配置
+     * @return 是否订阅
+     */
+    static boolean isSubscribed(ListenDatabaseInstanceConfig databaseInstanceConfig, ScriptCDCConfig cdcConfig) {
+        Set<String> databases = cdcConfig.getDatabases();
+        Set<String> instanceDatabases = databaseInstanceConfig.getDatabases();
+        if (databases == null || databases.isEmpty() || instanceDatabases == null || instanceDatabases.isEmpty()) {
+            return true;
+        }
+        return databases.stream().anyMatch(instanceDatabases::contains);
+    }
+
+    /**
+     * 是否开启事务元数据：实例配置优先，未配置时只在订阅的脚本声明了 transaction 时开启，
+     * 避免每个事务的 BEGIN/END 写入队列、再由每个脚本消费者读取一遍
+     *
+     * @param databaseInstanceConfig 实例配置
+     * @param subscribers            订阅实例的脚本的cdc配置
+     */
+    static boolean transactionMetadata(ListenDatabaseInstanceConfig databaseInstanceConfig, Collection<ScriptCDCConfig> subscribers) {
+        if (databaseInstanceConfig.getTransactionMetadata() != null) {
+            return databaseInstanceConfig.getTransactionMetadata();
+        }
+        return subscribers.stream().anyMatch(cdcConfig -> cdcConfig.getTransaction() != null);
+    }
 
+    /**
+     * 订阅实例的脚本
+     *
+     * @param databaseInstanceConfig 实例配置
+     * @param cdcConfigs             所有脚本的cdc配置
+     * @return 订阅实例的脚本的cdc配置
+     */
+    static List<ScriptCDCConfig> subscribers(ListenDatabaseInstanceConfig databaseInstanceConfig, Map<String, ScriptCDCConfig> cdcConfigs) {
+        return cdcConfigs.values().stream()
+            .filter(cdcConfig -> isSubscribed(databaseInstanceConfig, cdcConfig))
+            .toList();
+    }
 
-        ExecutorService executorService = Executors.newSingleThreadExecutor();
-        executorService.submit(engine);
-        return new Item(engine, executorService);
+    private boolean hasSubscriber(ListenDatabaseInstanceConfig databaseInstanceConfig) {
+        return scriptExecutor.getCDCConfigs().values().stream()
+            .anyMatch(cdcConfig -> isSubscribed(databaseInstanceConfig, cdcConfig));
     }
 
+    private void close(Item item) {
+        try {
+            item.engine.close();
+        } catch (Exception e) {
+            log.error("关闭实例 {} 的引擎失败！", item.name, e);
+        }
+        try {
+            item.future.get(30, TimeUnit.SECONDS);
+        } catch (Exception e) {
+            log.warn("等待实例 {} 的引擎停止失败", item.name, e);
+        }
+        item.recordHandler.close();
+        queueManager.release(item.name);
+        log.info("实例 {} 已停止", item.name);
+    }
 
+    /**
+     * 注册并运行实例，开启延迟启动时，没有脚本订阅的实例等到有脚本订阅时再启动，
+     * 开启集群模式时只注册，由 ClusterCoordinator 认领后启动
+     *
+     * @param databaseInstanceConfig 实例配置
+     */
     public void runner(ListenDatabaseInstanceConfig databaseInstanceConfig){
         Objects.requireNonNull(databaseInstanceConfig, "数据库实例不能为 NULL");
         String key = databaseInstanceConfig.uniqueKey();
+        instances.put(key, databaseInstanceConfig);
+        if (systemConfig.getCluster().isEnabled()) {
+            return;
+        }
+        if (systemConfig.isLazyStart() && !hasSubscriber(databaseInstanceConfig)) {
+            log.info("实例 {} 暂无脚本订阅，延迟启动", databaseInstanceConfig.getName());
+            return;
+        }
+        start(key);
+    }
+
+    /**
+     * 设置写入队列前的检查，对运行中的实例立即生效
+     *
+     * @param writeGuard 参数为实例唯一标识，返回是否允许写入
+     */
+    public void setWriteGuard(Predicate<String> writeGuard) {
+        this.writeGuard = Objects.requireNonNull(writeGuard);
+    }
+
+    /**
+     * 启动已注册的实例
+     *
+     * @param key 实例唯一标识
+     */
+    public void start(String key) {
+        ListenDatabaseInstanceConfig databaseInstanceConfig = instances.get(key);
+        if (databaseInstanceConfig == null) {
+            throw new IllegalArgumentException("实例未注册: " + key);
+        }
         engines.computeIfAbsent(key, _ -> createEngine(databaseInstanceConfig));
     }
 
+    /**
+     * 停止实例，保留注册信息，可以再次启动
+     *
+     * @param key 实例唯一标识
+     */
+    public void stop(String key) {
+        Item item = engines.remove(key);
+        if (item != null) {
+            close(item);
+        }
+    }
+
+    /**
+     * 停止并注销实例
+     *
+     * @param key 实例唯一标识
+     */
+    public void evict(String key) {
+        stop(key);
+        instances.remove(key);
+    }
+
+    /**
+     * 已注册的实例
+     *
+     * @return 实例唯一标识
+     */
+    public Set<String> instanceKeys() {
+        return Set.copyOf(instances.keySet());
+    }
+
+    /**
+     * 实例是否运行中
+     *
+     * @param key 实例唯一标识
+     */
+    public boolean isRunning(String key) {
+        return engines.containsKey(key);
+    }
+
+    /**
+     * 脚本新增或者修改，同步到运行中的实例，并启动延迟启动的实例
+     *
+     * @param filepath 脚本文件路径
+     */
+    public void scriptChanged(String filepath) {
+        ScriptCDCConfig cdcConfig = scriptExecutor.getCDCConfig(filepath);
+        Map<String, ScriptCDCConfig> cdcConfigs = scriptExecutor.getCDCConfigs();
+        Set<String> stateTables = stateTables(cdcConfigs.values());
+        instances.forEach((key, databaseInstanceConfig) -> {
+            boolean subscribed = isSubscribed(databaseInstanceConfig, cdcConfig);
+            List<ScriptCDCConfig> subscribers = subscribers(databaseInstanceConfig, cdcConfigs);
+            String columnIncludeList = columnIncludeList(subscribers);
+            boolean transactionMetadata = transactionMetadata(databaseInstanceConfig, subscribers);
+            Item item = engines.get(key);
+            if (item == null) {
+                // 集群模式下由 ClusterCoordinator 决定是否启动
+                if (subscribed && !systemConfig.getCluster().isEnabled()) {
+                    start(key);
+                }
+                return;
+            }
+            if (!Objects.equals(item.columnIncludeList, columnIncludeList) || item.transactionMetadata != transactionMetadata) {
+                // 下推的列或者事务元数据发生变化，需要重启连接器
+                log.info("实例 {} 的列裁剪或者事务元数据配置发生变化，重启", item.name);
+                stop(key);
+                start(key);
+            } else {
+                if (subscribed) {
+                    item.recordHandler.setScriptHandler(filepath, cdcConfig);
+                } else {
+                    item.recordHandler.removeScriptHandler(filepath);
+                }
+                item.recordHandler.setStateTables(stateTables);
+            }
+        });
+    }
+
+    /**
+     * 脚本删除，从运行中的实例移除
+     *
+     * @param filepath 脚本文件路径
+     */
+    public void scriptRemoved(String filepath) {
+        Set<String> stateTables = stateTables(scriptExecutor.getCDCConfigs().values());
+        engines.values().forEach(item -> {
+            item.recordHandler.removeScriptHandler(filepath);
+            item.recordHandler.setStateTables(stateTables);
+        });
+        deadLetterManager.release(filepath);
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        for (String key : engines.keySet()) {
+            stop(key);
+        }
+        engineExecutor.shutdown();
+    }
+
 }
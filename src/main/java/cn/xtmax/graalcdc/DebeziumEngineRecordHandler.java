@@ -1,38 +1,38 @@
 package cn.xtmax.graalcdc;
 
 import cn.xtmax.graalcdc.config.ListenDatabaseInstanceConfig;
+import cn.xtmax.graalcdc.config.ScriptCDCConfig;
 import cn.xtmax.graalcdc.config.SystemConfig;
+import cn.xtmax.graalcdc.jfr.QueueAppendEvent;
+import cn.xtmax.graalcdc.sink.SinkBinding;
+import cn.xtmax.graalcdc.sink.SinkRegistry;
+import cn.xtmax.graalcdc.window.ScriptWindows;
 import com.alibaba.fastjson2.JSON;
 import com.alibaba.fastjson2.JSONObject;
 import io.debezium.engine.ChangeEvent;
+import io.debezium.engine.DebeziumEngine;
 import lombok.extern.slf4j.Slf4j;
-import net.openhft.chronicle.core.io.IORuntimeException;
-import net.openhft.chronicle.core.io.InvalidMarshallableException;
 import net.openhft.chronicle.queue.ExcerptAppender;
-import net.openhft.chronicle.queue.ExcerptTailer;
-import net.openhft.chronicle.queue.RollCycles;
 import net.openhft.chronicle.queue.impl.single.SingleChronicleQueue;
-import net.openhft.chronicle.queue.impl.single.SingleChronicleQueueBuilder;
-import net.openhft.chronicle.wire.ReadMarshallable;
-import net.openhft.chronicle.wire.ValueIn;
-import net.openhft.chronicle.wire.WireIn;
-import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.stereotype.Component;
 
+import java.nio.file.Path;
 import java.util.*;
-import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.Semaphore;
+import java.util.concurrent.*;
+import java.util.function.BooleanSupplier;
 
 /**
  * debezium 引擎记录处理器
+ * <p>
+ * 记录先写入本地队列保证可恢复，写入后直接把内存中的事件投递到各脚本的内存通道，不再从磁盘读取、解码；
+ * 脚本跟得上时事件从捕获到执行不经过磁盘读取与额外的线程切换，
+ * 脚本落后（通道满了）时不再投递，由脚本自己从队列追赶
  *
  * @author 起风了
  * @email m.zxt@foxmail.com
  * @date 2025/12/29 18:18
  */
 @Slf4j
-public class DebeziumEngineRecordHandler {
+public class DebeziumEngineRecordHandler implements AutoCloseable {
 
     final SystemConfig systemConfig;
 
@@ -40,45 +40,50 @@ public class DebeziumEngineRecordHandler {
 
     final ScriptExecutor scriptExecutor;
 
+    final DeadLetterManager deadLetterManager;
+
+    final StateStoreManager stateStoreManager;
+
+    final SinkRegistry sinkRegistry;
+
     final SingleChronicleQueue queue;
 
     final ExcerptAppender queueExcerptAppender;
 
+    final QueueCodec queueCodec;
+
     final Set<String> databases = ConcurrentHashMap.newKeySet();
     final Set<String> tables = ConcurrentHashMap.newKeySet();
 
-    /**
-     * 脚本处理器
-     *
-     * @param filepath  脚本文件路径
-     * @param databases 数据库名称
-     * @param tables    表名称
-     * @param thread    线程
-     * @param semaphore 信号量
-     * @param future    任务
-     * @param tailerReader 读取器
-     */
-    record ScriptHandler(String filepath,
-                         Set<String> databases,
-                         Set<String> tables,
-                         Thread thread,
-                         Semaphore semaphore,
-                         CompletableFuture<Void> future,
-                         ExcerptTailer excerptTailer,
-                         TailerReader tailerReader) {
-    }
+    private final Map<String, ScriptWorker> scriptWorkerMap = new ConcurrentHashMap<>();
 
-    private final Map<String, ScriptHandler> scriptHandlerMap = new ConcurrentHashMap<>();
+    // 物化表的状态消费者，key 为表
+    private final Map<String, StateWorker> stateWorkerMap = new ConcurrentHashMap<>();
 
     private final ListenDatabaseInstanceConfig databaseInstanceConfig;
 
+    // 并行解析记录的执行器，所有实例共用（虚拟线程），单线程处理时为 null
+    private final ExecutorService converter;
+
+    // 写入队列前的检查，集群模式下为本节点是否仍持有实例的租约
+    private volatile BooleanSupplier writeGuard = () -> true;
+
     public DebeziumEngineRecordHandler(SystemConfig systemConfig,
                                        ScriptScheduler scriptScheduler,
                                        ScriptExecutor scriptExecutor,
-                                       ListenDatabaseInstanceConfig databaseInstanceConfig) {
+                                       DeadLetterManager deadLetterManager,
+                                       StateStoreManager stateStoreManager,
+                                       SinkRegistry sinkRegistry,
+                                       ListenDatabaseInstanceConfig databaseInstanceConfig,
+                                       SingleChronicleQueue queue,
+                                       QueueCodec queueCodec,
+                                       ExecutorService converter) {
         this.systemConfig = systemConfig;
         this.scriptScheduler = scriptScheduler;
         this.scriptExecutor = scriptExecutor;
+        this.deadLetterManager = deadLetterManager;
+        this.stateStoreManager = stateStoreManager;
+        this.sinkRegistry = sinkRegistry;
         this.databaseInstanceConfig = databaseInstanceConfig;
         if (databaseInstanceConfig.getDatabases() != null){
             databases.addAll(databaseInstanceConfig.getDatabases());
@@ -86,100 +91,297 @@ public class DebeziumEngineRecordHandler {
         if (databaseInstanceConfig.getTables() != null){
             tables.addAll(databaseInstanceConfig.getTables());
         }
-        this.queue = SingleChronicleQueueBuilder
-            .binary(systemConfig.getQueueDirectory())
-            .rollCycle(RollCycles.FAST_HOURLY)
-            .build();
+        this.queue = queue;
         this.queueExcerptAppender = queue.createAppender();
+        this.queueCodec = queueCodec;
+        this.converter = databaseInstanceConfig.getRecordProcessingThreads() > 1 ? converter : null;
     }
 
+    /**
+     * 设置写入队列前的检查，检查不通过时拒绝写入并抛出异常，记录不会被提交
+     *
+     * @param writeGuard 是否允许写入
+     */
+    public void setWriteGuard(BooleanSupplier writeGuard) {
+        this.writeGuard = Objects.requireNonNull(writeGuard);
+    }
 
-    final class TailerReader implements ReadMarshallable {
-        final StringBuilder sb = new StringBuilder(2 * 1024);
-        final String scriptId;
+    /**
+     * 投递刚写入队列的事件，只在引擎线程调用：跟得上的脚本直接从内存通道接收，落后的脚本忽略，由它自己从队列追赶
+     *
+     * @param event 事件，索引为写入后的索引
+     */
+    private void publish(QueueEvent event) {
+        for (ScriptWorker scriptWorker : scriptWorkerMap.values()) {
+            scriptWorker.offer(event);
+        }
+        for (StateWorker stateWorker : stateWorkerMap.values()) {
+            stateWorker.signal();
+        }
+    }
 
-        TailerReader(String scriptId) {
-            this.scriptId = scriptId;
+    /**
+     * 获取事件所属的表，格式与 table.include.list 一致
+     *
+     * @param source 事件的 source 信息
+     * @return MySQL 为 库名.表名，PG 为 模式名.表名
+     */
+    String tableId(JSONObject source) {
+        String prefix = databaseInstanceConfig.getDbType() == DbType.POSTGRESQL
+            ? source.getString("schema")
+            : source.getString("db");
+        return prefix + "." + source.getString("table");
+    }
+
+    /**
+     * 设置脚本消费者，已存在时按新的配置重建
+     * <p>
+     * 停止旧的消费者最多等待 30 秒，不能在 Map 的 compute 中进行；新旧交替期间没有消费者接收投递，
+     * 新的消费者启动时从持久化的消费位置追赶，事件不会丢失。同一个处理器上的设置、移除串行执行
+     *
+     * @param scriptId  脚本ID
+     * @param cdcConfig 脚本的cdc配置
+     */
+    public synchronized void setScriptHandler(String scriptId, ScriptCDCConfig cdcConfig) {
+        Objects.requireNonNull(cdcConfig, "脚本cdc配置不能为 NULL");
+        // 同名 tailer 不能并存，先停止旧的
+        removeScriptHandler(scriptId);
+        ScriptWindows windows = null;
+        if (cdcConfig.getWindows() != null && !cdcConfig.getWindows().isEmpty()) {
+            windows = new ScriptWindows(
+                cdcConfig.getWindows(),
+                Path.of(systemConfig.getWindowDirectory(), DeadLetterManager.directoryName(scriptId), instanceName() + ".json"),
+                cdcConfig.getWindowCheckpointMs()
+            );
         }
-        @Override
-        public void readMarshallable(WireIn wire) throws IORuntimeException, InvalidMarshallableException {
-            ValueIn valueIn = wire.getValueIn();
-            valueIn.text(sb);
-            if (sb.isEmpty()) {
+        scriptWorkerMap.put(scriptId, new ScriptWorker(
+            scriptId, cdcConfig, scriptScheduler, scriptExecutor,
+            deadLetterManager.acquire(scriptId, instanceName(), cdcConfig.getRetry(), () -> writeGuard.getAsBoolean()),
+            windows, windowEmitter(scriptId), queue, queueCodec
+        ));
+    }
+
+    /**
+     * 窗口结果输出：配置了输出端时写入输出端，否则调用脚本导出的 onWindow；
+     * 失败时抛出异常，结果留在待输出队列中重试
+     *
+     * @param scriptId 脚本ID
+     */
+    ScriptWindows.Emitter windowEmitter(String scriptId) {
+        return (name, window, results) -> {
+            if (window.getSink() != null) {
+                SinkBinding binding = sinkRegistry.getBindings().get(window.getSink());
+                if (binding == null) {
+                    throw new IllegalStateException("scriptId: " + scriptId + ", 窗口 " + name + " 的输出端 " + window.getSink() + " 不存在");
+                }
+                try {
+                    binding.writeRecords(results).join();
+                } catch (CompletionException e) {
+                    throw new IllegalStateException("scriptId: " + scriptId + ", 窗口 " + name + " 的结果写入输出端失败", e.getCause());
+                }
                 return;
             }
-            String text = sb.toString();
-            CompletableFuture<?> future = scriptScheduler.schedule(() -> scriptExecutor.execute(scriptId, text));
-            future.handle((_, _e) -> {
-                if (_e != null){
-                    // 记录下错误
-                    log.error("scriptId: {}, 执行脚本错误！", scriptId, _e);
-                }
-                return null;
-            })
-            // 等待执行完成，不然ExcerptTailer对应的position会前移
-            .join();
+            String text = JSON.toJSONString(results);
+            Throwable error = scriptScheduler.execute(scriptId, () -> scriptExecutor.invoke(scriptId, "onWindow", text));
+            if (error != null) {
+                throw new IllegalStateException("scriptId: " + scriptId + ", 窗口 " + name + " 的 onWindow 执行失败", error);
+            }
+        };
+    }
+
+    /**
+     * 移除脚本消费者
+     *
+     * @param scriptId 脚本ID
+     */
+    public synchronized void removeScriptHandler(String scriptId) {
+        ScriptWorker scriptWorker = scriptWorkerMap.remove(scriptId);
+        if (scriptWorker != null) {
+            // 关闭时同时注销脚本的调度通道
+            scriptWorker.close();
+            // 实例停止（集群模式下失去租约）后不再重试它的死信，由接管实例的节点继续
+            deadLetterManager.release(scriptId, instanceName());
         }
     }
 
-    ScriptHandler createScriptHandler(String scriptId, Set<String> databases, Set<String> tables) {
-        Semaphore semaphore = new Semaphore(1);
-        CompletableFuture<Void> future = new CompletableFuture<>();
-        TailerReader tailerReader = new TailerReader(scriptId);
-        ExcerptTailer tailer = queue.createTailer(scriptId);
-        Thread thread = Thread.startVirtualThread(() -> {
-            try {
-                while (!Thread.currentThread().isInterrupted()) {
-                    semaphore.acquire();
-                    tailer.readDocument(tailerReader);
-                }
-                future.complete(null);
-            } catch (Throwable e){
-                // 释放资源
-                try{
-                    tailer.close();
-                }catch (Throwable t){
-                    log.error("关闭 Tailer 错误！", t);
-                }
-                future.completeExceptionally(e);
+    /**
+     * 实例名称，与队列、状态存储的目录一致
+     */
+    String instanceName() {
+        return databaseInstanceConfig.getDbType().getValue() + "-" + databaseInstanceConfig.getName();
+    }
+
+    /**
+     * 设置需要物化的表，新增的表开始构建状态，不再需要的表停止更新（文件保留）
+     *
+     * @param stateTables 脚本声明的物化表
+     */
+    public void setStateTables(Set<String> stateTables) {
+        Set<String> wanted = new HashSet<>(stateTables);
+        if (!tables.isEmpty()) {
+            // 只物化本实例捕获的表
+            wanted.retainAll(tables);
+        }
+        for (String table : Set.copyOf(stateWorkerMap.keySet())) {
+            if (!wanted.contains(table)) {
+                removeStateTable(table);
             }
-        });
-        return new ScriptHandler(scriptId, databases, tables, thread, semaphore, future, tailer, tailerReader);
+        }
+        for (String table : wanted) {
+            stateWorkerMap.computeIfAbsent(table, t -> new StateWorker(t, stateStoreManager.acquire(instanceName(), t), queue, queueCodec));
+        }
+    }
+
+    private void removeStateTable(String table) {
+        StateWorker stateWorker = stateWorkerMap.remove(table);
+        if (stateWorker != null) {
+            stateWorker.close();
+            stateStoreManager.release(instanceName(), table);
+        }
     }
 
-    public void setScriptHandler(String scriptId, Set<String> databases, Set<String> tables) {
-        scriptHandlerMap.computeIfAbsent(scriptId, _ -> createScriptHandler(scriptId, databases, tables));
+    @Override
+    public void close() {
+        for (String scriptId : scriptWorkerMap.keySet()) {
+            removeScriptHandler(scriptId);
+        }
+        for (String table : stateWorkerMap.keySet()) {
+            removeStateTable(table);
+        }
+        queueExcerptAppender.close();
     }
 
     public void handle(ChangeEvent<String, String> record) {
+        QueueEvent event = prepare(record);
+        if (event != null) {
+            append(event);
+        }
+    }
+
+    /**
+     * 批量处理记录：在共享的虚拟线程上分片并行解析、过滤（分片数为实例的记录处理线程数），再按源库顺序写入队列，全部写入后提交 offset
+     *
+     * @param records   一批记录，按源库顺序
+     * @param committer offset 提交
+     */
+    public void handleBatch(List<ChangeEvent<String, String>> records,
+                            DebeziumEngine.RecordCommitter<ChangeEvent<String, String>> committer) throws InterruptedException {
+        QueueEvent[] events = new QueueEvent[records.size()];
+        if (converter == null || records.size() < 2) {
+            for (int i = 0; i < events.length; i++) {
+                events[i] = prepare(records.get(i));
+            }
+        } else {
+            int threads = databaseInstanceConfig.getRecordProcessingThreads();
+            int slice = (events.length + threads - 1) / threads;
+            List<Future<?>> futures = new ArrayList<>(threads);
+            for (int from = 0; from < events.length; from += slice) {
+                int start = from;
+                int end = Math.min(from + slice, events.length);
+                futures.add(converter.submit(() -> {
+                    for (int i = start; i < end; i++) {
+                        events[i] = prepare(records.get(i));
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    throw new IllegalStateException("实例 " + databaseInstanceConfig.getName() + " 解析记录失败", e.getCause());
+                }
+            }
+        }
+        for (int i = 0; i < events.length; i++) {
+            if (events[i] != null) {
+                append(events[i]);
+            }
+            committer.markProcessed(records.get(i));
+        }
+        committer.markBatchFinished();
+    }
+
+    /**
+     * 解析、过滤记录，可以在任意线程调用
+     *
+     * @param record debezium 记录
+     * @return 需要写入队列的事件（索引为 -1），不需要时为 null
+     */
+    QueueEvent prepare(ChangeEvent<String, String> record) {
         String value = record.value();
         // 墓碑消息
         if (value == null) {
-            return;
+            return null;
         }
         JSONObject payloadBody = JSON.parseObject(value).getJSONObject("payload");
         if (payloadBody == null) {
-            return;
+            return null;
         }
         // Schema change / DDL（直接丢弃）
         if (payloadBody.containsKey("ddl")) {
-            return;
+            return null;
+        }
+        // 事务边界（provide.transaction.metadata）
+        String status = payloadBody.getString("status");
+        if (status != null && !payloadBody.containsKey("op")) {
+            if (QueueEvent.BEGIN.equals(status) || QueueEvent.END.equals(status)) {
+                String tx = payloadBody.getString("id") == null ? "" : payloadBody.getString("id");
+                return new QueueEvent(-1, "", "", "", status, "", tx);
+            }
+            return null;
         }
         String op = payloadBody.getString("op");
         // 只保留行级变更
         if (!"c".equals(op) && !"u".equals(op) && !"d".equals(op) && !"r".equals(op)) {
-            return;
+            return null;
         }
         // after 为 null 的也不要（比如某些 c 是 schema）
         if (!payloadBody.containsKey("after")) {
-            return;
+            return null;
         }
         JSONObject source = payloadBody.getJSONObject("source");
         String db = source.getString("db");
-        String table = source.getString("table");
+        String table = tableId(source);
+        String key = record.key() == null ? "" : record.key();
+        JSONObject transaction = payloadBody.getJSONObject("transaction");
+        String tx = transaction == null || transaction.getString("id") == null ? "" : transaction.getString("id");
+        return new QueueEvent(-1, key, db, table, op, value, tx);
+    }
+
+    /**
+     * 写入队列并投递，只在引擎线程按源库顺序调用
+     *
+     * @param event 解析后的事件
+     */
+    void append(QueueEvent event) {
+        if (!writeGuard.getAsBoolean()) {
+            // 租约过期后其他节点可能已经接管，不能再写队列，也不能提交 offset
+            throw new IllegalStateException("实例 " + instanceName() + " 已不允许写入队列（集群租约已过期）");
+        }
+        if (event.isMarker()) {
+            queueExcerptAppender.writeDocument(w -> QueueEvent.write(w, "", "", "", event.op(), "", event.tx()));
+            publish(new QueueEvent(queueExcerptAppender.lastIndexAppended(), "", "", "", event.op(), "", event.tx()));
+            return;
+        }
         // 防止内存队列爆炸，这里快速写入本地队列
-        queueExcerptAppender.writeText(value);
-        // 释放信号
-        scriptHandlerMap.forEach((_, scriptHandler) -> scriptHandler.semaphore.release());
+        QueueAppendEvent appendEvent = new QueueAppendEvent();
+        appendEvent.begin();
+        QueueCodec.Encoded encoded = queueCodec.encode(event.table(), event.value());
+        queueExcerptAppender.writeDocument(w -> QueueEvent.write(
+            w, event.key(), event.database(), event.table(), event.op(), event.value(), event.tx(), encoded
+        ));
+        long index = queueExcerptAppender.lastIndexAppended();
+        appendEvent.end();
+        if (appendEvent.shouldCommit()) {
+            appendEvent.instance = instanceName();
+            appendEvent.index = index;
+            appendEvent.table = event.table();
+            appendEvent.op = event.op();
+            appendEvent.bytes = encoded == null ? event.value().length() : encoded.data().length;
+            appendEvent.compressed = encoded != null;
+            appendEvent.commit();
+        }
+        // 已经写入队列，直接从内存投递
+        publish(new QueueEvent(index, event.key(), event.database(), event.table(), event.op(), event.value(), event.tx()));
     }
 }
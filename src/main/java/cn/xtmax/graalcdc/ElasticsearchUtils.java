@@ -1,21 +1,39 @@
 package cn.xtmax.graalcdc;
 
+import cn.xtmax.graalcdc.config.SystemConfig;
+import cn.xtmax.graalcdc.jfr.ElasticsearchRequestEvent;
+import cn.xtmax.graalcdc.sink.SourceVersion;
+import com.alibaba.fastjson2.JSON;
+import com.alibaba.fastjson2.JSONArray;
 import com.alibaba.fastjson2.JSONObject;
 import lombok.extern.slf4j.Slf4j;
 import org.graalvm.polyglot.HostAccess;
+import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.core.convert.ConversionService;
+import org.springframework.http.HttpMethod;
 import org.springframework.stereotype.Component;
 import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Base64;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Predicate;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
 
 /**
  * Elasticsearch 工具类
@@ -26,7 +44,7 @@ import java.util.stream.Stream;
  */
 @Slf4j
 @Component
-public class ElasticsearchUtils {
+public class ElasticsearchUtils implements InitializingBean {
 
     @Autowired
     private WebClient webClient;
@@ -34,6 +52,25 @@ public class ElasticsearchUtils {
     @Autowired
     ConversionService conversionService;
 
+    @Autowired
+    SystemConfig systemConfig;
+
+    static final Pattern VERSION_CONFLICT = Pattern.compile("current version \\[(\\d+)] is higher.*provided \\[(\\d+)]");
+
+    // ES 请求的并发限制，所有脚本共用
+    private AdaptiveConcurrencyLimiter limiter;
+
+    @Override
+    public void afterPropertiesSet() {
+        SystemConfig.Elasticsearch config = systemConfig.getElasticsearch();
+        this.limiter = new AdaptiveConcurrencyLimiter(
+            config.getInitialConcurrency(),
+            config.getMinConcurrency(),
+            Math.min(config.getMaxConcurrency(), config.getMaxConnections()),
+            config.getLatencyThresholdMs()
+        );
+    }
+
     <T> T requireParamValue(Map<String, ?> params, String key, Class<T> clazz) {
         T value = getParamValue(params, key, clazz);
         if (value == null) {
@@ -93,6 +130,11 @@ public class ElasticsearchUtils {
 
     /**
      * 调用 Elasticsearch
+     * <p>
+     * 指定 versionKey 时按记录中该字段的版本号（见 {@link #version(Map)}）外部版本写入（version_type=external_gte），
+     * 版本小于已有文档的旧事件被 ES 拒绝（409），确认已有版本严格更新后视为成功，写入因此可以并行、乱序执行；
+     * 版本相同的重复投递（重启后重放）照常写入。
+     * 删除后的版本只在 index.gc_deletes（默认 60 秒）内保留，超过这个时间才到达的旧写入仍会恢复文档
      *
      * @param action 请求动作
      * @param params 参数
@@ -121,6 +163,7 @@ public class ElasticsearchUtils {
         }
         String basicValue = Base64.getEncoder()
             .encodeToString((urlEncode(username) + ":" + urlEncode(password)).getBytes());
+        String versionKey = params.get("versionKey") == null ? null : conversionService.convert(params.get("versionKey"), String.class);
         List<? extends Map<String, ?>> records = asMapList(params.get("records"));
         if (records.isEmpty()){
             if (log.isDebugEnabled()){
@@ -130,59 +173,298 @@ public class ElasticsearchUtils {
         }
         return switch (action) {
             case PUT -> {
-                WebClient.RequestBodySpec spec;
                 if (records.size() > 1){
-                    StringBuilder sb = new StringBuilder();
+                    List<String> entries = new ArrayList<>(records.size());
                     for (Map<String, ?> record : records) {
                         Object id = getParamValue(record, idKey, Object.class);
-                        sb.append("{\"index\":{\"_id\":").append(JSONObject.toJSONString(id)).append("}}\n");
+                        StringBuilder sb = new StringBuilder();
+                        sb.append("{\"index\":{\"_id\":").append(JSONObject.toJSONString(id));
+                        appendVersion(sb, record, versionKey).append("}}\n");
                         sb.append(JSONObject.toJSONString(record)).append("\n");
+                        entries.add(sb.toString());
                     }
-                    spec = webClient.post()
-                        .uri(url + "/_bluk")
-                        .header("Content-Type", "application/x-ndjson");
-                    spec.bodyValue(sb.toString());
-                }else{
-                    Map<String, ?> first = records.getFirst();
-                    Object id = getParamValue(first, idKey, Object.class);
-                    spec = webClient.put()
-                        .uri(url + "/_doc/" + id)
-                        .header("Content-Type", "application/json");
-                    spec.bodyValue(JSONObject.toJSONString(first));
+                    yield bulk(url, basicValue, entries, ignoredItem(versionKey), 1);
                 }
-                spec.header("Authorization", "Basic " + basicValue);
-                yield spec.retrieve().bodyToMono(String.class).toFuture();
+                Map<String, ?> first = records.getFirst();
+                Object id = getParamValue(first, idKey, Object.class);
+                yield ignoreConflict(versionKey, send(
+                    HttpMethod.PUT, url + "/_doc/" + id + versionQuery(first, versionKey), "application/json", basicValue, JSONObject.toJSONString(first)
+                ));
             }
             case DELETE -> {
                 if (records.size() > 1){
-                    StringBuilder sb = new StringBuilder();
+                    List<String> entries = new ArrayList<>(records.size());
                     for (Map<String, ?> record : records) {
                         Object id = getParamValue(record, idKey, Object.class);
-                        sb.append("{\"delete\":{\"_id\":").append(JSONObject.toJSONString(id)).append("}}\n");
+                        StringBuilder sb = new StringBuilder();
+                        sb.append("{\"delete\":{\"_id\":").append(JSONObject.toJSONString(id));
+                        appendVersion(sb, record, versionKey).append("}}\n");
+                        entries.add(sb.toString());
                     }
-                    yield webClient.post()
-                        .uri(url + "/_bluk")
-                        .header("Content-Type", "application/x-ndjson")
-                        .header("Authorization", "Basic " + basicValue)
-                        .bodyValue(sb.toString()).retrieve().bodyToMono(String.class).toFuture();
-                }else{
-                    Map<String, Object> first = (Map<String, Object>) records.getFirst();
-                    Object id = getParamValue(first, idKey, Object.class);
-                    yield webClient.delete()
-                        .uri(url + "/_doc/" + id)
-                        .header("Content-Type", "application/json")
-                        .header("Authorization", "Basic " + basicValue)
-                        .retrieve().bodyToMono(String.class).toFuture();
+                    yield bulk(url, basicValue, entries, ignoredItem(versionKey), 1);
                 }
+                Map<String, Object> first = (Map<String, Object>) records.getFirst();
+                Object id = getParamValue(first, idKey, Object.class);
+                yield ignoreConflict(versionKey, send(
+                    HttpMethod.DELETE, url + "/_doc/" + id + versionQuery(first, versionKey), "application/json", basicValue, null
+                ));
             }
         };
     }
 
+    long versionOf(Map<String, ?> record, String versionKey) {
+        Object version = record.get(versionKey);
+        if (version == null) {
+            throw new IllegalArgumentException("记录缺少版本字段 " + versionKey);
+        }
+        return SourceVersion.toLong(version);
+    }
+
+    /**
+     * bulk 请求行追加外部版本
+     */
+    StringBuilder appendVersion(StringBuilder sb, Map<String, ?> record, String versionKey) {
+        if (versionKey != null) {
+            sb.append(",\"version\":").append(versionOf(record, versionKey)).append(",\"version_type\":\"external_gte\"");
+        }
+        return sb;
+    }
+
+    /**
+     * 单条请求的外部版本参数
+     */
+    String versionQuery(Map<String, ?> record, String versionKey) {
+        return versionKey == null ? "" : "?version=" + versionOf(record, versionKey) + "&version_type=external_gte";
+    }
+
+    /**
+     * 外部版本写入时，版本冲突（409）且 ES 中已有严格更新的版本时忽略这次写入，其他冲突照常失败
+     */
+    static CompletableFuture<String> ignoreConflict(String versionKey, CompletableFuture<String> future) {
+        if (versionKey == null) {
+            return future;
+        }
+        return future.exceptionallyCompose(error -> {
+            for (Throwable e = error; e != null; e = e.getCause()) {
+                if (e instanceof WebClientResponseException re && re.getStatusCode().value() == 409) {
+                    String body = re.getResponseBodyAsString();
+                    JSONObject response = body.isBlank() ? null : JSON.parseObject(body);
+                    if (response != null && isStale(response.getJSONObject("error"))) {
+                        return CompletableFuture.completedFuture(body);
+                    }
+                }
+            }
+            return CompletableFuture.failedFuture(error);
+        });
+    }
+
+    /**
+     * bulk 中可以忽略的单条失败：外部版本写入时，ES 中已有严格更新的版本
+     */
+    static Predicate<JSONObject> ignoredItem(String versionKey) {
+        return item -> versionKey != null && item.getIntValue("status") == 409 && isStale(item.getJSONObject("error"));
+    }
+
+    /**
+     * 版本冲突的原因是否为 ES 中已有的版本严格大于写入的版本，
+     * 例如 "[1]: version conflict, current version [6] is higher than the one provided [5]"
+     *
+     * @param error ES 响应中的 error
+     */
+    static boolean isStale(JSONObject error) {
+        if (error == null || !"version_conflict_engine_exception".equals(error.getString("type"))) {
+            return false;
+        }
+        Matcher matcher = VERSION_CONFLICT.matcher(String.valueOf(error.getString("reason")));
+        return matcher.find() && Long.parseLong(matcher.group(1)) > Long.parseLong(matcher.group(2));
+    }
+
+    /**
+     * 发送 bulk 请求并逐条检查结果（ES 在部分记录失败时仍然返回 200）：
+     * 单条 429 的记录退避后只重发这些记录，其他失败使整个调用失败，由脚本消费者重试或者进入死信队列，
+     * 重试时已成功的记录会重复写入，写入是幂等的
+     *
+     * @param entries 每条记录的请求行，以换行结尾
+     * @param ignored 可以忽略的单条失败
+     * @param attempt 第几次发送，从 1 开始
+     * @return 最后一次的响应结果
+     */
+    CompletableFuture<String> bulk(String url, String basicValue, List<String> entries, Predicate<JSONObject> ignored, int attempt) {
+        return send(HttpMethod.POST, url + "/_bulk", "application/x-ndjson", basicValue, String.join("", entries))
+            .thenCompose(response -> {
+                BulkResult result = BulkResult.parse(response, entries, ignored);
+                if (!result.failures().isEmpty()) {
+                    return CompletableFuture.failedFuture(new IllegalStateException(
+                        "ES bulk 写入失败 " + result.failures().size() + " 条: " + String.join("; ", result.failures().subList(0, Math.min(5, result.failures().size())))
+                    ));
+                }
+                if (result.rejected().isEmpty()) {
+                    return CompletableFuture.completedFuture(response);
+                }
+                SystemConfig.Elasticsearch config = systemConfig.getElasticsearch();
+                if (attempt >= config.getBulkMaxAttempts()) {
+                    return CompletableFuture.failedFuture(new IllegalStateException(
+                        "ES bulk 写入失败 " + result.rejected().size() + " 条: 重试 " + attempt + " 次后仍被拒绝（429）"
+                    ));
+                }
+                long backoff = config.getBulkRetryBackoffMs() << Math.min(attempt - 1, 10);
+                if (log.isDebugEnabled()) {
+                    log.debug("ES bulk 中 {} 条记录被拒绝（429），{} 毫秒后重发", result.rejected().size(), backoff);
+                }
+                return CompletableFuture.supplyAsync(() -> null, CompletableFuture.delayedExecutor(backoff, TimeUnit.MILLISECONDS))
+                    .thenCompose(_ -> bulk(url, basicValue, result.rejected(), ignored, attempt + 1));
+            });
+    }
+
+    /**
+     * bulk 响应中失败的记录
+     *
+     * @param rejected 被拒绝（429）需要重发的请求行
+     * @param failures 其他失败，格式为 _id: 状态码 错误
+     */
+    record BulkResult(List<String> rejected, List<String> failures) {
+
+        static BulkResult parse(String response, List<String> entries, Predicate<JSONObject> ignored) {
+            List<String> rejected = new ArrayList<>();
+            List<String> failures = new ArrayList<>();
+            JSONObject result = response == null || response.isBlank() ? null : JSON.parseObject(response);
+            if (result == null || !result.getBooleanValue("errors")) {
+                return new BulkResult(rejected, failures);
+            }
+            JSONArray items = result.getJSONArray("items");
+            for (int i = 0; items != null && i < items.size() && i < entries.size(); i++) {
+                JSONObject item = items.getJSONObject(i);
+                if (item == null || item.isEmpty()) {
+                    continue;
+                }
+                // 每一项只有一个 key，即 index、delete 等动作
+                JSONObject detail = item.getJSONObject(item.keySet().iterator().next());
+                int status = detail.getIntValue("status");
+                if (status < 300 || ignored.test(detail)) {
+                    continue;
+                }
+                if (status == 429) {
+                    rejected.add(entries.get(i));
+                } else {
+                    JSONObject error = detail.getJSONObject("error");
+                    failures.add(detail.getString("_id") + ": " + status
+                        + (error == null ? "" : " " + error.getString("type") + " " + error.getString("reason")));
+                }
+            }
+            return new BulkResult(rejected, failures);
+        }
+    }
+
+    /**
+     * 在并发限制内发送请求
+     *
+     * @param method      请求方法
+     * @param uri         地址
+     * @param contentType 请求体类型
+     * @param basicValue  认证信息
+     * @param body        请求体，可以为 null
+     * @return 响应结果
+     */
+    CompletableFuture<String> send(HttpMethod method, String uri, String contentType, String basicValue, String body) {
+        return limiter.acquire().thenCompose(_ -> {
+            long startedAt = System.nanoTime();
+            ElasticsearchRequestEvent requestEvent = new ElasticsearchRequestEvent();
+            requestEvent.begin();
+            CompletableFuture<String> future;
+            long bytes;
+            try {
+                WebClient.RequestBodySpec spec = webClient.method(method)
+                    .uri(uri)
+                    .header("Content-Type", contentType)
+                    .header("Authorization", "Basic " + basicValue);
+                byte[] encoded = body == null ? null : encode(spec, body);
+                bytes = encoded == null ? 0 : encoded.length;
+                WebClient.RequestHeadersSpec<?> request = encoded == null ? spec : spec.bodyValue(encoded);
+                future = request.retrieve().bodyToMono(String.class).toFuture();
+            } catch (Throwable e) {
+                limiter.release(AdaptiveConcurrencyLimiter.Outcome.IGNORED, startedAt);
+                throw e;
+            }
+            return future.whenComplete((result, e) -> {
+                AdaptiveConcurrencyLimiter.Outcome outcome = outcome(result, e);
+                limiter.release(outcome, startedAt);
+                requestEvent.end();
+                if (requestEvent.shouldCommit()) {
+                    requestEvent.method = method.name();
+                    requestEvent.uri = uri;
+                    requestEvent.bytes = bytes;
+                    requestEvent.outcome = outcome.name();
+                    requestEvent.error = e == null ? null : e.toString();
+                    requestEvent.commit();
+                }
+            });
+        });
+    }
+
+    /**
+     * 编码请求体，超过阈值时 gzip 压缩
+     */
+    byte[] encode(WebClient.RequestBodySpec spec, String body) {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        SystemConfig.Elasticsearch config = systemConfig.getElasticsearch();
+        if (!config.isGzip() || bytes.length < config.getGzipMinBytes()) {
+            return bytes;
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length / 4 + 64);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(bytes);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        spec.header("Content-Encoding", "gzip");
+        return out.toByteArray();
+    }
+
+    /**
+     * 根据响应判断 ES 是否过载：429（包括 bulk 中单条的 429）、超时
+     */
+    static AdaptiveConcurrencyLimiter.Outcome outcome(String result, Throwable error) {
+        if (error == null) {
+            return result != null && result.contains("\"status\":429")
+                ? AdaptiveConcurrencyLimiter.Outcome.DROPPED
+                : AdaptiveConcurrencyLimiter.Outcome.SUCCESS;
+        }
+        for (Throwable e = error; e != null; e = e.getCause()) {
+            if (e instanceof WebClientResponseException re && re.getStatusCode().value() == 429) {
+                return AdaptiveConcurrencyLimiter.Outcome.DROPPED;
+            }
+            if (e instanceof TimeoutException || e instanceof io.netty.handler.timeout.TimeoutException) {
+                return AdaptiveConcurrencyLimiter.Outcome.DROPPED;
+            }
+        }
+        return AdaptiveConcurrencyLimiter.Outcome.IGNORED;
+    }
+
+    /**
+     * 并发限制器状态
+     */
+    public AdaptiveConcurrencyLimiter.Stats limiterStats() {
+        return limiter.stats();
+    }
+
     @HostAccess.Export
     public CompletableFuture<String> put(Map<String, Object> params) {
         return invoke(Action.PUT, params);
     }
 
+    /**
+     * 由变更事件的源库位置计算外部版本号，以字符串返回，避免在 JS 中丢失精度
+     *
+     * @param payload debezium value 中的 payload
+     */
+    @HostAccess.Export
+    public String version(Map<String, Object> payload) {
+        if (payload == null) {
+            throw new IllegalArgumentException("参数不能为空");
+        }
+        return Long.toString(SourceVersion.of(payload));
+    }
+
     @HostAccess.Export
     public CompletableFuture<String> delete(Map<String, Object> params) {
         return invoke(Action.DELETE, params);
@@ -0,0 +1,245 @@
+package cn.xtmax.graalcdc;
+
+import cn.xtmax.graalcdc.config.SystemConfig;
+import com.github.luben.zstd.Zstd;
+import com.github.luben.zstd.ZstdDictCompress;
+import com.github.luben.zstd.ZstdDictDecompress;
+import com.github.luben.zstd.ZstdDictTrainer;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 队列记录编解码，每个实例的队列一个
+ * <p>
+ * 同一张表的记录高度重复，每张表先采样一批 value 训练 zstd 字典，之后的记录用字典压缩；
+ * 字典带版本号保存在队列目录的 dictionaries 下，记录中只保存字典版本，任何 tailer 都可以按版本解码。
+ * 压缩率下降（比如表结构变化）时重新采样训练新版本，旧版本保留用于读取旧记录
+ *
+ * @author 起风了
+ * @email m.zxt@foxmail.com
+ * @date 2026/01/08 10:20
+ */
+@Slf4j
+public final class QueueCodec implements AutoCloseable {
+
+    static final String SUFFIX = ".zdict";
+
+    // 每写入多少条压缩记录检查一次压缩率
+    static final int RATIO_CHECK_INTERVAL = 10_000;
+
+    /**
+     * 字典
+     *
+     * @param id    版本号
+     * @param table 所属的表
+     */
+    record Dictionary(int id, String table, ZstdDictCompress compress, ZstdDictDecompress decompress) {
+    }
+
+    /**
+     * 压缩后的 value
+     *
+     * @param dict   字典版本号
+     * @param length 原始长度
+     * @param data   压缩数据
+     */
+    record Encoded(int dict, int length, byte[] data) {
+    }
+
+    /**
+     * 表的压缩状态，只在写入线程访问（字典由训练线程设置）
+     */
+    static final class TableState {
+        // 当前使用的字典
+        volatile Dictionary dictionary;
+        // 采样中的 value，不采样时为 null
+        List<byte[]> samples;
+        long sampleBytes;
+        // 当前字典的压缩统计，字典切换后重新统计
+        Dictionary observed;
+        long rawBytes;
+        long compressedBytes;
+        int count;
+    }
+
+    final SystemConfig.QueueCompression config;
+
+    final Path directory;
+
+    private final Map<Integer, Dictionary> dictionaries = new ConcurrentHashMap<>();
+
+    private final Map<String, TableState> tables = new HashMap<>();
+
+    private final AtomicInteger lastId = new AtomicInteger();
+
+    public QueueCodec(SystemConfig.QueueCompression config, Path directory) {
+        this.config = config;
+        this.directory = directory;
+        try {
+            Files.createDirectories(directory);
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+                for (Path path : stream) {
+                    Dictionary dictionary = load(path);
+                    dictionaries.put(dictionary.id(), dictionary);
+                    lastId.accumulateAndGet(dictionary.id(), Math::max);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("加载队列字典失败: " + directory, e);
+        }
+    }
+
+    /**
+     * 压缩 value，只在写入线程调用
+     *
+     * @param table 表
+     * @param value debezium value
+     * @return 压缩结果，未开启、采样中或者 value 太小时为 null，按原文写入
+     */
+    Encoded encode(String table, String value) {
+        if (!config.isEnabled()) {
+            return null;
+        }
+        byte[] raw = value.getBytes(StandardCharsets.UTF_8);
+        if (raw.length < config.getMinBytes()) {
+            return null;
+        }
+        TableState state = tables.computeIfAbsent(table, this::initialState);
+        if (state.samples != null) {
+            sample(table, state, raw);
+        }
+        Dictionary dictionary = state.dictionary;
+        if (dictionary == null) {
+            return null;
+        }
+        byte[] data = Zstd.compress(raw, dictionary.compress());
+        observe(state, dictionary, raw.length, data.length);
+        return new Encoded(dictionary.id(), raw.length, data);
+    }
+
+    /**
+     * 解压 value，可以在任意线程调用
+     *
+     * @param dict   字典版本号
+     * @param length 原始长度
+     * @param data   压缩数据
+     * @return value
+     */
+    String decode(int dict, int length, byte[] data) {
+        Dictionary dictionary = dictionaries.get(dict);
+        if (dictionary == null) {
+            // 其他节点训练的字典（集群模式下实例迁移）
+            dictionary = dictionaries.computeIfAbsent(dict, id -> {
+                try {
+                    return load(directory.resolve(id + SUFFIX));
+                } catch (IOException e) {
+                    throw new UncheckedIOException("队列字典 " + id + " 不存在: " + directory, e);
+                }
+            });
+        }
+        return new String(Zstd.decompress(data, dictionary.decompress(), length), StandardCharsets.UTF_8);
+    }
+
+    private TableState initialState(String table) {
+        TableState state = new TableState();
+        // 沿用该表最新版本的字典
+        state.dictionary = dictionaries.values().stream()
+            .filter(d -> d.table().equals(table))
+            .max(Comparator.comparingInt(Dictionary::id))
+            .orElse(null);
+        if (state.dictionary == null) {
+            state.samples = new ArrayList<>();
+        }
+        return state;
+    }
+
+    private void sample(String table, TableState state, byte[] raw) {
+        state.samples.add(raw);
+        state.sampleBytes += raw.length;
+        if (state.samples.size() < config.getTrainingSamples()) {
+            return;
+        }
+        List<byte[]> samples = state.samples;
+        long sampleBytes = state.sampleBytes;
+        state.samples = null;
+        state.sampleBytes = 0;
+        // 训练耗时较长，不阻塞写入，训练完成前沿用旧字典或者不压缩
+        Thread.startVirtualThread(() -> {
+            try {
+                state.dictionary = train(table, samples, sampleBytes);
+            } catch (Exception e) {
+                log.warn("表 {} 的队列字典训练失败，继续不压缩写入", table, e);
+            }
+        });
+    }
+
+    private void observe(TableState state, Dictionary dictionary, int raw, int compressed) {
+        if (state.observed != dictionary) {
+            state.observed = dictionary;
+            state.rawBytes = 0;
+            state.compressedBytes = 0;
+            state.count = 0;
+        }
+        state.rawBytes += raw;
+        state.compressedBytes += compressed;
+        if (++state.count < RATIO_CHECK_INTERVAL) {
+            return;
+        }
+        double ratio = (double) state.rawBytes / Math.max(1, state.compressedBytes);
+        state.rawBytes = 0;
+        state.compressedBytes = 0;
+        state.count = 0;
+        if (state.samples == null && ratio < config.getRetrainRatio()) {
+            log.info("表 {} 的压缩率下降到 {}，重新训练字典", dictionary.table(), String.format("%.2f", ratio));
+            state.samples = new ArrayList<>();
+        }
+    }
+
+    private Dictionary train(String table, List<byte[]> samples, long sampleBytes) throws IOException {
+        ZstdDictTrainer trainer = new ZstdDictTrainer((int) Math.min(Integer.MAX_VALUE, sampleBytes), config.getDictionarySize());
+        for (byte[] sample : samples) {
+            trainer.addSample(sample);
+        }
+        byte[] bytes = trainer.trainSamples();
+        int id = lastId.incrementAndGet();
+        // 先落盘再使用，保证引用该版本的记录写入时字典已经可读
+        Path path = directory.resolve(id + SUFFIX);
+        Path tmp = directory.resolve(id + SUFFIX + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            out.writeUTF(table);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+        Files.move(tmp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        Dictionary dictionary = new Dictionary(id, table, new ZstdDictCompress(bytes, config.getLevel()), new ZstdDictDecompress(bytes));
+        dictionaries.put(id, dictionary);
+        log.info("表 {} 的队列字典 v{} 训练完成，采样 {} 条，字典 {} 字节", table, id, samples.size(), bytes.length);
+        return dictionary;
+    }
+
+    private Dictionary load(Path path) throws IOException {
+        String name = path.getFileName().toString();
+        int id = Integer.parseInt(name.substring(0, name.length() - SUFFIX.length()));
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            String table = in.readUTF();
+            byte[] bytes = new byte[in.readInt()];
+            in.readFully(bytes);
+            return new Dictionary(id, table, new ZstdDictCompress(bytes, config.getLevel()), new ZstdDictDecompress(bytes));
+        }
+    }
+
+    @Override
+    public void close() {
+        for (Dictionary dictionary : dictionaries.values()) {
+            dictionary.compress().close();
+            dictionary.decompress().close();
+        }
+        dictionaries.clear();
+    }
+}
@@ -0,0 +1,103 @@
+package cn.xtmax.graalcdc;
+
+import cn.xtmax.graalcdc.jfr.QueueReadEvent;
+import net.openhft.chronicle.wire.WireIn;
+import net.openhft.chronicle.wire.WireOut;
+
+/**
+ * 本地队列中的变更事件
+ *
+ * @param index    队列索引
+ * @param key      记录主键（debezium key），无主键的表为空字符串
+ * @param database 数据库
+ * @param table    表，格式与 table.include.list 一致
+ * @param op       操作类型 c/u/d/r，事务边界为 BEGIN/END
+ * @param value    debezium value（已解压），事务边界为空字符串
+ * @param tx       事务ID，没有事务信息（快照、旧版本队列）时为空字符串
+ * @author 起风了
+ * @email m.zxt@foxmail.com
+ * @date 2026/01/03 10:05
+ */
+public record QueueEvent(long index, String key, String database, String table, String op, String value, String tx) {
+
+    public static final String BEGIN = "BEGIN";
+
+    public static final String END = "END";
+
+    /**
+     * 是否为事务边界
+     */
+    public boolean isMarker() {
+        return BEGIN.equals(op) || END.equals(op);
+    }
+
+    /**
+     * 从队列中读取事件
+     *
+     * @param index 队列索引
+     * @param wire  wire
+     * @param codec 队列的编解码
+     * @return 事件
+     */
+    static QueueEvent read(long index, WireIn wire, QueueCodec codec) {
+        String key = wire.read("key").text();
+        String database = wire.read("db").text();
+        String table = wire.read("table").text();
+        String op = wire.read("op").text();
+        String value = wire.read("value").text();
+        String tx = wire.read("tx").text();
+        // 旧记录没有 dict 字段，读出 0
+        int dict = wire.read("dict").int32();
+        if (dict > 0) {
+            int length = wire.read("zlen").int32();
+            value = codec.decode(dict, length, wire.read("zvalue").bytes());
+        }
+        return new QueueEvent(index, key, database, table, op, value, tx == null ? "" : tx);
+    }
+
+    /**
+     * 从队列中读取事件，并记录 JFR 事件
+     *
+     * @param reader 读取方，脚本ID、state:表名 或者 replay:任务ID
+     */
+    static QueueEvent read(long index, WireIn wire, QueueCodec codec, String reader) {
+        QueueReadEvent readEvent = new QueueReadEvent();
+        readEvent.begin();
+        QueueEvent event = read(index, wire, codec);
+        readEvent.end();
+        if (readEvent.shouldCommit()) {
+            readEvent.reader = reader;
+            readEvent.index = index;
+            readEvent.table = event.table;
+            readEvent.commit();
+        }
+        return event;
+    }
+
+    /**
+     * 写入事件到队列
+     */
+    static void write(WireOut wire, String key, String database, String table, String op, String value, String tx) {
+        write(wire, key, database, table, op, value, tx, null);
+    }
+
+    /**
+     * 写入事件到队列
+     *
+     * @param encoded 压缩后的 value，不为 null 时 value 字段写入空字符串
+     */
+    static void write(WireOut wire, String key, String database, String table, String op, String value, String tx,
+                      QueueCodec.Encoded encoded) {
+        wire.write("key").text(key)
+            .write("db").text(database)
+            .write("table").text(table)
+            .write("op").text(op)
+            .write("value").text(encoded == null ? value : "")
+            .write("tx").text(tx);
+        if (encoded != null) {
+            wire.write("dict").int32(encoded.dict())
+                .write("zlen").int32(encoded.length())
+                .write("zvalue").bytes(encoded.data());
+        }
+    }
+}
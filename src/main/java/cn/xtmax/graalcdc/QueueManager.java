@@ -0,0 +1,165 @@
+package cn.xtmax.graalcdc;
+
+import cn.xtmax.graalcdc.config.SystemConfig;
+import lombok.extern.slf4j.Slf4j;
+import net.openhft.chronicle.queue.RollCycles;
+import net.openhft.chronicle.queue.impl.single.SingleChronicleQueue;
+import net.openhft.chronicle.queue.impl.single.SingleChronicleQueueBuilder;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+/**
+ * 本地队列管理，每个实例一个独立目录的队列，统一创建与销毁
+ *
+ * @author 起风了
+ * @email m.zxt@foxmail.com
+ * @date 2025/12/30 16:05
+ */
+@Slf4j
+@Component
+public class QueueManager implements InitializingBean, DisposableBean {
+
+    /**
+     * 旧版本所有实例共用队列目录本身，升级时移动到该子目录
+     */
+    public static final String LEGACY = "legacy";
+
+    // 自动计算块大小时单个队列的上限、下限
+    static final long MAX_BLOCK_SIZE = 16L << 20;
+
+    static final long MIN_BLOCK_SIZE = 1L << 20;
+
+    // 自动计算块大小时所有队列合计的映射预算
+    static final long BLOCK_BUDGET = 256L << 20;
+
+    @Autowired
+    SystemConfig systemConfig;
+
+    private final Map<String, SingleChronicleQueue> queues = new ConcurrentHashMap<>();
+
+    private final Map<String, QueueCodec> codecs = new ConcurrentHashMap<>();
+
+    /**
+     * 获取实例的队列，不存在时创建
+     *
+     * @param name 实例名称
+     * @return 队列
+     */
+    public SingleChronicleQueue acquire(String name) {
+        return queues.computeIfAbsent(name, _ -> SingleChronicleQueueBuilder
+            .binary(systemConfig.getQueueDirectory() + "/" + name)
+            .rollCycle(RollCycles.FAST_HOURLY)
+            .blockSize(blockSize(systemConfig.getQueueBlockSize(), queues.size() + 1))
+            .build()
+        );
+    }
+
+    /**
+     * 队列的块大小：每个队列按块映射、分配文件，实例很多时默认的 16MB 块合计占用大量的虚拟内存与磁盘，
+     * 未配置时按打开的队列数分摊 256MB 的预算，取 2 的幂，介于 1MB 与 16MB 之间；已打开的队列不受影响
+     *
+     * @param configured 配置的块大小，小于等于 0 时自动计算
+     * @param queues     包括本队列在内已打开的队列数
+     * @return 块大小
+     */
+    static long blockSize(long configured, int queues) {
+        if (configured > 0) {
+            return configured;
+        }
+        long share = BLOCK_BUDGET / Math.max(1, queues);
+        return Math.clamp(Long.highestOneBit(share), MIN_BLOCK_SIZE, MAX_BLOCK_SIZE);
+    }
+
+    /**
+     * 获取已打开的实例队列
+     *
+     * @param name 实例名称
+     * @return 队列，实例未运行时为 null
+     */
+    public SingleChronicleQueue find(String name) {
+        return queues.get(name);
+    }
+
+    /**
+     * 获取实例队列的编解码，不存在时创建
+     *
+     * @param name 实例名称
+     * @return 编解码
+     */
+    public QueueCodec codec(String name) {
+        return codecs.computeIfAbsent(name, _ -> new QueueCodec(
+            systemConfig.getQueueCompression(),
+            Path.of(systemConfig.getQueueDirectory(), name, "dictionaries")
+        ));
+    }
+
+    /**
+     * 关闭实例的队列，队列文件保留
+     *
+     * @param name 实例名称
+     */
+    public void release(String name) {
+        SingleChronicleQueue queue = queues.remove(name);
+        if (queue != null) {
+            try {
+                queue.close();
+            } catch (Exception e) {
+                log.error("关闭队列 {} 失败！", name, e);
+            }
+        }
+        QueueCodec codec = codecs.remove(name);
+        if (codec != null) {
+            codec.close();
+        }
+    }
+
+    @Override
+    public void afterPropertiesSet() throws Exception {
+        migrateLegacy();
+    }
+
+    /**
+     * 旧版本的队列文件（以及保存消费位置的 metadata.cq4t）直接位于队列目录下，与实例子目录混在一起，
+     * 整体移动到 legacy 子目录保留。旧队列按原文写入 value，没有实例、表信息，不会投递给新的实例队列
+     */
+    void migrateLegacy() throws IOException {
+        Path root = Path.of(systemConfig.getQueueDirectory());
+        if (!Files.isDirectory(root)) {
+            return;
+        }
+        List<Path> files;
+        try (Stream<Path> stream = Files.list(root)) {
+            files = stream
+                .filter(Files::isRegularFile)
+                .filter(path -> path.getFileName().toString().endsWith(".cq4") || path.getFileName().toString().endsWith(".cq4t"))
+                .toList();
+        }
+        if (files.isEmpty()) {
+            return;
+        }
+        Path target = root.resolve(LEGACY);
+        Files.createDirectories(target);
+        for (Path file : files) {
+            Files.move(file, target.resolve(file.getFileName()));
+        }
+        log.warn("队列目录 {} 下存在旧版本的共享队列，已移动到 {}。旧队列中未被脚本消费的事件不会重新投递，" +
+            "需要时从连接器重新快照，或者在旧版本中消费完毕后再升级", root, target);
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        for (String name : queues.keySet()) {
+            release(name);
+        }
+    }
+}
@@ -0,0 +1,306 @@
+package cn.xtmax.graalcdc;
+
+import cn.xtmax.graalcdc.config.ScriptCDCConfig;
+import lombok.extern.slf4j.Slf4j;
+import net.openhft.chronicle.queue.ExcerptTailer;
+import net.openhft.chronicle.queue.RollCycle;
+import net.openhft.chronicle.queue.impl.single.SingleChronicleQueue;
+import net.openhft.chronicle.wire.DocumentContext;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 重放任务，用独立的 tailer 读取队列的一段范围交给脚本重新执行
+ * <p>
+ * 读取线程按主键把事件分到各分区，每个分区一个执行线程，同一主键的事件保持顺序，不同主键并行执行；
+ * 执行经过调度器的独立通道（默认优先级低于实时消费），并按速率上限限流，不影响脚本的实时消费与消费位置。
+ * 重放逐条投递，不做合并、事务分批与窗口聚合，失败的事件只计数，不进入死信队列
+ *
+ * @author 起风了
+ * @email m.zxt@foxmail.com
+ * @date 2026/01/09 15:00
+ */
+@Slf4j
+final class ReplayJob implements AutoCloseable {
+
+    // 分区通道容量，执行跟不上时读取线程阻塞
+    static final int PARTITION_CAPACITY = 1024;
+
+    // 分区通道为空时的等待时间
+    static final long POLL_TIMEOUT_MS = 100;
+
+    final String id;
+
+    final ReplayManager.ReplayRequest request;
+
+    // 实际执行的脚本，新版本脚本时与 scriptId 不同
+    final String script;
+
+    final ScriptCDCConfig cdcConfig;
+
+    final SingleChronicleQueue queue;
+
+    final QueueCodec codec;
+
+    final ScriptScheduler scriptScheduler;
+
+    final ScriptExecutor scriptExecutor;
+
+    // 调度通道
+    final String lane;
+
+    final int partitions;
+
+    final long startedAt = System.currentTimeMillis();
+
+    volatile long finishedAt;
+
+    volatile ReplayManager.State state = ReplayManager.State.RUNNING;
+
+    volatile String lastError;
+
+    // 重放范围的结束索引（包括）
+    volatile long endIndex = -1;
+
+    volatile long lastIndex = -1;
+
+    // 读取线程已结束，分区通道取完后执行线程退出
+    volatile boolean readDone;
+
+    final AtomicLong read = new AtomicLong();
+    final AtomicLong matched = new AtomicLong();
+    final AtomicLong executed = new AtomicLong();
+    final AtomicLong failed = new AtomicLong();
+
+    // 限流：下一个许可的时间
+    private final AtomicLong nextPermitAt = new AtomicLong();
+
+    private final List<BlockingQueue<QueueEvent>> channels = new ArrayList<>();
+
+    private final List<Thread> threads = new ArrayList<>();
+
+    final CompletableFuture<Void> future = new CompletableFuture<>();
+
+    ReplayJob(String id,
+              ReplayManager.ReplayRequest request,
+              String script,
+              ScriptCDCConfig cdcConfig,
+              SingleChronicleQueue queue,
+              QueueCodec codec,
+              ScriptScheduler scriptScheduler,
+              ScriptExecutor scriptExecutor) {
+        this.id = id;
+        this.request = request;
+        this.script = script;
+        this.cdcConfig = cdcConfig;
+        this.queue = queue;
+        this.codec = codec;
+        this.scriptScheduler = scriptScheduler;
+        this.scriptExecutor = scriptExecutor;
+        this.lane = "replay:" + id;
+        this.partitions = Math.max(1, request.partitions() == null ? 4 : request.partitions());
+        ScriptCDCConfig.Quota quota = new ScriptCDCConfig.Quota();
+        quota.setPriority(request.priority() == null ? -1 : request.priority());
+        quota.setMaxConcurrency(partitions);
+        quota.setMaxQueued(partitions * 2);
+        scriptScheduler.configure(lane, quota);
+    }
+
+    void start() {
+        List<CompletableFuture<Void>> workers = new ArrayList<>(partitions);
+        for (int i = 0; i < partitions; i++) {
+            BlockingQueue<QueueEvent> channel = new ArrayBlockingQueue<>(PARTITION_CAPACITY);
+            CompletableFuture<Void> worker = new CompletableFuture<>();
+            channels.add(channel);
+            workers.add(worker);
+            threads.add(Thread.ofVirtual().name(lane + "-" + i).start(() -> work(channel, worker)));
+        }
+        CompletableFuture<Void> reader = new CompletableFuture<>();
+        threads.add(Thread.ofVirtual().name(lane + "-reader").start(() -> read(reader)));
+        CompletableFuture.allOf(workers.toArray(CompletableFuture[]::new))
+            .thenCombine(reader, (_, _) -> null)
+            .whenComplete((_, e) -> {
+                finishedAt = System.currentTimeMillis();
+                if (state == ReplayManager.State.RUNNING) {
+                    state = e == null ? ReplayManager.State.COMPLETED : ReplayManager.State.FAILED;
+                }
+                if (e != null && lastError == null) {
+                    lastError = e.toString();
+                }
+                scriptScheduler.remove(lane);
+                log.info("重放任务 {} 结束：{}，读取 {} 条，执行 {} 条，失败 {} 条", id, state, read.get(), executed.get(), failed.get());
+                future.complete(null);
+            });
+    }
+
+    /**
+     * 读取重放范围，按主键分区
+     */
+    private void read(CompletableFuture<Void> reader) {
+        try (ExcerptTailer tailer = queue.createTailer()) {
+            RollCycle rollCycle = queue.rollCycle();
+            endIndex = request.toIndex() != null ? request.toIndex() : queue.lastIndex();
+            int endCycle = request.toTime() == null ? Integer.MAX_VALUE : cycleOf(request.toTime());
+            if (!seek(tailer, rollCycle)) {
+                reader.complete(null);
+                return;
+            }
+            long sequence = 0;
+            while (!Thread.currentThread().isInterrupted()) {
+                try (DocumentContext dc = tailer.readingDocument()) {
+                    if (!dc.isPresent() || dc.index() > endIndex || rollCycle.toCycle(dc.index()) > endCycle) {
+                        break;
+                    }
+                    QueueEvent event = QueueEvent.read(dc.index(), dc.wire(), codec, lane);
+                    read.incrementAndGet();
+                    lastIndex = event.index();
+                    if (!accepts(event)) {
+                        continue;
+                    }
+                    matched.incrementAndGet();
+                    // 无主键的表轮流分配
+                    int partition = event.key().isEmpty()
+                        ? (int) (sequence++ % partitions)
+                        : Math.floorMod(event.key().hashCode(), partitions);
+                    channels.get(partition).put(event);
+                }
+            }
+            reader.complete(null);
+        } catch (InterruptedException e) {
+            reader.complete(null);
+        } catch (Throwable e) {
+            log.error("重放任务 {} 读取队列失败！", id, e);
+            reader.completeExceptionally(e);
+        } finally {
+            readDone = true;
+        }
+    }
+
+    /**
+     * 移动到重放的起始位置
+     *
+     * @return 范围内是否有记录
+     */
+    private boolean seek(ExcerptTailer tailer, RollCycle rollCycle) {
+        if (request.fromIndex() != null) {
+            if (tailer.moveToIndex(request.fromIndex())) {
+                return true;
+            }
+            if (request.fromIndex() > queue.lastIndex()) {
+                return false;
+            }
+            // 所在的文件已经被清理，从最早的记录开始
+            tailer.toStart();
+            return true;
+        }
+        if (request.fromTime() != null) {
+            // 按文件周期定位，周期内早于起始时间的事件读取时跳过
+            int lastCycle = rollCycle.toCycle(Math.max(0, queue.lastIndex()));
+            for (int cycle = Math.max(cycleOf(request.fromTime()), queue.firstCycle()); cycle <= lastCycle; cycle++) {
+                if (tailer.moveToIndex(rollCycle.toIndex(cycle, 0))) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        tailer.toStart();
+        return true;
+    }
+
+    int cycleOf(long time) {
+        return (int) ((time - queue.epoch()) / queue.rollCycle().lengthInMillis());
+    }
+
+    boolean accepts(QueueEvent event) {
+        if (event.isMarker() || !cdcConfig.matches(event.database(), event.table())) {
+            return false;
+        }
+        if (request.fromTime() == null && request.toTime() == null) {
+            return true;
+        }
+        long time = ScriptWorker.eventTime(event);
+        return (request.fromTime() == null || time >= request.fromTime())
+            && (request.toTime() == null || time <= request.toTime());
+    }
+
+    /**
+     * 分区执行线程
+     */
+    private void work(BlockingQueue<QueueEvent> channel, CompletableFuture<Void> worker) {
+        try {
+            while (true) {
+                boolean done = readDone;
+                QueueEvent event = channel.poll(POLL_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+                if (event == null) {
+                    if (done) {
+                        break;
+                    }
+                    continue;
+                }
+                throttle();
+                String text = ScriptWorker.project(cdcConfig, event);
+                Throwable error = scriptScheduler.execute(lane, () -> scriptExecutor.execute(script, text));
+                executed.incrementAndGet();
+                if (error != null) {
+                    failed.incrementAndGet();
+                    lastError = "index " + event.index() + ": " + error;
+                    log.warn("重放任务 {} 执行失败，index: {}", id, event.index(), error);
+                }
+            }
+            worker.complete(null);
+        } catch (InterruptedException e) {
+            worker.complete(null);
+        } catch (Throwable e) {
+            worker.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * 按速率上限限流，所有分区共享
+     */
+    private void throttle() throws InterruptedException {
+        Integer rate = request.ratePerSecond();
+        if (rate == null || rate <= 0) {
+            return;
+        }
+        long interval = TimeUnit.SECONDS.toNanos(1) / rate;
+        long now = System.nanoTime();
+        long permitAt = nextPermitAt.getAndUpdate(at -> Math.max(at, now) + interval);
+        long wait = permitAt - now;
+        if (wait > 0) {
+            TimeUnit.NANOSECONDS.sleep(wait);
+        }
+    }
+
+    ReplayManager.Stats stats() {
+        long elapsed = Math.max(1, (finishedAt > 0 ? finishedAt : System.currentTimeMillis()) - startedAt);
+        return new ReplayManager.Stats(
+            id, request.instance(), request.scriptId(), script, state, partitions,
+            request.fromIndex(), endIndex, lastIndex,
+            read.get(), matched.get(), executed.get(), failed.get(),
+            executed.get() * 1000 / elapsed, startedAt, finishedAt, lastError
+        );
+    }
+
+    /**
+     * 取消任务，等待正在执行的事件完成
+     */
+    @Override
+    public void close() {
+        if (state == ReplayManager.State.RUNNING) {
+            state = ReplayManager.State.CANCELLED;
+        }
+        threads.forEach(Thread::interrupt);
+        try {
+            future.get(30, TimeUnit.SECONDS);
+        } catch (Exception e) {
+            log.warn("等待重放任务 {} 停止失败", id, e);
+        }
+    }
+}
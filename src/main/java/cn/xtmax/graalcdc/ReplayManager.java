@@ -0,0 +1,189 @@
+package cn.xtmax.graalcdc;
+
+import cn.xtmax.graalcdc.config.ScriptCDCConfig;
+import cn.xtmax.graalcdc.config.SystemConfig;
+import lombok.extern.slf4j.Slf4j;
+import net.openhft.chronicle.queue.impl.single.SingleChronicleQueue;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 重放管理，在不停止实时消费的情况下，让脚本（或者它的新版本）重新执行队列中的一段历史事件
+ *
+ * @author 起风了
+ * @email m.zxt@foxmail.com
+ * @date 2026/01/09 15:00
+ */
+@Slf4j
+@Component
+public class ReplayManager implements DisposableBean {
+
+    @Autowired
+    SystemConfig systemConfig;
+
+    @Autowired
+    QueueManager queueManager;
+
+    @Autowired
+    ScriptScheduler scriptScheduler;
+
+    @Autowired
+    ScriptExecutor scriptExecutor;
+
+    private final Map<String, ReplayJob> jobs = new ConcurrentHashMap<>();
+
+    public enum State {
+        RUNNING, COMPLETED, FAILED, CANCELLED
+    }
+
+    /**
+     * 重放请求，索引范围与时间范围可以同时指定，都不指定时重放队列保留的全部事件
+     *
+     * @param instance      实例名称，数据库类型-实例名，例如 mysql-order
+     * @param scriptId      脚本文件路径，决定订阅的库表
+     * @param script        新版本脚本的文件路径，为空时执行 scriptId；只能放在重放脚本目录下，相对路径相对于该目录
+     * @param fromIndex     起始索引（包括）
+     * @param toIndex       结束索引（包括），为空时到开始重放时的队列末尾
+     * @param fromTime      起始的事件时间（毫秒，包括）
+     * @param toTime        结束的事件时间（毫秒，包括）
+     * @param partitions    分区数，即并行度，默认 4
+     * @param ratePerSecond 每秒最多执行的事件数，为空或者小于等于 0 不限流
+     * @param priority      调度优先级，默认 -1，低于实时消费
+     */
+    public record ReplayRequest(String instance,
+                                String scriptId,
+                                String script,
+                                Long fromIndex,
+                                Long toIndex,
+                                Long fromTime,
+                                Long toTime,
+                                Integer partitions,
+                                Integer ratePerSecond,
+                                Integer priority) {
+    }
+
+    /**
+     * 重放任务状态
+     */
+    public record Stats(String id,
+                        String instance,
+                        String scriptId,
+                        String script,
+                        State state,
+                        int partitions,
+                        Long fromIndex,
+                        long toIndex,
+                        long lastIndex,
+                        long read,
+                        long matched,
+                        long executed,
+                        long failed,
+                        long eventsPerSecond,
+                        long startedAt,
+                        long finishedAt,
+                        String lastError) {
+    }
+
+    /**
+     * 开始重放
+     *
+     * @param request 重放请求
+     * @return 任务状态
+     */
+    public Stats start(ReplayRequest request) {
+        if (request.instance() == null || request.scriptId() == null) {
+            throw new IllegalArgumentException("instance、scriptId 不能为空");
+        }
+        SingleChronicleQueue queue = queueManager.find(request.instance());
+        if (queue == null) {
+            throw new IllegalArgumentException("实例 " + request.instance() + " 未在本节点运行");
+        }
+        if (!scriptExecutor.getCDCConfigs().containsKey(request.scriptId())) {
+            throw new IllegalArgumentException("脚本 " + request.scriptId() + " 未加载");
+        }
+        boolean detached = request.script() != null && !request.script().isBlank() && !request.script().equals(request.scriptId());
+        String script = detached ? replayScript(request.script()) : request.scriptId();
+        ScriptCDCConfig cdcConfig = detached ? scriptExecutor.registerDetached(script) : scriptExecutor.getCDCConfig(script);
+        String id = UUID.randomUUID().toString().substring(0, 8);
+        ReplayJob job = new ReplayJob(
+            id, request, script, cdcConfig, queue, queueManager.codec(request.instance()), scriptScheduler, scriptExecutor
+        );
+        jobs.put(id, job);
+        if (detached) {
+            job.future.whenComplete((_, _) -> {
+                // 同一个新版本脚本可能还有其他重放任务在使用
+                boolean inUse = jobs.values().stream()
+                    .anyMatch(other -> other != job && other.state == State.RUNNING && other.script.equals(script));
+                if (!inUse) {
+                    scriptExecutor.unregister(script);
+                }
+            });
+        }
+        job.start();
+        log.info("重放任务 {} 开始：实例 {}，脚本 {}，分区 {}", id, request.instance(), script, job.partitions);
+        return job.stats();
+    }
+
+    /**
+     * 解析新版本脚本的路径，只允许重放脚本目录下的文件（按真实路径判断，不能通过 .. 或者符号链接跳出）
+     *
+     * @param script 文件路径，相对路径相对于重放脚本目录
+     * @return 真实路径
+     */
+    String replayScript(String script) {
+        try {
+            Path directory = Path.of(systemConfig.getReplayScriptDirectory()).toRealPath();
+            Path path = directory.resolve(script).toRealPath();
+            if (!path.startsWith(directory) || !Files.isRegularFile(path)) {
+                throw new IllegalArgumentException("新版本脚本必须是重放脚本目录 " + directory + " 下的文件");
+            }
+            return path.toString();
+        } catch (IOException e) {
+            throw new IllegalArgumentException("脚本 " + script + " 不存在，新版本脚本需要放在重放脚本目录 " + systemConfig.getReplayScriptDirectory() + " 下");
+        }
+    }
+
+    /**
+     * 所有重放任务的状态
+     */
+    public List<Stats> stats() {
+        List<Stats> list = new ArrayList<>(jobs.size());
+        jobs.values().forEach(job -> list.add(job.stats()));
+        return list;
+    }
+
+    /**
+     * 取消运行中的任务，已结束的任务从列表中移除
+     *
+     * @param id 任务ID
+     * @return 任务状态，不存在时为 null
+     */
+    public Stats cancel(String id) {
+        ReplayJob job = jobs.get(id);
+        if (job == null) {
+            return null;
+        }
+        if (job.state == State.RUNNING) {
+            job.close();
+        } else {
+            jobs.remove(id);
+        }
+        return job.stats();
+    }
+
+    @Override
+    public void destroy() {
+        jobs.values().forEach(ReplayJob::close);
+        jobs.clear();
+    }
+}
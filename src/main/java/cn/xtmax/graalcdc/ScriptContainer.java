@@ -1,6 +1,7 @@
 package cn.xtmax.graalcdc;
 
 import cn.xtmax.graalcdc.config.SystemConfig;
+import cn.xtmax.graalcdc.jfr.ScriptReloadEvent;
 import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
@@ -31,6 +32,14 @@ public class ScriptContainer implements InitializingBean {
     @Autowired
     WatchFile watchFile;
 
+    @Autowired
+    DebeziumEngineManager debeziumEngineManager;
+
+    static boolean isScriptFile(Path path) {
+        String name = path.getFileName().toString();
+        return name.endsWith(".js") || name.endsWith(".mjs");
+    }
+
 
     public static List<File> getScriptFiles(String directory){
         File[] files = new File(directory).listFiles();
@@ -64,14 +73,37 @@ public class ScriptContainer implements InitializingBean {
         List<File> scriptFiles = getScriptFiles(directory);
         for (File file : scriptFiles) {
             // 预热脚本
+            ScriptReloadEvent reloadEvent = new ScriptReloadEvent();
+            reloadEvent.begin();
             scriptExecutor.register(file.getAbsolutePath());
+            reloadEvent.end();
+            if (reloadEvent.shouldCommit()) {
+                reloadEvent.scriptId = file.getAbsolutePath();
+                reloadEvent.kind = "register";
+                reloadEvent.commit();
+            }
         }
         // 监听脚本目录
         watchFile.watch(directory, (WatchEvent.Kind<?> kind, Path _, Path path) -> {
-                if (kind == StandardWatchEventKinds.ENTRY_DELETE) {
+                if (!isScriptFile(path)) {
+                    return;
+                }
+                ScriptReloadEvent reloadEvent = new ScriptReloadEvent();
+                reloadEvent.begin();
+                boolean removed = kind == StandardWatchEventKinds.ENTRY_DELETE;
+                if (removed) {
                     scriptExecutor.unregister(path.toString());
+                    debeziumEngineManager.scriptRemoved(path.toString());
                 } else {
                     scriptExecutor.reload(path.toString());
+                    // 同步订阅到运行中的实例
+                    debeziumEngineManager.scriptChanged(path.toString());
+                }
+                reloadEvent.end();
+                if (reloadEvent.shouldCommit()) {
+                    reloadEvent.scriptId = path.toString();
+                    reloadEvent.kind = removed ? "unregister" : "reload";
+                    reloadEvent.commit();
                 }
             },
             StandardWatchEventKinds.ENTRY_CREATE,
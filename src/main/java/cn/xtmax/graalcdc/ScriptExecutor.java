@@ -1,8 +1,18 @@
 package cn.xtmax.graalcdc;
 
+import cn.xtmax.graalcdc.cache.CacheBinding;
+import cn.xtmax.graalcdc.config.ScriptCDCConfig;
+import cn.xtmax.graalcdc.config.SystemConfig;
+import cn.xtmax.graalcdc.jfr.ScriptEvalEvent;
+import cn.xtmax.graalcdc.jfr.ScriptInitEvent;
+import cn.xtmax.graalcdc.jfr.ScriptInvokeEvent;
+import cn.xtmax.graalcdc.sink.SinkRegistry;
+import cn.xtmax.graalcdc.window.WindowBinding;
+import com.alibaba.fastjson2.JSONObject;
 import lombok.extern.slf4j.Slf4j;
 import org.graalvm.polyglot.Context;
 import org.graalvm.polyglot.Engine;
+import org.graalvm.polyglot.PolyglotException;
 import org.graalvm.polyglot.Source;
 import org.graalvm.polyglot.Value;
 import org.graalvm.polyglot.proxy.ProxyExecutable;
@@ -12,9 +22,7 @@ import org.springframework.stereotype.Component;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.util.*;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicReference;
 
@@ -30,9 +38,24 @@ import java.util.concurrent.atomic.AtomicReference;
 public class ScriptExecutor implements DisposableBean {
 
 
+    @Autowired
+    SystemConfig systemConfig;
+
     @Autowired
     ElasticsearchUtils elasticsearchUtils;
 
+    @Autowired
+    SinkRegistry sinkRegistry;
+
+    @Autowired
+    StateStoreManager stateStoreManager;
+
+    @Autowired
+    WindowBinding windowBinding;
+
+    @Autowired
+    CacheBinding cacheBinding;
+
     // 全局共享：编译后的源代码（线程安全）
     private final Map<String, SourceObject> sourceCache = new ConcurrentHashMap<>();
 
@@ -49,37 +72,116 @@ public class ScriptExecutor implements DisposableBean {
     // 独立的单线程池，负责执行脚本initCDC方法
     private final ExecutorService initCDCExecutor = Executors.newSingleThreadExecutor();
 
+    // 不参与订阅的脚本，例如重放时指定的新版本脚本
+    private final Set<String> detached = ConcurrentHashMap.newKeySet();
+
     // 上下文列表，统一销毁 Context
     private final List<Context> contexts = new CopyOnWriteArrayList<>();
 
 
-    record SourceObject(long version, Source source) {
+    record SourceObject(long version, Source source, ScriptCDCConfig cdcConfig) {
     }
 
-    record SourceFunctionObject(long version, Value function) {
+    record SourceModuleObject(long version, Value module) {
+    }
+
+    record ScriptContext(long version, Context context) {
     }
 
     // 每个线程的脚本上下文
-    private final ThreadLocal<Context> threadContext = ThreadLocal.withInitial(
-        () -> {
-            Context context = Context.newBuilder("js")
-                .engine(sharedEngine) // 绑定共享引擎
-                .allowAllAccess(true)
-                .option("js.esm-eval-returns-exports", "true")
-                .option("js.foreign-object-prototype", "true")
-                .build();
-            contexts.add(context);
-            context.getBindings("js").putMember("es", elasticsearchUtils);
-            return context;
-        }
-    );
+    private final ThreadLocal<Context> threadContext = ThreadLocal.withInitial(() -> newContext(sharedEngine, null));
+
+    // isolate 模式下每个脚本独立的引擎，每个引擎运行在一个独立堆、独立 GC 的 isolate 中，key 为脚本文件路径
+    private final Map<String, Engine> isolateEngines = new ConcurrentHashMap<>();
+
+    // 线程局部：脚本独立的上下文，isolate 模式或者脚本声明了资源限制时使用
+    private final ThreadLocal<Map<String, ScriptContext>> scriptContexts = ThreadLocal.withInitial(HashMap::new);
 
     // 当前线程正在执行的文件路径
     private final ThreadLocal<String> threadFilepath = new ThreadLocal<>();
 
 
-    // 线程局部：缓存特定线程 Context 下的 Value
-    private final ThreadLocal<Map<String, SourceFunctionObject>> functionCache = ThreadLocal.withInitial(HashMap::new);
+    // 线程局部：缓存特定线程 Context 下的模块
+    private final ThreadLocal<Map<String, SourceModuleObject>> moduleCache = ThreadLocal.withInitial(HashMap::new);
+
+    private Context newContext(Engine engine, ScriptCDCConfig.Limits limits) {
+        Context.Builder builder = Context.newBuilder("js")
+            .engine(engine) // 绑定共享引擎或者脚本的 isolate 引擎
+            .allowAllAccess(true)
+            .option("js.esm-eval-returns-exports", "true")
+            .option("js.foreign-object-prototype", "true");
+        if (limits != null) {
+            if (limits.getMaxCpuTimeMs() > 0) {
+                builder.option("sandbox.MaxCPUTime", limits.getMaxCpuTimeMs() + "ms");
+            }
+            if (limits.getMaxStatements() > 0) {
+                builder.option("sandbox.MaxStatements", String.valueOf(limits.getMaxStatements()));
+            }
+            if (limits.getMaxHeapMemory() != null && !limits.getMaxHeapMemory().isBlank()) {
+                builder.option("sandbox.MaxHeapMemory", limits.getMaxHeapMemory());
+            }
+        }
+        Context context = builder.build();
+        contexts.add(context);
+        Value bindings = context.getBindings("js");
+        bindings.putMember("es", elasticsearchUtils);
+        bindings.putMember("state", stateStoreManager);
+        bindings.putMember("window", windowBinding);
+        bindings.putMember("cache", cacheBinding);
+        // 扩展的输出端
+        sinkRegistry.getBindings().forEach(bindings::putMember);
+        return context;
+    }
+
+    /**
+     * 获取当前线程执行脚本的上下文：默认所有脚本共用线程的上下文；
+     * isolate 模式或者脚本声明了资源限制时，每个脚本独立一个，脚本重新加载后重建
+     */
+    private Context contextOf(String filepath, SourceObject sourceObject) {
+        boolean isolate = systemConfig.getIsolate().isEnabled();
+        ScriptCDCConfig.Limits limits = sourceObject.cdcConfig.getLimits();
+        if (!isolate && limits == null) {
+            return threadContext.get();
+        }
+        Map<String, ScriptContext> map = scriptContexts.get();
+        ScriptContext scriptContext = map.get(filepath);
+        if (scriptContext != null && scriptContext.version == sourceObject.version) {
+            return scriptContext.context;
+        }
+        if (scriptContext != null) {
+            // 资源限制可能已经变化
+            closeContext(scriptContext.context);
+        }
+        Engine engine = isolate
+            ? isolateEngines.computeIfAbsent(filepath, _ -> Engine.newBuilder("js")
+                .option("engine.SpawnIsolate", "true")
+                .option("engine.MaxIsolateMemory", systemConfig.getIsolate().getMaxHeapMemory())
+                .build())
+            : sharedEngine;
+        Context context = newContext(engine, limits);
+        map.put(filepath, new ScriptContext(sourceObject.version, context));
+        return context;
+    }
+
+    /**
+     * 丢弃当前线程中脚本独立的上下文，超出资源限制后上下文不可再用
+     */
+    private void discardContext(String filepath) {
+        moduleCache.get().remove(filepath);
+        ScriptContext scriptContext = scriptContexts.get().remove(filepath);
+        if (scriptContext != null) {
+            closeContext(scriptContext.context);
+        }
+    }
+
+    private void closeContext(Context context) {
+        contexts.remove(context);
+        try {
+            context.close(true);
+        } catch (Exception e) {
+            log.error("关闭 Context 失败！", e);
+        }
+    }
 
     static boolean isPromise(Value value) {
         return value != null && (
@@ -87,28 +189,85 @@ public class ScriptExecutor implements DisposableBean {
         );
     }
 
+    /**
+     * 将 JS 值转换为 Java 对象（Map、List、String、Number、Boolean），脱离 Context 后仍可使用
+     *
+     * @param value JS 值
+     * @return Java 对象
+     */
+    public static Object toJava(Value value) {
+        if (value == null || value.isNull()) {
+            return null;
+        }
+        if (value.isBoolean()) {
+            return value.asBoolean();
+        }
+        if (value.isString()) {
+            return value.asString();
+        }
+        if (value.isNumber()) {
+            return value.fitsInLong() ? value.asLong() : value.asDouble();
+        }
+        if (value.isHostObject()) {
+            return value.asHostObject();
+        }
+        if (value.hasArrayElements()) {
+            List<Object> list = new ArrayList<>((int) value.getArraySize());
+            for (long i = 0; i < value.getArraySize(); i++) {
+                list.add(toJava(value.getArrayElement(i)));
+            }
+            return list;
+        }
+        if (value.hasMembers()) {
+            Map<String, Object> map = new LinkedHashMap<>();
+            for (String key : value.getMemberKeys()) {
+                Value member = value.getMember(key);
+                if (member != null && !member.canExecute()) {
+                    map.put(key, toJava(member));
+                }
+            }
+            return map;
+        }
+        return value.toString();
+    }
+
+    @SuppressWarnings("unchecked")
+    static ScriptCDCConfig toCDCConfig(Object value) {
+        if (!(value instanceof Map)) {
+            return new ScriptCDCConfig();
+        }
+        return new JSONObject((Map<String, Object>) value).to(ScriptCDCConfig.class);
+    }
+
     /**
      * 初始化脚本中的cdc配置，例如订阅数据库，期望监听的表、库等
      *
      * @param jsSource 脚本源
+     * @return 脚本的cdc配置
      */
-    private void initScriptCDC(Context ctx, Source jsSource) {
+    private ScriptCDCConfig initScriptCDC(Context ctx, Source jsSource) {
         Value esmNamespaces = ctx.eval(jsSource);
         Value defaultFunc = esmNamespaces.getMember("default");
         if (defaultFunc == null || !defaultFunc.hasMember("then")) {
             throw new IllegalStateException("JS 异步执行出错: 缺少export default async 方法");
         }
         Value initFunc = esmNamespaces.getMember("initCDC");
+        if (initFunc == null || !initFunc.canExecute()) {
+            return new ScriptCDCConfig();
+        }
         Value value = initFunc.execute();
         if (isPromise(value)) {
             CountDownLatch latch = new CountDownLatch(1);
+            AtomicReference<Object> resultRef = new AtomicReference<>();
             AtomicReference<IllegalStateException> errorRef = new AtomicReference<>();
-            value.invokeMember("then", (ProxyExecutable) _ -> {
+            value.invokeMember("then", (ProxyExecutable) ar -> {
+                resultRef.set(ar.length > 0 ? toJava(ar[0]) : null);
                 latch.countDown();
                 return null;
             }).invokeMember("catch", (ProxyExecutable) ar -> {
                 // 捕获 JS 中的异步错误，方便 Java 侧抛出
                 errorRef.set(new IllegalStateException("JS 异步执行出错: " + ar[0].toString()));
+                latch.countDown();
                 return null;
             });
             try {
@@ -119,7 +278,9 @@ public class ScriptExecutor implements DisposableBean {
             } catch (InterruptedException e) {
                 throw new RuntimeException(e);
             }
+            return toCDCConfig(resultRef.get());
         }
+        return toCDCConfig(toJava(value));
     }
 
     private SourceObject getSourceObject(String filepath) {
@@ -130,8 +291,17 @@ public class ScriptExecutor implements DisposableBean {
                     .build();
                 // 初始化脚本中的cdc配置
                 // 阻塞到执行完毕
-                CompletableFuture.runAsync(() -> initScriptCDC(initCDCContext, jsSource), initCDCExecutor).join();
-                return new SourceObject(System.currentTimeMillis(), jsSource);
+                ScriptInitEvent initEvent = new ScriptInitEvent();
+                initEvent.begin();
+                ScriptCDCConfig cdcConfig = CompletableFuture
+                    .supplyAsync(() -> initScriptCDC(initCDCContext, jsSource), initCDCExecutor)
+                    .join();
+                initEvent.end();
+                if (initEvent.shouldCommit()) {
+                    initEvent.scriptId = p;
+                    initEvent.commit();
+                }
+                return new SourceObject(System.currentTimeMillis(), jsSource, cdcConfig);
             } catch (IOException e) {
                 throw new RuntimeException(e);
             }
@@ -139,23 +309,73 @@ public class ScriptExecutor implements DisposableBean {
 
     }
 
-    private Value getDefaultAsyncFunc(String filepath) {
-        Context ctx = threadContext.get();
-        Map<String, SourceFunctionObject> cache = functionCache.get();
+    private Value getExport(String filepath, String name) {
+        Map<String, SourceModuleObject> cache = moduleCache.get();
         SourceObject sourceObject = getSourceObject(filepath);
-        // 获取或初始化该线程专属的 Value
-        SourceFunctionObject asyncFuncObject = cache.computeIfAbsent(filepath, _ -> {
-            // eval 后获取该线程 Context 下的 export default
-            return new SourceFunctionObject(sourceObject.version, ctx.eval(sourceObject.source).getMember("default"));
-        });
-        if (asyncFuncObject.version != sourceObject.version) {
+        Context ctx = contextOf(filepath, sourceObject);
+        // 获取或初始化该线程专属的模块
+        SourceModuleObject moduleObject = cache.computeIfAbsent(filepath, _ -> eval(ctx, filepath, sourceObject));
+        if (moduleObject.version != sourceObject.version) {
             cache.remove(filepath);
-            return cache.computeIfAbsent(filepath, _ -> {
-                // eval 后获取该线程 Context 下的 export default
-                return new SourceFunctionObject(sourceObject.version, ctx.eval(sourceObject.source).getMember("default"));
-            }).function;
+            moduleObject = cache.computeIfAbsent(filepath, _ -> eval(ctx, filepath, sourceObject));
+        }
+        return moduleObject.module.getMember(name);
+    }
+
+    /**
+     * eval 后获取该线程 Context 下的模块导出
+     */
+    private static SourceModuleObject eval(Context ctx, String filepath, SourceObject sourceObject) {
+        ScriptEvalEvent evalEvent = new ScriptEvalEvent();
+        evalEvent.begin();
+        Value module = ctx.eval(sourceObject.source);
+        evalEvent.end();
+        if (evalEvent.shouldCommit()) {
+            evalEvent.scriptId = filepath;
+            evalEvent.commit();
         }
-        return asyncFuncObject.function;
+        return new SourceModuleObject(sourceObject.version, module);
+    }
+
+    /**
+     * 获取脚本的cdc配置
+     *
+     * @param filepath 脚本文件路径
+     * @return cdc配置
+     */
+    public ScriptCDCConfig getCDCConfig(String filepath) {
+        return getSourceObject(filepath).cdcConfig;
+    }
+
+    /**
+     * 脚本是否已加载，包括不参与订阅的脚本
+     *
+     * @param filepath 脚本文件路径
+     */
+    public boolean isLoaded(String filepath) {
+        return sourceCache.containsKey(filepath);
+    }
+
+    /**
+     * 共享引擎，非 isolate 模式下所有脚本都运行在这个引擎中
+     */
+    Engine getSharedEngine() {
+        return sharedEngine;
+    }
+
+    /**
+     * 获取所有已加载脚本的cdc配置
+     *
+     * @return key 为脚本文件路径
+     */
+    public Map<String, ScriptCDCConfig> getCDCConfigs() {
+        Map<String, ScriptCDCConfig> map = new LinkedHashMap<>();
+        sourceCache.forEach((filepath, sourceObject) -> {
+            if (!detached.contains(filepath)) {
+                map.put(filepath, sourceObject.cdcConfig);
+            }
+        });
+        return map;
     }
 
     /**
@@ -165,14 +385,42 @@ public class ScriptExecutor implements DisposableBean {
      * @param args     脚本参数
      */
     public void execute(String filepath, Object... args) {
-        Value defaultAsyncFunc = getDefaultAsyncFunc(filepath);
+        invoke(filepath, "default", args);
+    }
+
+    /**
+     * 执行脚本导出的异步方法
+     *
+     * @param filepath 脚本文件路径
+     * @param name     导出名称
+     * @param args     参数
+     */
+    public void invoke(String filepath, String name, Object... args) {
+        Value asyncFunc = getExport(filepath, name);
+        if (asyncFunc == null || !asyncFunc.canExecute()) {
+            throw new IllegalStateException("JS 执行出错: 缺少 export async function " + name);
+        }
+        ScriptInvokeEvent invokeEvent = new ScriptInvokeEvent();
+        invokeEvent.begin();
+        long startedAt = System.nanoTime();
+        if (getCDCConfig(filepath).getLimits() != null) {
+            // 资源限制按单次执行计算
+            asyncFunc.getContext().resetLimits();
+        }
         threadFilepath.set(filepath);
         Value promise;
         try {
-            promise = defaultAsyncFunc.execute(args);
+            promise = asyncFunc.execute(args);
+        } catch (PolyglotException e) {
+            if (e.isResourceExhausted() || e.isCancelled()) {
+                discardContext(filepath);
+                throw new IllegalStateException("JS 执行超出资源限制: " + e.getMessage(), e);
+            }
+            throw e;
         } finally {
             threadFilepath.remove();
         }
+        long executeDuration = System.nanoTime() - startedAt;
         CountDownLatch latch = new CountDownLatch(1);
         AtomicReference<Throwable> errorRef = new AtomicReference<>();
         if (isPromise(promise)) {
@@ -190,11 +438,20 @@ public class ScriptExecutor implements DisposableBean {
         }
         try {
             latch.await();
-            if (errorRef.get() != null) {
-                throw new IllegalStateException("JS 异步执行出错: " + errorRef.get().getMessage(), errorRef.get());
-            }
         } catch (InterruptedException e) {
             throw new IllegalStateException("线程被中断", e);
+        } finally {
+            invokeEvent.end();
+            if (invokeEvent.shouldCommit()) {
+                invokeEvent.scriptId = filepath;
+                invokeEvent.export = name;
+                invokeEvent.executeDuration = executeDuration;
+                invokeEvent.failed = errorRef.get() != null;
+                invokeEvent.commit();
+            }
+        }
+        if (errorRef.get() != null) {
+            throw new IllegalStateException("JS 异步执行出错: " + errorRef.get().getMessage(), errorRef.get());
         }
     }
 
@@ -207,6 +464,13 @@ public class ScriptExecutor implements DisposableBean {
                 log.error("关闭 Context 失败！", e);
             }
         }
+        for (Engine engine : isolateEngines.values()) {
+            try {
+                engine.close(true);
+            } catch (Exception e) {
+                log.error("关闭 isolate 失败！", e);
+            }
+        }
         try {
             sharedEngine.close();
         } catch (Exception e) {
@@ -234,6 +498,18 @@ public class ScriptExecutor implements DisposableBean {
         getSourceObject(filepath);
     }
 
+    /**
+     * 注册不参与订阅的脚本，只能通过 {@link #execute} 显式执行
+     *
+     * @param filepath 脚本文件路径
+     * @return cdc配置
+     */
+    public ScriptCDCConfig registerDetached(String filepath) {
+        detached.add(filepath);
+        sourceCache.remove(filepath);
+        return getSourceObject(filepath).cdcConfig;
+    }
+
     /**
      * 注销脚本
      *
@@ -241,5 +517,15 @@ public class ScriptExecutor implements DisposableBean {
      */
     public void unregister(String filepath) {
         sourceCache.remove(filepath);
+        detached.remove(filepath);
+        Engine engine = isolateEngines.remove(filepath);
+        if (engine != null) {
+            // 同时关闭各线程中该脚本的上下文
+            try {
+                engine.close(true);
+            } catch (Exception e) {
+                log.error("关闭脚本 {} 的 isolate 失败！", filepath, e);
+            }
+        }
     }
 }
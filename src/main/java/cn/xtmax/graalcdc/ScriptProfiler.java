@@ -0,0 +1,339 @@
+package cn.xtmax.graalcdc;
+
+import cn.xtmax.graalcdc.config.SystemConfig;
+import com.oracle.truffle.api.instrumentation.SourceSectionFilter;
+import com.oracle.truffle.api.instrumentation.StandardTags;
+import com.oracle.truffle.api.source.SourceSection;
+import com.oracle.truffle.tools.profiler.CPUSampler;
+import com.oracle.truffle.tools.profiler.CPUSamplerData;
+import com.oracle.truffle.tools.profiler.MemoryTracer;
+import com.oracle.truffle.tools.profiler.ProfilerNode;
+import lombok.extern.slf4j.Slf4j;
+import org.graalvm.polyglot.Engine;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToLongFunction;
+
+/**
+ * 脚本性能分析，按需对一个脚本开启 Truffle CPU 采样（可选内存分配追踪），到时后停止
+ * <p>
+ * 结果以 folded stacks 格式（每行 <code>frame;frame;frame count</code>）写入 日志目录/profiles，
+ * 可以直接交给 flamegraph.pl、speedscope 等工具生成火焰图。
+ * 采样器作用于整个共享引擎，同一时间只能分析一个脚本，只保留该脚本文件中的栈帧（不包括它引入的其他模块）；
+ * isolate 模式下脚本运行在独立的引擎中，不支持分析
+ *
+ * @author 起风了
+ * @email m.zxt@foxmail.com
+ * @date 2026/01/11 15:00
+ */
+@Slf4j
+@Component
+public class ScriptProfiler implements DisposableBean {
+
+    // 保留的已结束分析记录数
+    static final int HISTORY_SIZE = 20;
+
+    // 默认的分析时长（秒）
+    static final int DEFAULT_DURATION_SECONDS = 30;
+
+    static final DateTimeFormatter FILE_TIME = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss");
+
+    @Autowired
+    SystemConfig systemConfig;
+
+    @Autowired
+    ScriptExecutor scriptExecutor;
+
+    // 到时停止分析
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "script-profiler");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // 运行中的分析
+    private Session running;
+
+    // 已结束的分析，最新的在前
+    private final Deque<Stats> history = new ArrayDeque<>();
+
+    public enum State {
+        RUNNING, COMPLETED, STOPPED, FAILED
+    }
+
+    /**
+     * 分析请求
+     *
+     * @param scriptId        脚本文件路径
+     * @param durationSeconds 分析时长（秒），默认 30，不超过配置的上限
+     * @param periodMs        CPU 采样间隔（毫秒），为空时使用配置
+     * @param allocation      是否同时追踪内存分配，开销明显高于 CPU 采样
+     */
+    public record ProfileRequest(String scriptId,
+                                 Integer durationSeconds,
+                                 Integer periodMs,
+                                 Boolean allocation) {
+    }
+
+    /**
+     * 分析状态
+     *
+     * @param samples        采样到该脚本的次数
+     * @param cpuFile        CPU 采样结果文件，每行的数值为采样次数
+     * @param allocationFile 内存分配结果文件，每行的数值为分配次数
+     */
+    public record Stats(String id,
+                        String scriptId,
+                        State state,
+                        int durationSeconds,
+                        int periodMs,
+                        boolean allocation,
+                        long startedAt,
+                        long finishedAt,
+                        long samples,
+                        String cpuFile,
+                        String allocationFile,
+                        String error) {
+    }
+
+    private static final class Session {
+
+        final String id = UUID.randomUUID().toString().substring(0, 8);
+
+        final String scriptId;
+
+        final int durationSeconds;
+
+        final int periodMs;
+
+        final long startedAt = System.currentTimeMillis();
+
+        final CPUSampler sampler;
+
+        // 不追踪内存分配时为 null
+        final MemoryTracer tracer;
+
+        ScheduledFuture<?> timer;
+
+        State state = State.RUNNING;
+
+        long finishedAt;
+
+        long samples;
+
+        String cpuFile;
+
+        String allocationFile;
+
+        String error;
+
+        Session(String scriptId, int durationSeconds, int periodMs, CPUSampler sampler, MemoryTracer tracer) {
+            this.scriptId = scriptId;
+            this.durationSeconds = durationSeconds;
+            this.periodMs = periodMs;
+            this.sampler = sampler;
+            this.tracer = tracer;
+        }
+
+        Stats stats() {
+            return new Stats(
+                id, scriptId, state, durationSeconds, periodMs, tracer != null,
+                startedAt, finishedAt, samples, cpuFile, allocationFile, error
+            );
+        }
+    }
+
+    /**
+     * 开始分析
+     *
+     * @param request 分析请求
+     * @return 分析状态
+     */
+    public synchronized Stats start(ProfileRequest request) {
+        if (request.scriptId() == null || request.scriptId().isBlank()) {
+            throw new IllegalArgumentException("scriptId 不能为空");
+        }
+        if (!scriptExecutor.isLoaded(request.scriptId())) {
+            throw new IllegalArgumentException("脚本 " + request.scriptId() + " 未加载");
+        }
+        if (systemConfig.getIsolate().isEnabled()) {
+            throw new IllegalArgumentException("isolate 模式下脚本运行在独立的引擎中，不支持性能分析");
+        }
+        if (running != null) {
+            throw new IllegalArgumentException("脚本 " + running.scriptId + " 的性能分析正在运行");
+        }
+        SystemConfig.Profiler config = systemConfig.getProfiler();
+        int duration = request.durationSeconds() == null ? DEFAULT_DURATION_SECONDS : request.durationSeconds();
+        if (duration <= 0 || duration > config.getMaxDurationSeconds()) {
+            throw new IllegalArgumentException("durationSeconds 的取值范围为 1 ~ " + config.getMaxDurationSeconds());
+        }
+        int period = request.periodMs() == null || request.periodMs() <= 0 ? config.getPeriodMs() : request.periodMs();
+        Engine engine = scriptExecutor.getSharedEngine();
+        SourceSectionFilter filter = filterOf(request.scriptId());
+        CPUSampler sampler = CPUSampler.find(engine);
+        sampler.clear();
+        sampler.setPeriod(period);
+        sampler.setFilter(filter);
+        sampler.setCollecting(true);
+        MemoryTracer tracer = null;
+        if (Boolean.TRUE.equals(request.allocation())) {
+            tracer = MemoryTracer.find(engine);
+            tracer.clearData();
+            tracer.setFilter(filter);
+            tracer.setCollecting(true);
+        }
+        Session session = new Session(request.scriptId(), duration, period, sampler, tracer);
+        session.timer = scheduler.schedule(() -> finish(session, State.COMPLETED), duration, TimeUnit.SECONDS);
+        running = session;
+        log.info("脚本 {} 的性能分析 {} 开始，时长 {} 秒", session.scriptId, session.id, duration);
+        return session.stats();
+    }
+
+    /**
+     * 提前停止运行中的分析，已采集的结果照常写入文件
+     *
+     * @return 分析状态，没有运行中的分析时为 null
+     */
+    public synchronized Stats stop() {
+        return running == null ? null : finish(running, State.STOPPED);
+    }
+
+    /**
+     * 运行中与已结束的分析
+     */
+    public synchronized List<Stats> stats() {
+        List<Stats> list = new ArrayList<>(history.size() + 1);
+        if (running != null) {
+            list.add(running.stats());
+        }
+        list.addAll(history);
+        return list;
+    }
+
+    private synchronized Stats finish(Session session, State state) {
+        if (running != session) {
+            return session.stats();
+        }
+        running = null;
+        session.timer.cancel(false);
+        try {
+            session.sampler.setCollecting(false);
+            Map<String, Long> stacks = new LinkedHashMap<>();
+            for (CPUSamplerData data : session.sampler.getData().values()) {
+                for (Collection<ProfilerNode<CPUSampler.Payload>> roots : data.getThreadData().values()) {
+                    roots.forEach(root -> fold(root, "", CPUSampler.Payload::getSelfHitCount, stacks));
+                }
+            }
+            session.sampler.clear();
+            session.samples = stacks.values().stream().mapToLong(Long::longValue).sum();
+            session.cpuFile = write(session, "cpu", stacks);
+            if (session.tracer != null) {
+                session.tracer.setCollecting(false);
+                Map<String, Long> allocations = new LinkedHashMap<>();
+                session.tracer.getRootNodes().forEach(root -> fold(root, "", payload -> payload.getEvents().size(), allocations));
+                session.tracer.clearData();
+                session.allocationFile = write(session, "alloc", allocations);
+            }
+            session.state = state;
+        } catch (Throwable e) {
+            log.error("脚本 {} 的性能分析 {} 失败！", session.scriptId, session.id, e);
+            session.state = State.FAILED;
+            session.error = e.toString();
+        }
+        session.finishedAt = System.currentTimeMillis();
+        log.info("脚本 {} 的性能分析 {} 结束：{}，采样 {} 次，结果 {}", session.scriptId, session.id, session.state, session.samples, session.cpuFile);
+        Stats stats = session.stats();
+        history.addFirst(stats);
+        while (history.size() > HISTORY_SIZE) {
+            history.removeLast();
+        }
+        return stats;
+    }
+
+    /**
+     * 只保留脚本文件中的函数
+     */
+    static SourceSectionFilter filterOf(String filepath) {
+        Path path = Path.of(filepath).toAbsolutePath().normalize();
+        return SourceSectionFilter.newBuilder()
+            .tagIs(StandardTags.RootTag.class)
+            .includeInternal(false)
+            .sourceIs(source -> source.getPath() != null && Path.of(source.getPath()).toAbsolutePath().normalize().equals(path))
+            .build();
+    }
+
+    /**
+     * 把调用树展开为 folded stacks，调用方在前
+     *
+     * @param weight 节点自身的计数
+     */
+    static <T> void fold(ProfilerNode<T> node, String parent, ToLongFunction<T> weight, Map<String, Long> stacks) {
+        String stack = parent.isEmpty() ? frameOf(node) : parent + ";" + frameOf(node);
+        long self = weight.applyAsLong(node.getPayload());
+        if (self > 0) {
+            stacks.merge(stack, self, Long::sum);
+        }
+        for (ProfilerNode<T> child : node.getChildren()) {
+            fold(child, stack, weight, stacks);
+        }
+    }
+
+    static String frameOf(ProfilerNode<?> node) {
+        String name = node.getRootName() == null || node.getRootName().isBlank() ? "<anonymous>" : node.getRootName();
+        SourceSection section = node.getSourceSection();
+        String frame = section == null || !section.isAvailable()
+            ? name
+            : name + " (" + section.getSource().getName() + ":" + section.getStartLine() + ")";
+        // 分号是 folded stacks 的栈帧分隔符
+        return frame.replace(';', ',');
+    }
+
+    private String write(Session session, String kind, Map<String, Long> stacks) throws IOException {
+        Path directory = Path.of(systemConfig.getLogDirectory(), "profiles");
+        Files.createDirectories(directory);
+        String name = Path.of(session.scriptId).getFileName().toString().replaceFirst("\\.[^.]*$", "");
+        String time = FILE_TIME.format(LocalDateTime.ofInstant(Instant.ofEpochMilli(session.startedAt), ZoneId.systemDefault()));
+        Path file = directory.resolve(name + "-" + time + "-" + session.id + "-" + kind + ".folded");
+        try (BufferedWriter writer = Files.newBufferedWriter(file)) {
+            for (Map.Entry<String, Long> entry : stacks.entrySet()) {
+                writer.write(entry.getKey());
+                writer.write(' ');
+                writer.write(Long.toString(entry.getValue()));
+                writer.newLine();
+            }
+        }
+        return file.toString();
+    }
+
+    @Override
+    public void destroy() {
+        synchronized (this) {
+            if (running != null) {
+                finish(running, State.STOPPED);
+            }
+        }
+        scheduler.shutdownNow();
+    }
+}
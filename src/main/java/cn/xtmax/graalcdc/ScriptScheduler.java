@@ -1,35 +1,322 @@
 package cn.xtmax.graalcdc;
 
+import cn.xtmax.graalcdc.config.ScriptCDCConfig;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Component;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.*;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * 脚本调度器
+ * <p>
+ * 每个脚本一条独立的等待队列，线程池空闲时按优先级从高到低、同优先级按加权公平（虚拟时间最小者优先）选取下一个任务，
+ * 脚本每执行一次，虚拟时间增加 执行耗时 / 权重，执行慢或者占用 CPU 多的脚本自然让出线程；
+ * 同时限制每个脚本的并发数与排队数，超出排队上限的任务直接拒绝，由调用方退避重试。
+ * 通道由 {@link #configure} 登记、{@link #remove} 注销，同一个脚本在多个实例上的消费者共用一个通道，
+ * 最后一个使用者注销且没有运行、排队的任务时移除
  *
  * @author 起风了
  * @email m.zxt@foxmail.com
  * @date 2025/12/29 19:00
  */
+@Slf4j
 @Component
 public class ScriptScheduler implements AutoCloseable{
 
+    /**
+     * 并发数
+     */
+    private final int parallelism = Runtime.getRuntime().availableProcessors();
 
     /**
      * 线程池
      */
-    private final ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+    private final ExecutorService executor = Executors.newFixedThreadPool(parallelism);
+
+    private final Map<String, Lane> lanes = new ConcurrentHashMap<>();
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    // 运行中的任务数
+    private int running;
+
+    // 调度被拒绝时的退避时间
+    static final long MIN_BACKOFF_MS = 10;
+    static final long MAX_BACKOFF_MS = 1000;
+
+    // 最近一次选取的虚拟时间，空闲后重新排队的脚本从这里开始，避免积攒的额度让它长时间独占
+    private double virtualClock;
+
+    record Task(Runnable runnable, CompletableFuture<Void> future, long enqueuedAt) {
+    }
+
+    /**
+     * 脚本的调度统计
+     */
+    public record LaneStats(String scriptId,
+                            int weight,
+                            int priority,
+                            int maxConcurrency,
+                            int running,
+                            int queued,
+                            long submitted,
+                            long completed,
+                            long failed,
+                            long rejected,
+                            long avgWaitMicros,
+                            long avgExecMicros) {
+    }
+
+    static final class Lane {
+        final String scriptId;
+        final ArrayDeque<Task> queue = new ArrayDeque<>();
+        ScriptCDCConfig.Quota quota = new ScriptCDCConfig.Quota();
+        // 登记的使用者数
+        int owners;
+        int running;
+        double vtime;
+        long submitted;
+        long completed;
+        long failed;
+        long rejected;
+        long waitNanos;
+        long execNanos;
+
+        Lane(String scriptId) {
+            this.scriptId = scriptId;
+        }
+
+        boolean runnable() {
+            return !queue.isEmpty() && running < quota.getMaxConcurrency();
+        }
+
+        boolean idle() {
+            return queue.isEmpty() && running == 0;
+        }
+    }
+
+    /**
+     * 登记脚本通道并设置调度配额，与 {@link #remove} 成对调用
+     *
+     * @param scriptId 脚本ID
+     * @param quota    配额，为 null 使用默认配额
+     */
+    public void configure(String scriptId, ScriptCDCConfig.Quota quota) {
+        lock.lock();
+        try {
+            Lane lane = lanes.computeIfAbsent(scriptId, Lane::new);
+            lane.quota = validate(scriptId, quota);
+            lane.owners++;
+            dispatch();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 校验配额，权重、并发数、排队数小于 1 时通道永远不会被调度（或者拒绝所有任务），调用方会一直等待，按 1 处理
+     *
+     * @param scriptId 脚本ID
+     * @param quota    配额，为 null 使用默认配额
+     * @return 可以使用的配额
+     */
+    static ScriptCDCConfig.Quota validate(String scriptId, ScriptCDCConfig.Quota quota) {
+        if (quota == null) {
+            return new ScriptCDCConfig.Quota();
+        }
+        if (quota.getWeight() >= 1 && quota.getMaxConcurrency() >= 1 && quota.getMaxQueued() >= 1) {
+            return quota;
+        }
+        log.warn("脚本 {} 的配额无效（weight={}, maxConcurrency={}, maxQueued={}），小于 1 的按 1 处理",
+            scriptId, quota.getWeight(), quota.getMaxConcurrency(), quota.getMaxQueued());
+        ScriptCDCConfig.Quota valid = new ScriptCDCConfig.Quota();
+        valid.setWeight(Math.max(1, quota.getWeight()));
+        valid.setPriority(quota.getPriority());
+        valid.setMaxConcurrency(Math.max(1, quota.getMaxConcurrency()));
+        valid.setMaxQueued(Math.max(1, quota.getMaxQueued()));
+        return valid;
+    }
+
+    /**
+     * 注销脚本通道，没有其他使用者时移除，仍有任务时在任务结束后移除
+     *
+     * @param scriptId 脚本ID
+     */
+    public void remove(String scriptId) {
+        lock.lock();
+        try {
+            lanes.computeIfPresent(scriptId, (_, lane) -> --lane.owners <= 0 && lane.idle() ? null : lane);
+        } finally {
+            lock.unlock();
+        }
+    }
 
     /**
      * 运行脚本
      *
+     * @param scriptId  脚本ID
      * @param task      任务
+     * @return 脚本执行结果，超出排队上限时以 {@link RejectedExecutionException} 完成
+     */
+    public CompletableFuture<?> schedule(String scriptId, Runnable task) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        lock.lock();
+        try {
+            Lane lane = lanes.computeIfAbsent(scriptId, Lane::new);
+            if (lane.queue.size() >= lane.quota.getMaxQueued()) {
+                lane.rejected++;
+                future.completeExceptionally(new RejectedExecutionException("脚本 " + scriptId + " 排队任务超出上限"));
+                return future;
+            }
+            if (lane.idle()) {
+                lane.vtime = Math.max(lane.vtime, virtualClock);
+            }
+            lane.queue.add(new Task(task, future, System.nanoTime()));
+            lane.submitted++;
+            dispatch();
+        } finally {
+            lock.unlock();
+        }
+        return future;
+    }
+
+    /**
+     * 提交任务，被拒绝时退避后重试，直到进入排队
+     *
+     * @param scriptId 脚本ID
+     * @param task     任务
      * @return 脚本执行结果
      */
-    public CompletableFuture<?> schedule(Runnable task) {
-        return CompletableFuture.runAsync(task, executor);
+    public CompletableFuture<?> submit(String scriptId, Runnable task) throws InterruptedException {
+        long backoff = MIN_BACKOFF_MS;
+        while (true) {
+            CompletableFuture<?> future = schedule(scriptId, task);
+            if (!future.isCompletedExceptionally() || !(future.exceptionNow() instanceof RejectedExecutionException)) {
+                return future;
+            }
+            // 超出配额，退避后重试
+            Thread.sleep(backoff);
+            backoff = Math.min(backoff * 2, MAX_BACKOFF_MS);
+        }
+    }
+
+    /**
+     * 运行脚本并等待执行完成，被拒绝时退避后重试
+     *
+     * @param scriptId 脚本ID
+     * @param task     任务
+     * @return 执行错误，成功时为 null
+     */
+    public Throwable execute(String scriptId, Runnable task) throws InterruptedException {
+        return errorOf(submit(scriptId, task));
+    }
+
+    /**
+     * 等待执行完成（不响应中断，保证返回时任务已经结束）
+     *
+     * @param future {@link #schedule} 返回的结果
+     * @return 执行错误，成功时为 null
+     */
+    public static Throwable errorOf(CompletableFuture<?> future) {
+        Throwable error = future.handle((_, e) -> e).join();
+        return error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+    }
+
+    /**
+     * 线程池有空闲时选取任务执行，需要持有锁
+     */
+    private void dispatch() {
+        while (running < parallelism) {
+            Lane next = null;
+            for (Lane lane : lanes.values()) {
+                if (!lane.runnable()) {
+                    continue;
+                }
+                if (next == null
+                    || lane.quota.getPriority() > next.quota.getPriority()
+                    || (lane.quota.getPriority() == next.quota.getPriority() && lane.vtime < next.vtime)) {
+                    next = lane;
+                }
+            }
+            if (next == null) {
+                return;
+            }
+            Task task = next.queue.poll();
+            next.running++;
+            running++;
+            virtualClock = next.vtime;
+            Lane lane = next;
+            executor.execute(() -> run(lane, task));
+        }
+    }
+
+    private void run(Lane lane, Task task) {
+        long start = System.nanoTime();
+        boolean failed = false;
+        try {
+            task.runnable.run();
+            task.future.complete(null);
+        } catch (Throwable e) {
+            failed = true;
+            task.future.completeExceptionally(e);
+        } finally {
+            long elapsed = System.nanoTime() - start;
+            lock.lock();
+            try {
+                lane.running--;
+                running--;
+                lane.vtime += (double) elapsed / Math.max(1, lane.quota.getWeight());
+                lane.waitNanos += start - task.enqueuedAt;
+                lane.execNanos += elapsed;
+                if (failed) {
+                    lane.failed++;
+                } else {
+                    lane.completed++;
+                }
+                if (lane.owners <= 0 && lane.idle()) {
+                    // 已注销，或者只被死信重试等临时使用
+                    lanes.remove(lane.scriptId, lane);
+                }
+                dispatch();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * 各脚本的调度统计
+     */
+    public List<LaneStats> stats() {
+        lock.lock();
+        try {
+            List<LaneStats> list = new ArrayList<>(lanes.size());
+            for (Lane lane : lanes.values()) {
+                long done = Math.max(1, lane.completed + lane.failed);
+                list.add(new LaneStats(
+                    lane.scriptId,
+                    lane.quota.getWeight(),
+                    lane.quota.getPriority(),
+                    lane.quota.getMaxConcurrency(),
+                    lane.running,
+                    lane.queue.size(),
+                    lane.submitted,
+                    lane.completed,
+                    lane.failed,
+                    lane.rejected,
+                    TimeUnit.NANOSECONDS.toMicros(lane.waitNanos / done),
+                    TimeUnit.NANOSECONDS.toMicros(lane.execNanos / done)
+                ));
+            }
+            return list;
+        } finally {
+            lock.unlock();
+        }
     }
 
     @Override
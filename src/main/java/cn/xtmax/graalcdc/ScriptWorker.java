@@ -0,0 +1,597 @@
+package cn.xtmax.graalcdc;
+
+import cn.xtmax.graalcdc.config.ScriptCDCConfig;
+import cn.xtmax.graalcdc.jfr.ScriptDeliveryEvent;
+import cn.xtmax.graalcdc.window.ScriptWindows;
+import cn.xtmax.graalcdc.window.WindowBinding;
+import com.alibaba.fastjson2.JSON;
+import com.alibaba.fastjson2.JSONObject;
+import lombok.extern.slf4j.Slf4j;
+import net.openhft.chronicle.queue.ExcerptTailer;
+import net.openhft.chronicle.queue.impl.single.SingleChronicleQueue;
+import net.openhft.chronicle.wire.DocumentContext;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.*;
+
+/**
+ * 脚本消费者，每个脚本一个
+ * <p>
+ * 正常情况下从内存通道接收写入队列后直接投递的事件；通道满了之后标记为落后，改为从磁盘追赶，
+ * 追上队列末尾后重新从通道接收。以脚本ID命名的 tailer 作为持久化的消费位置，
+ * 只在一批事件执行完成后才前移，保证进程退出时未执行完的事件可以重新消费；
+ * 按事务投递时，消费位置停在未完成事务的 BEGIN 处，重启后整个事务重新投递。
+ * 配额的 maxConcurrency 大于 1 时，一批中的事件最多同时执行 maxConcurrency 个，同主键的事件（按事务投递时所有事件）
+ * 等前一个执行完成后再提交，消费位置在整批执行完成后才前移
+ *
+ * @author 起风了
+ * @email m.zxt@foxmail.com
+ * @date 2026/01/03 10:30
+ */
+@Slf4j
+final class ScriptWorker implements AutoCloseable {
+
+    // 不合并时单批最多处理的事件数
+    static final int BATCH_SIZE = 256;
+
+    // 空闲任务（按墙上时钟关闭窗口）的最小间隔
+    static final long IDLE_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    /**
+     * 一批事件
+     *
+     * @param events   需要执行的事件
+     * @param lastRead 读取到的最后一个索引（包括脚本未订阅的事件），执行完成后提交到该位置
+     */
+    record Batch(List<QueueEvent> events, long lastRead) {
+    }
+
+    /**
+     * 已提交、未完成的执行
+     *
+     * @param key 顺序键，同一个键同时只有一个执行
+     */
+    record Delivery(QueueEvent event, String text, String key, CompletableFuture<?> future, ScriptDeliveryEvent jfr) {
+    }
+
+    /**
+     * 未完成的事务
+     */
+    static final class OpenTransaction {
+        final String id;
+        // BEGIN 的索引，事务完成前消费位置不超过这里
+        final long beginIndex;
+        final List<QueueEvent> events = new ArrayList<>();
+        // 已投递的分批数
+        int part;
+
+        OpenTransaction(String id, long beginIndex) {
+            this.id = id;
+            this.beginIndex = beginIndex;
+        }
+    }
+
+    final String scriptId;
+
+    final ScriptCDCConfig cdcConfig;
+
+    final ScriptScheduler scriptScheduler;
+
+    final ScriptExecutor scriptExecutor;
+
+    final DeadLetterQueue deadLetterQueue;
+
+    // 窗口聚合状态，为 null 表示脚本没有声明窗口
+    final ScriptWindows windows;
+
+    final ScriptWindows.Emitter windowEmitter;
+
+    final BlockingQueue<QueueEvent> channel;
+
+    // 通道为空时的等待策略
+    final WaitStrategy waitStrategy;
+
+    // 持久化的消费位置
+    final ExcerptTailer cursor;
+
+    // 落后时从磁盘追赶
+    final ExcerptTailer reader;
+
+    final QueueCodec codec;
+
+    // 同主键变更合并，为 null 表示不合并
+    final ChangeCoalescer<QueueEvent> coalescer;
+
+    final CompletableFuture<Void> future = new CompletableFuture<>();
+
+    final Thread thread;
+
+    // 是否落后，落后时不再向通道投递，由消费者自己从磁盘追赶；启动时先从持久化位置追赶
+    volatile boolean lagging = true;
+
+    // 已读取的最后一个索引，用于丢弃通道中重复的事件
+    long lastIndex = -1;
+
+    // 按事务投递时未完成的事务
+    OpenTransaction openTransaction;
+
+    // 本批已执行事件的最大事件时间，用于推进窗口水位
+    long maxEventTime = Long.MIN_VALUE;
+
+    // 是否正在执行一批事件
+    boolean processing;
+
+    // 已提交、未完成的执行，按提交顺序
+    final ArrayDeque<Delivery> inFlight = new ArrayDeque<>();
+
+    // 顺序键 → 该键最后一个未完成的执行
+    final Map<String, Delivery> inFlightByKey = new HashMap<>();
+
+    // 上次执行空闲任务的时间
+    long idleAt;
+
+    // 上次收到脚本订阅的事件的时间（System.nanoTime），空闲时据此推进窗口水位
+    long receivedAt = System.nanoTime();
+
+    ScriptWorker(String scriptId,
+                 ScriptCDCConfig cdcConfig,
+                 ScriptScheduler scriptScheduler,
+                 ScriptExecutor scriptExecutor,
+                 DeadLetterQueue deadLetterQueue,
+                 ScriptWindows windows,
+                 ScriptWindows.Emitter windowEmitter,
+                 SingleChronicleQueue queue,
+                 QueueCodec codec) {
+        this.scriptId = scriptId;
+        this.cdcConfig = cdcConfig;
+        this.scriptScheduler = scriptScheduler;
+        this.scriptExecutor = scriptExecutor;
+        this.deadLetterQueue = deadLetterQueue;
+        this.windows = windows;
+        this.windowEmitter = windowEmitter;
+        this.channel = new ArrayBlockingQueue<>(cdcConfig.getChannelCapacity());
+        this.cursor = queue.createTailer(scriptId);
+        this.reader = queue.createTailer();
+        this.codec = codec;
+        this.coalescer = cdcConfig.getCoalesce() == null ? null : new ChangeCoalescer<>();
+        scriptScheduler.configure(scriptId, cdcConfig.getQuota());
+        this.waitStrategy = WaitStrategy.of(cdcConfig.getWaitStrategy());
+        this.thread = waitStrategy.start("script:" + scriptId, this::run);
+    }
+
+    /**
+     * 写入队列后投递事件，不阻塞，通道满了标记为落后
+     *
+     * @param event 事件
+     */
+    void offer(QueueEvent event) {
+        if (lagging || !accepts(event)) {
+            return;
+        }
+        if (!channel.offer(event)) {
+            lagging = true;
+        }
+        waitStrategy.unpause();
+    }
+
+    /**
+     * 是否需要投递给脚本，事务边界只在按事务投递时需要
+     */
+    boolean accepts(QueueEvent event) {
+        if (event.isMarker()) {
+            return cdcConfig.getTransaction() != null;
+        }
+        return cdcConfig.matches(event.database(), event.table());
+    }
+
+    /**
+     * 将 reader 移动到持久化的消费位置，有窗口检查点时移动到检查点的位置，重新聚合检查点之后的事件
+     */
+    private void seekCursor() throws IOException {
+        long checkpoint = windows == null ? -1 : windows.load();
+        long start = checkpoint >= 0 ? checkpoint : cursor.index();
+        if (start > 0 && !reader.moveToIndex(start)) {
+            // 消费位置已经是队列末尾，或者所在的文件已经被清理
+            if (start > reader.queue().lastIndex()) {
+                reader.toEnd();
+            } else {
+                reader.toStart();
+            }
+        }
+    }
+
+    private void run() {
+        try {
+            seekCursor();
+            while (!Thread.currentThread().isInterrupted()) {
+                Batch batch = lagging ? readDisk() : readChannel();
+                if (batch.lastRead < 0) {
+                    long now = System.nanoTime();
+                    if (windows != null && now - idleAt >= IDLE_INTERVAL_NANOS) {
+                        idleAt = now;
+                        // 空闲时按距离上次收到事件的时长关闭窗口，并重试输出失败的窗口
+                        windows.advance(Long.MIN_VALUE, TimeUnit.NANOSECONDS.toMillis(now - receivedAt), windowEmitter);
+                        windows.checkpointIfDue(cursor.index());
+                    }
+                    continue;
+                }
+                if (!batch.events.isEmpty()) {
+                    receivedAt = System.nanoTime();
+                }
+                processing = true;
+                process(batch.events);
+                awaitAll();
+                commit(batch.lastRead);
+                processing = false;
+                if (windows != null) {
+                    windows.advance(maxEventTime, 0, windowEmitter);
+                    maxEventTime = Long.MIN_VALUE;
+                    windows.checkpointIfDue(cursor.index());
+                }
+            }
+            future.complete(null);
+        } catch (InterruptedException e) {
+            // 正常停止
+            future.complete(null);
+        } catch (Throwable e) {
+            future.completeExceptionally(e);
+        } finally {
+            // 等待已提交的执行结束，避免重建的消费者与它们同时执行
+            for (Delivery delivery : inFlight) {
+                ScriptScheduler.errorOf(delivery.future());
+            }
+            // 执行到一半退出时，窗口状态包含了未提交的事件，保留上一个检查点
+            if (windows != null && !processing) {
+                try {
+                    windows.checkpoint(cursor.index());
+                } catch (Throwable t) {
+                    log.error("scriptId: {}, 写入窗口检查点失败！", scriptId, t);
+                }
+            }
+            try {
+                reader.close();
+                cursor.close();
+            } catch (Throwable t) {
+                log.error("关闭 Tailer 错误！", t);
+            }
+        }
+    }
+
+    private long windowDeadline() {
+        ScriptCDCConfig.Coalesce coalesce = cdcConfig.getCoalesce();
+        return coalesce == null ? 0 : System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(coalesce.getWindowMs());
+    }
+
+    private int maxBatch() {
+        ScriptCDCConfig.Coalesce coalesce = cdcConfig.getCoalesce();
+        return coalesce == null ? BATCH_SIZE : coalesce.getMaxBatch();
+    }
+
+    /**
+     * 从内存通道读取一批事件
+     */
+    Batch readChannel() throws InterruptedException {
+        List<QueueEvent> events = new ArrayList<>();
+        long lastRead = -1;
+        QueueEvent event = channel.poll();
+        if (event == null) {
+            waitStrategy.pause(() -> lagging || !channel.isEmpty());
+            event = channel.poll();
+            if (event == null) {
+                return new Batch(events, lastRead);
+            }
+        }
+        waitStrategy.reset();
+        long deadline = windowDeadline();
+        int max = maxBatch();
+        while (event != null) {
+            // 追赶期间磁盘上已经执行过的事件
+            if (event.index() > lastIndex) {
+                events.add(event);
+                lastRead = event.index();
+            }
+            if (events.size() >= max) {
+                break;
+            }
+            event = channel.poll();
+            if (event == null && deadline > 0) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining > 0) {
+                    event = channel.poll(remaining, TimeUnit.NANOSECONDS);
+                }
+            }
+        }
+        return new Batch(events, lastRead);
+    }
+
+    /**
+     * 从磁盘读取一批事件，读到队列末尾时取消落后标记
+     * <p>
+     * 取消标记后需要再读一次磁盘：标记取消前被跳过的事件，此时一定已经写入队列
+     */
+    Batch readDisk() {
+        // 通道中剩余的事件都会从磁盘读到；不清空的话恢复后通道仍是满的，下一次投递立即失败，再次落后
+        channel.clear();
+        if (lastIndex >= 0 && reader.index() <= lastIndex) {
+            // 上次追赶之后已经从通道读取过，跳到已读取的位置之后
+            if (reader.moveToIndex(lastIndex)) {
+                try (DocumentContext _ = reader.readingDocument()) {
+                    // 跳过已读取的事件
+                }
+            }
+        }
+        List<QueueEvent> events = new ArrayList<>();
+        long lastRead = -1;
+        int max = maxBatch();
+        boolean rechecked = false;
+        while (events.size() < max) {
+            try (DocumentContext dc = reader.readingDocument()) {
+                if (!dc.isPresent()) {
+                    if (!rechecked) {
+                        lagging = false;
+                        rechecked = true;
+                        continue;
+                    }
+                    break;
+                }
+                QueueEvent event = QueueEvent.read(dc.index(), dc.wire(), codec, scriptId);
+                lastRead = event.index();
+                if (accepts(event)) {
+                    events.add(event);
+                }
+            }
+        }
+        if (rechecked && events.size() >= max) {
+            // 取消标记后没有读到末尾，继续追赶
+            lagging = true;
+        }
+        return new Batch(events, lastRead);
+    }
+
+    /**
+     * 提交消费位置：前移到 index 之后，存在未完成的事务时只前移到事务的 BEGIN
+     *
+     * @param index 最后读取的索引
+     */
+    void commit(long index) {
+        lastIndex = Math.max(lastIndex, index);
+        long next = openTransaction != null ? openTransaction.beginIndex : index + 1;
+        while (cursor.index() < next) {
+            try (DocumentContext dc = cursor.readingDocument()) {
+                if (!dc.isPresent()) {
+                    break;
+                }
+            }
+        }
+    }
+
+    private void process(List<QueueEvent> events) throws InterruptedException {
+        if (cdcConfig.getTransaction() != null) {
+            processTransactions(events);
+            return;
+        }
+        if (coalescer != null && !events.isEmpty()) {
+            for (QueueEvent event : events) {
+                coalescer.add(event.key(), event);
+            }
+            int received = coalescer.received();
+            events = coalescer.drain();
+            if (log.isDebugEnabled()) {
+                log.debug("scriptId: {}, 合并窗口读取 {} 条，合并后 {} 条", scriptId, received, events.size());
+            }
+        }
+        for (QueueEvent event : events) {
+            execute(event, project(event), event.key());
+        }
+    }
+
+    /**
+     * 按事务成批投递，没有事务信息的事件（快照）按单批上限成批投递
+     */
+    private void processTransactions(List<QueueEvent> events) throws InterruptedException {
+        int max = Math.max(1, cdcConfig.getTransaction().getMaxBatch());
+        List<QueueEvent> loose = new ArrayList<>();
+        for (QueueEvent event : events) {
+            OpenTransaction open = openTransaction;
+            if (QueueEvent.BEGIN.equals(event.op())) {
+                deliver(null, loose, true);
+                if (open != null) {
+                    // 没有收到 END，按已收到的部分投递
+                    deliver(open, open.events, true);
+                }
+                openTransaction = new OpenTransaction(event.tx(), event.index());
+            } else if (QueueEvent.END.equals(event.op())) {
+                deliver(null, loose, true);
+                if (open != null && open.id.equals(event.tx())) {
+                    openTransaction = null;
+                    deliver(open, open.events, true);
+                }
+            } else if (open != null && open.id.equals(event.tx())) {
+                open.events.add(event);
+                if (open.events.size() >= max) {
+                    // 超大事务拆分投递
+                    deliver(open, open.events, false);
+                }
+            } else {
+                loose.add(event);
+                if (loose.size() >= max) {
+                    deliver(null, loose, true);
+                }
+            }
+        }
+        deliver(null, loose, true);
+    }
+
+    /**
+     * 投递一批事件，脚本参数为 {"transaction": {"id", "part", "last"}, "events": [debezium value...]}，
+     * 没有事务信息的事件 transaction 为 null
+     *
+     * @param transaction 事务，为 null 表示没有事务信息
+     * @param events      事件，投递后清空
+     * @param last        是否为事务的最后一批
+     */
+    private void deliver(OpenTransaction transaction, List<QueueEvent> events, boolean last) throws InterruptedException {
+        if (events.isEmpty()) {
+            return;
+        }
+        StringBuilder sb = new StringBuilder("{\"transaction\":");
+        if (transaction == null) {
+            sb.append("null");
+        } else {
+            sb.append("{\"id\":").append(JSON.toJSONString(transaction.id))
+                .append(",\"part\":").append(transaction.part++)
+                .append(",\"last\":").append(last)
+                .append('}');
+        }
+        sb.append(",\"events\":[");
+        for (int i = 0; i < events.size(); i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append(project(events.get(i)));
+        }
+        sb.append("]}");
+        QueueEvent first = events.getFirst();
+        events.clear();
+        // 事务之间保持顺序
+        execute(first, sb.toString(), "");
+    }
+
+    /**
+     * 裁剪掉脚本不需要的列
+     *
+     * @param event 事件
+     * @return 脚本参数
+     */
+    String project(QueueEvent event) {
+        return project(cdcConfig, event);
+    }
+
+    /**
+     * 按脚本声明的列裁剪事件
+     *
+     * @param cdcConfig 脚本的cdc配置
+     * @param event     事件
+     * @return 传给脚本的 value
+     */
+    static String project(ScriptCDCConfig cdcConfig, QueueEvent event) {
+        Set<String> columns = cdcConfig.columnsOf(event.table());
+        if (columns == null) {
+            return event.value();
+        }
+        JSONObject value = JSON.parseObject(event.value());
+        JSONObject payloadBody = value.getJSONObject("payload");
+        retain(payloadBody.getJSONObject("before"), columns);
+        retain(payloadBody.getJSONObject("after"), columns);
+        return value.toJSONString();
+    }
+
+    static void retain(JSONObject row, Set<String> columns) {
+        if (row != null) {
+            row.keySet().retainAll(columns);
+        }
+    }
+
+    /**
+     * 事件时间，取 source.ts_ms（数据库中的提交时间）
+     */
+    static long eventTime(QueueEvent event) {
+        JSONObject payloadBody = JSON.parseObject(event.value()).getJSONObject("payload");
+        JSONObject source = payloadBody.getJSONObject("source");
+        Long ts = source == null ? null : source.getLong("ts_ms");
+        if (ts == null) {
+            ts = payloadBody.getLong("ts_ms");
+        }
+        return ts == null ? System.currentTimeMillis() : ts;
+    }
+
+    private int maxConcurrency() {
+        ScriptCDCConfig.Quota quota = cdcConfig.getQuota();
+        return quota == null ? 1 : Math.max(1, quota.getMaxConcurrency());
+    }
+
+    /**
+     * 提交执行，同一个顺序键等前一个执行完成后再提交，未完成的执行达到并发上限时等待最早的一个
+     *
+     * @param event 事件
+     * @param text  脚本参数
+     * @param key   顺序键
+     */
+    void execute(QueueEvent event, String text, String key) throws InterruptedException {
+        Delivery previous = inFlightByKey.get(key);
+        while (previous != null && inFlightByKey.get(key) == previous) {
+            complete(inFlight.pollFirst());
+        }
+        if (deadLetterQueue.parked(event.table(), key)) {
+            // 同一个键有未处理完的死信，排在它之后，避免旧事件晚于新事件生效
+            deadLetterQueue.park(event, key, text);
+            return;
+        }
+        while (inFlight.size() >= maxConcurrency()) {
+            complete(inFlight.pollFirst());
+        }
+        long time = windows == null ? 0 : eventTime(event);
+        maxEventTime = Math.max(maxEventTime, time);
+        ScriptDeliveryEvent deliveryEvent = new ScriptDeliveryEvent();
+        deliveryEvent.begin();
+        CompletableFuture<?> future = scriptScheduler.submit(
+            scriptId, () -> WindowBinding.run(windows, time, () -> scriptExecutor.execute(scriptId, text))
+        );
+        Delivery delivery = new Delivery(event, text, key, future.whenComplete((_, _) -> deliveryEvent.end()), deliveryEvent);
+        inFlight.addLast(delivery);
+        inFlightByKey.put(key, delivery);
+    }
+
+    /**
+     * 等待本批所有执行完成
+     */
+    void awaitAll() {
+        while (!inFlight.isEmpty()) {
+            complete(inFlight.pollFirst());
+        }
+    }
+
+    private void complete(Delivery delivery) {
+        Throwable error = ScriptScheduler.errorOf(delivery.future());
+        inFlightByKey.remove(delivery.key(), delivery);
+        ScriptDeliveryEvent deliveryEvent = delivery.jfr();
+        if (deliveryEvent.shouldCommit()) {
+            deliveryEvent.scriptId = scriptId;
+            deliveryEvent.index = delivery.event().index();
+            deliveryEvent.table = delivery.event().table();
+            deliveryEvent.failed = error != null;
+            deliveryEvent.commit();
+        }
+        if (error != null) {
+            // 记录下错误，转入死信队列异步重试，不阻塞后续事件
+            log.error("scriptId: {}, 执行脚本错误，转入死信队列！index: {}", scriptId, delivery.event().index(), error);
+            deadLetterQueue.add(delivery.event(), delivery.key(), delivery.text(), error);
+        }
+    }
+
+    /**
+     * 停止消费者，等待正在执行的事件完成
+     */
+    @Override
+    public void close() {
+        thread.interrupt();
+        try {
+            future.get(30, TimeUnit.SECONDS);
+        } catch (ExecutionException e) {
+            log.error("scriptId: {}, 脚本消费者异常退出！", scriptId, e.getCause());
+        } catch (TimeoutException e) {
+            log.warn("scriptId: {}, 等待脚本消费者停止超时", scriptId);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            // 与构造时的 configure 成对，注销调度通道
+            scriptScheduler.remove(scriptId);
+        }
+    }
+}
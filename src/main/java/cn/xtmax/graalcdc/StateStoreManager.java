@@ -0,0 +1,161 @@
+package cn.xtmax.graalcdc;
+
+import cn.xtmax.graalcdc.config.SystemConfig;
+import cn.xtmax.graalcdc.storage.TableStateStore;
+import com.alibaba.fastjson2.JSON;
+import com.alibaba.fastjson2.JSONArray;
+import com.alibaba.fastjson2.JSONObject;
+import lombok.extern.slf4j.Slf4j;
+import org.graalvm.polyglot.HostAccess;
+import org.graalvm.polyglot.Value;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 表状态存储管理，以 state 绑定到脚本上下文，提供按主键查询
+ * <pre>
+ * export async function initCDC() {
+ *     return {tables: ["shop.order"], state: ["shop.customer"]}
+ * }
+ * export default async function (event) {
+ *     const customer = state.get("shop.customer", order.customer_id)
+ * }
+ * </pre>
+ * 单列主键直接传值，联合主键按主键列的顺序传数组
+ *
+ * @author 起风了
+ * @email m.zxt@foxmail.com
+ * @date 2026/01/05 17:30
+ */
+@Slf4j
+@Component
+public class StateStoreManager implements DisposableBean {
+
+    // 触发压缩的最小文件大小
+    static final long COMPACT_MIN_BYTES = 64L << 20;
+
+    @Autowired
+    SystemConfig systemConfig;
+
+    // key 为 实例名称/表
+    private final Map<String, TableStateStore> stores = new ConcurrentHashMap<>();
+
+    /**
+     * 将 debezium key 转换为存储的主键：单列主键为值本身，联合主键为值的 JSON 数组
+     *
+     * @param key debezium key
+     * @return 主键，无主键时为 null
+     */
+    static String normalizeKey(String key) {
+        if (key == null || key.isEmpty()) {
+            return null;
+        }
+        JSONObject object = JSON.parseObject(key);
+        JSONObject payload = object.containsKey("payload") ? object.getJSONObject("payload") : object;
+        if (payload == null || payload.isEmpty()) {
+            return null;
+        }
+        if (payload.size() == 1) {
+            return String.valueOf(payload.values().iterator().next());
+        }
+        return new JSONArray(payload.values()).toJSONString();
+    }
+
+    /**
+     * 将脚本传入的主键转换为存储的主键
+     */
+    static String lookupKey(Value value) {
+        Object key = ScriptExecutor.toJava(value);
+        if (key instanceof List<?> list) {
+            return list.size() == 1 ? String.valueOf(list.getFirst()) : new JSONArray(list).toJSONString();
+        }
+        return String.valueOf(key);
+    }
+
+    /**
+     * 获取实例中表的状态存储，不存在时创建
+     *
+     * @param instance 实例名称
+     * @param table    表
+     * @return 状态存储
+     */
+    TableStateStore acquire(String instance, String table) {
+        return stores.computeIfAbsent(instance + "/" + table, _ -> {
+            try {
+                return new TableStateStore(Path.of(systemConfig.getStateDirectory(), instance, table + ".state"), COMPACT_MIN_BYTES);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    /**
+     * 关闭实例中表的状态存储，文件保留
+     */
+    void release(String instance, String table) {
+        TableStateStore store = stores.remove(instance + "/" + table);
+        if (store != null) {
+            store.close();
+        }
+    }
+
+    /**
+     * 按主键查询表的最新一行，表存在于多个实例时返回第一个查询到的
+     *
+     * @param table 表，格式同 tables
+     * @param key   主键
+     * @return 行，不存在时为 null
+     */
+    @HostAccess.Export
+    public JSONObject get(String table, Value key) {
+        String k = lookupKey(key);
+        String suffix = "/" + table;
+        for (Map.Entry<String, TableStateStore> entry : stores.entrySet()) {
+            if (!entry.getKey().endsWith(suffix)) {
+                continue;
+            }
+            String value = entry.getValue().get(k);
+            if (value != null) {
+                return JSON.parseObject(value);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 主键是否存在
+     */
+    @HostAccess.Export
+    public boolean has(String table, Value key) {
+        String k = lookupKey(key);
+        String suffix = "/" + table;
+        return stores.entrySet().stream()
+            .anyMatch(entry -> entry.getKey().endsWith(suffix) && entry.getValue().contains(k));
+    }
+
+    /**
+     * 表的行数
+     */
+    @HostAccess.Export
+    public long size(String table) {
+        String suffix = "/" + table;
+        return stores.entrySet().stream()
+            .filter(entry -> entry.getKey().endsWith(suffix))
+            .mapToLong(entry -> entry.getValue().size())
+            .sum();
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        stores.values().forEach(TableStateStore::close);
+        stores.clear();
+    }
+}
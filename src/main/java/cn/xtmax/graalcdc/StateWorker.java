@@ -0,0 +1,114 @@
+package cn.xtmax.graalcdc;
+
+import cn.xtmax.graalcdc.storage.TableStateStore;
+import com.alibaba.fastjson2.JSON;
+import com.alibaba.fastjson2.JSONObject;
+import lombok.extern.slf4j.Slf4j;
+import net.openhft.chronicle.queue.ExcerptTailer;
+import net.openhft.chronicle.queue.impl.single.SingleChronicleQueue;
+import net.openhft.chronicle.wire.DocumentContext;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 表状态消费者，每张物化的表一个，把表的变更应用到状态存储
+ * <p>
+ * 以 state:表名 命名的 tailer 作为持久化的消费位置，新增的物化表从队列保留的最早位置开始构建；
+ * 变更应用后 tailer 才前移，重复应用是幂等的
+ *
+ * @author 起风了
+ * @email m.zxt@foxmail.com
+ * @date 2026/01/05 17:00
+ */
+@Slf4j
+final class StateWorker implements AutoCloseable {
+
+    // 没有新事件时的等待时间
+    static final long POLL_TIMEOUT_MS = 100;
+
+    final String table;
+
+    final TableStateStore store;
+
+    // tailer 名称，即持久化的消费位置
+    final String tailerName;
+
+    final ExcerptTailer tailer;
+
+    final QueueCodec codec;
+
+    // 写入新事件时唤醒
+    private final Semaphore signal = new Semaphore(0);
+
+    private final CompletableFuture<Void> future = new CompletableFuture<>();
+
+    private final Thread thread;
+
+    StateWorker(String table, TableStateStore store, SingleChronicleQueue queue, QueueCodec codec) {
+        this.table = table;
+        this.store = store;
+        this.codec = codec;
+        this.tailerName = "state:" + table;
+        this.tailer = queue.createTailer(tailerName);
+        this.thread = Thread.startVirtualThread(this::run);
+    }
+
+    void signal() {
+        signal.release();
+    }
+
+    private void run() {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                try (DocumentContext dc = tailer.readingDocument()) {
+                    if (dc.isPresent()) {
+                        QueueEvent event = QueueEvent.read(dc.index(), dc.wire(), codec, tailerName);
+                        if (table.equals(event.table()) && !event.isMarker()) {
+                            apply(event);
+                        }
+                        continue;
+                    }
+                }
+                signal.tryAcquire(POLL_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+                signal.drainPermits();
+            }
+            future.complete(null);
+        } catch (InterruptedException e) {
+            // 正常停止
+            future.complete(null);
+        } catch (Throwable e) {
+            log.error("表 {} 的状态消费者异常退出！", table, e);
+            future.completeExceptionally(e);
+        } finally {
+            tailer.close();
+        }
+    }
+
+    private void apply(QueueEvent event) throws Exception {
+        String key = StateStoreManager.normalizeKey(event.key());
+        if (key == null) {
+            // 无主键的表无法物化
+            return;
+        }
+        if ("d".equals(event.op())) {
+            store.delete(key);
+            return;
+        }
+        JSONObject after = JSON.parseObject(event.value()).getJSONObject("payload").getJSONObject("after");
+        if (after != null) {
+            store.put(key, after.toJSONString());
+        }
+    }
+
+    @Override
+    public void close() {
+        thread.interrupt();
+        try {
+            future.get(30, TimeUnit.SECONDS);
+        } catch (Exception e) {
+            log.warn("等待表 {} 的状态消费者停止失败", table, e);
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package cn.xtmax.graalcdc;
+
+import net.openhft.chronicle.threads.Pauser;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BooleanSupplier;
+
+/**
+ * 脚本消费者没有新事件时的等待策略，在延迟与 CPU 之间取舍
+ * <ul>
+ *     <li>busy：自旋，微秒级唤醒，独占一个 CPU 核心，使用平台线程</li>
+ *     <li>yielding：自旋一段时间后让出 CPU，使用平台线程</li>
+ *     <li>backoff：自旋、让出后逐步延长 park 时间（最长 20 毫秒），写入新事件时唤醒</li>
+ *     <li>notified：直接 park，写入新事件时唤醒，空闲时几乎不占用 CPU（默认）</li>
+ * </ul>
+ * 每次唤醒后由消费者读完所有可读的事件，只有等待中的消费者才会被唤醒
+ *
+ * @author 起风了
+ * @email m.zxt@foxmail.com
+ * @date 2026/01/10 11:00
+ */
+final class WaitStrategy {
+
+    enum Mode {
+        BUSY, YIELDING, BACKOFF, NOTIFIED
+    }
+
+    // notified 模式下单次最长的等待时间，到时后消费者处理空闲任务（比如关闭窗口）
+    static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    final Mode mode;
+
+    private final Pauser pauser;
+
+    private volatile Thread waiter;
+
+    private WaitStrategy(Mode mode) {
+        this.mode = mode;
+        this.pauser = switch (mode) {
+            case BUSY -> Pauser.busy();
+            case YIELDING -> Pauser.yielding();
+            case BACKOFF -> Pauser.balanced();
+            case NOTIFIED -> null;
+        };
+    }
+
+    /**
+     * @param name 策略名称，为空时使用 notified
+     */
+    static WaitStrategy of(String name) {
+        if (name == null || name.isBlank()) {
+            return new WaitStrategy(Mode.NOTIFIED);
+        }
+        try {
+            return new WaitStrategy(Mode.valueOf(name.trim().toUpperCase(Locale.ROOT)));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("不支持的等待策略: " + name + "，可选 busy / yielding / backoff / notified", e);
+        }
+    }
+
+    /**
+     * 创建消费者线程，自旋的策略使用平台线程，避免占住虚拟线程的载体线程
+     */
+    Thread start(String name, Runnable runnable) {
+        return mode == Mode.BUSY || mode == Mode.YIELDING
+            ? Thread.ofPlatform().name(name).daemon().start(runnable)
+            : Thread.ofVirtual().name(name).start(runnable);
+    }
+
+    /**
+     * 没有新事件时等待一次，由消费者线程调用
+     *
+     * @param ready 进入等待前再检查一次是否有新事件，避免错过等待前的唤醒
+     */
+    void pause(BooleanSupplier ready) {
+        if (pauser != null) {
+            pauser.pause();
+            return;
+        }
+        waiter = Thread.currentThread();
+        try {
+            if (!ready.getAsBoolean()) {
+                LockSupport.parkNanos(this, MAX_PARK_NANOS);
+            }
+        } finally {
+            waiter = null;
+        }
+    }
+
+    /**
+     * 读取到新事件后重置退避
+     */
+    void reset() {
+        if (pauser != null) {
+            pauser.reset();
+        }
+    }
+
+    /**
+     * 写入新事件后唤醒等待中的消费者，由写入线程调用
+     */
+    void unpause() {
+        if (pauser != null) {
+            if (mode == Mode.BACKOFF) {
+                pauser.unpause();
+            }
+            return;
+        }
+        Thread thread = waiter;
+        if (thread != null) {
+            LockSupport.unpark(thread);
+        }
+    }
+}
@@ -132,8 +132,8 @@ public class WatchFile implements AutoCloseable {
                     Path dirPath = watchKeyPathMap.get(watchKey);
 
                     Path absolutePath = dirPath.resolve(relativePath);
-                    // 防止误触
-                    if (!Files.exists(absolutePath)) {
+                    // 防止误触：创建、修改后又被删除的文件不再通知（删除事件随后到达）；删除事件时文件本来就不存在
+                    if (kind != StandardWatchEventKinds.ENTRY_DELETE && !Files.exists(absolutePath)) {
                         continue;
                     }
 
@@ -0,0 +1,79 @@
+package cn.xtmax.graalcdc.admin;
+
+import cn.xtmax.graalcdc.config.SystemConfig;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+
+/**
+ * 管理接口的访问控制，管理接口可以重放、分析脚本，等同于在本机执行代码：
+ * 配置了 cdc.admin.token 时请求需要携带 Authorization: Bearer token，未配置时只允许本机访问。
+ * 经过本机的反向代理暴露服务时，所有请求都来自本机，需要配置 token
+ *
+ * @author 起风了
+ * @email m.zxt@foxmail.com
+ * @date 2026/01/13 10:00
+ */
+@Slf4j
+@Component
+public class AdminAccessFilter extends OncePerRequestFilter {
+
+    static final String BEARER = "Bearer ";
+
+    @Autowired
+    SystemConfig systemConfig;
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        String path = request.getRequestURI().substring(request.getContextPath().length());
+        return !path.equals("/admin") && !path.startsWith("/admin/");
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+        throws ServletException, IOException {
+        String token = systemConfig.getAdmin().getToken();
+        if (token == null || token.isBlank()) {
+            if (!isLoopback(request.getRemoteAddr())) {
+                log.warn("拒绝来自 {} 的管理接口请求 {}，未配置 cdc.admin.token 时只允许本机访问", request.getRemoteAddr(), request.getRequestURI());
+                response.sendError(HttpStatus.FORBIDDEN.value());
+                return;
+            }
+        } else if (!matches(request.getHeader("Authorization"), token)) {
+            response.sendError(HttpStatus.UNAUTHORIZED.value());
+            return;
+        }
+        chain.doFilter(request, response);
+    }
+
+    static boolean matches(String authorization, String token) {
+        if (authorization == null || !authorization.startsWith(BEARER)) {
+            return false;
+        }
+        // 定长比较，避免按耗时猜测令牌
+        return MessageDigest.isEqual(
+            authorization.substring(BEARER.length()).trim().getBytes(StandardCharsets.UTF_8),
+            token.getBytes(StandardCharsets.UTF_8)
+        );
+    }
+
+    static boolean isLoopback(String address) {
+        try {
+            return address != null && InetAddress.getByName(address).isLoopbackAddress();
+        } catch (UnknownHostException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package cn.xtmax.graalcdc.admin;
+
+import cn.xtmax.graalcdc.AdaptiveConcurrencyLimiter;
+import cn.xtmax.graalcdc.DeadLetterManager;
+import cn.xtmax.graalcdc.DeadLetterQueue;
+import cn.xtmax.graalcdc.ElasticsearchUtils;
+import cn.xtmax.graalcdc.ReplayManager;
+import cn.xtmax.graalcdc.ScriptProfiler;
+import cn.xtmax.graalcdc.ScriptScheduler;
+import cn.xtmax.graalcdc.cache.CacheBinding;
+import cn.xtmax.graalcdc.cache.LookupCache;
+import cn.xtmax.graalcdc.sink.SinkBinding;
+import cn.xtmax.graalcdc.sink.SinkRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 管理接口
+ *
+ * @author 起风了
+ * @email m.zxt@foxmail.com
+ * @date 2026/01/03 16:00
+ */
+@RestController
+@RequestMapping("/admin")
+public class AdminController {
+
+    @Autowired
+    ScriptScheduler scriptScheduler;
+
+    @Autowired
+    DeadLetterManager deadLetterManager;
+
+    @Autowired
+    ElasticsearchUtils elasticsearchUtils;
+
+    @Autowired
+    SinkRegistry sinkRegistry;
+
+    @Autowired
+    ReplayManager replayManager;
+
+    @Autowired
+    ScriptProfiler scriptProfiler;
+
+    @Autowired
+    CacheBinding cacheBinding;
+
+    /**
+     * 各脚本的调度统计
+     */
+    @GetMapping("/scheduler")
+    public List<ScriptScheduler.LaneStats> scheduler() {
+        return scriptScheduler.stats();
+    }
+
+    /**
+     * 各脚本的死信统计
+     */
+    @GetMapping("/dlq")
+    public List<DeadLetterQueue.Stats> deadLetters() {
+        return deadLetterManager.stats();
+    }
+
+    /**
+     * 重放脚本死亡队列中的事件
+     *
+     * @param scriptId 脚本文件路径
+     */
+    @PostMapping("/dlq/replay")
+    public ResponseEntity<Map<String, Object>> replay(@RequestParam String scriptId) {
+        int count = deadLetterManager.replay(scriptId);
+        if (count < 0) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok(Map.of("scriptId", scriptId, "replayed", count));
+    }
+
+    /**
+     * Elasticsearch 并发限制器状态
+     */
+    @GetMapping("/elasticsearch")
+    public AdaptiveConcurrencyLimiter.Stats elasticsearch() {
+        return elasticsearchUtils.limiterStats();
+    }
+
+    /**
+     * 各输出端的统计
+     */
+    @GetMapping("/sinks")
+    public List<SinkBinding.Stats> sinks() {
+        return sinkRegistry.stats();
+    }
+
+    /**
+     * 脚本查找缓存的命中、加载统计
+     */
+    @GetMapping("/caches")
+    public List<LookupCache.Stats> caches() {
+        return cacheBinding.stats();
+    }
+
+    /**
+     * 用独立的 tailer 重放队列的一段范围，不影响实时消费
+     *
+     * @param request 重放请求
+     */
+    @PostMapping("/replay")
+    public ResponseEntity<?> startReplay(@RequestBody ReplayManager.ReplayRequest request) {
+        try {
+            return ResponseEntity.ok(replayManager.start(request));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+        }
+    }
+
+    /**
+     * 重放任务状态
+     */
+    @GetMapping("/replay")
+    public List<ReplayManager.Stats> replays() {
+        return replayManager.stats();
+    }
+
+    /**
+     * 取消运行中的重放任务，已结束的任务从列表中移除
+     *
+     * @param id 任务ID
+     */
+    @DeleteMapping("/replay/{id}")
+    public ResponseEntity<ReplayManager.Stats> cancelReplay(@PathVariable String id) {
+        ReplayManager.Stats stats = replayManager.cancel(id);
+        if (stats == null) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok(stats);
+    }
+
+    /**
+     * 对脚本开启限时的 CPU 采样（可选内存分配追踪），结果写入 日志目录/profiles
+     *
+     * @param request 分析请求
+     */
+    @PostMapping("/profile")
+    public ResponseEntity<?> startProfile(@RequestBody ScriptProfiler.ProfileRequest request) {
+        try {
+            return ResponseEntity.ok(scriptProfiler.start(request));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+        }
+    }
+
+    /**
+     * 运行中与最近结束的性能分析
+     */
+    @GetMapping("/profile")
+    public List<ScriptProfiler.Stats> profiles() {
+        return scriptProfiler.stats();
+    }
+
+    /**
+     * 提前停止运行中的性能分析，已采集的结果照常写入
+     */
+    @DeleteMapping("/profile")
+    public ResponseEntity<ScriptProfiler.Stats> stopProfile() {
+        ScriptProfiler.Stats stats = scriptProfiler.stop();
+        if (stats == null) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok(stats);
+    }
+}
@@ -0,0 +1,187 @@
+package cn.xtmax.graalcdc.cache;
+
+import cn.xtmax.graalcdc.ScriptExecutor;
+import cn.xtmax.graalcdc.config.SystemConfig;
+import com.alibaba.fastjson2.JSONArray;
+import com.alibaba.fastjson2.JSONObject;
+import lombok.extern.slf4j.Slf4j;
+import org.graalvm.polyglot.HostAccess;
+import org.graalvm.polyglot.Value;
+import org.graalvm.polyglot.proxy.ProxyExecutable;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * 查找缓存，以 cache 绑定到脚本上下文，缓存按名称在所有脚本之间共享
+ * <pre>
+ * cache.define("dict", {maximumSize: 5000, expireAfterWriteMs: 600000, refreshAfterWriteMs: 60000})
+ * export default async function (event) {
+ *     const order = JSON.parse(event).payload.after
+ *     // loadRegion 为脚本中查询 ES 或者数据库的异步函数
+ *     const region = await cache.get("dict", order.region_code, code => loadRegion(code))
+ * }
+ * </pre>
+ * 加载函数可以是 JS 函数（返回值、Promise）或者返回 CompletableFuture 的 Java 方法；
+ * 未定义的缓存首次使用时按全局配置创建，联合键按顺序传数组
+ *
+ * @author 起风了
+ * @email m.zxt@foxmail.com
+ * @date 2026/01/12 10:00
+ */
+@Slf4j
+@Component
+public class CacheBinding implements DisposableBean {
+
+    @Autowired
+    SystemConfig systemConfig;
+
+    // key 为缓存名称
+    private final Map<String, LookupCache> caches = new ConcurrentHashMap<>();
+
+    static String cacheKey(Object key) {
+        if (key instanceof List<?> list) {
+            return list.size() == 1 ? String.valueOf(list.getFirst()) : new JSONArray(list).toJSONString();
+        }
+        return String.valueOf(key);
+    }
+
+    /**
+     * 获取缓存，不存在时按全局配置创建
+     */
+    LookupCache acquire(String name) {
+        return caches.computeIfAbsent(name, _ -> new LookupCache(name, systemConfig.getLookupCache()));
+    }
+
+    /**
+     * 定义缓存，已存在时保留原来的缓存；脚本在每个线程的上下文中都会执行一次，重复定义是正常的
+     *
+     * @param name    缓存名称
+     * @param options maximumSize、expireAfterWriteMs、refreshAfterWriteMs、loadTimeoutMs，省略的使用全局配置
+     */
+    @HostAccess.Export
+    public void define(String name, Value options) {
+        SystemConfig.LookupCache defaults = systemConfig.getLookupCache();
+        JSONObject merged = JSONObject.from(defaults);
+        Object value = ScriptExecutor.toJava(options);
+        if (value instanceof Map<?, ?> map) {
+            map.forEach((k, v) -> merged.put(String.valueOf(k), v));
+        }
+        SystemConfig.LookupCache config = merged.to(SystemConfig.LookupCache.class);
+        LookupCache cache = caches.computeIfAbsent(name, _ -> new LookupCache(name, config));
+        if (cache.options != config && !JSONObject.from(cache.options).equals(JSONObject.from(config))) {
+            log.warn("缓存 {} 已按其他配置定义，忽略本次定义", name);
+        }
+    }
+
+    /**
+     * 读取缓存，未命中时调用加载函数，并发的未命中只加载一次
+     *
+     * @param name   缓存名称
+     * @param key    缓存键
+     * @param loader 加载函数，参数为缓存键
+     * @return 缓存值
+     */
+    @HostAccess.Export
+    public CompletableFuture<Object> get(String name, Value key, Value loader) {
+        if (loader == null || !loader.canExecute()) {
+            throw new IllegalArgumentException("缓存 " + name + " 的加载函数不能为空");
+        }
+        return acquire(name).get(cacheKey(ScriptExecutor.toJava(key)), () -> call(loader, key));
+    }
+
+    /**
+     * 供 Java 侧使用的读取
+     *
+     * @param name   缓存名称
+     * @param key    缓存键
+     * @param loader 加载函数
+     * @return 缓存值
+     */
+    public CompletableFuture<Object> get(String name, Object key, Function<Object, ? extends CompletionStage<?>> loader) {
+        return acquire(name).get(cacheKey(key), () -> loader.apply(key).toCompletableFuture());
+    }
+
+    /**
+     * 在脚本线程上调用加载函数，结果在脚本线程上转换为 Java 对象，之后在其他线程访问
+     */
+    static CompletableFuture<?> call(Value loader, Value key) {
+        Value result = loader.execute(key);
+        if (result.isHostObject() && result.asHostObject() instanceof CompletionStage<?> stage) {
+            return stage.toCompletableFuture();
+        }
+        if (result.canInvokeMember("then")) {
+            CompletableFuture<Object> future = new CompletableFuture<>();
+            result.invokeMember("then", (ProxyExecutable) ar -> {
+                future.complete(ar.length > 0 ? ScriptExecutor.toJava(ar[0]) : null);
+                return null;
+            }, (ProxyExecutable) ar -> {
+                future.completeExceptionally(new IllegalStateException("JS 异步执行出错: " + (ar.length > 0 ? ar[0].toString() : "")));
+                return null;
+            });
+            return future;
+        }
+        return CompletableFuture.completedFuture(ScriptExecutor.toJava(result));
+    }
+
+    /**
+     * 已加载完成的缓存值，不触发加载
+     *
+     * @return 缓存值，未命中时为 null
+     */
+    @HostAccess.Export
+    public Object getIfPresent(String name, Value key) {
+        LookupCache cache = caches.get(name);
+        return cache == null ? null : cache.getIfPresent(cacheKey(ScriptExecutor.toJava(key)));
+    }
+
+    /**
+     * 写入缓存
+     */
+    @HostAccess.Export
+    public void put(String name, Value key, Value value) {
+        acquire(name).put(cacheKey(ScriptExecutor.toJava(key)), ScriptExecutor.toJava(value));
+    }
+
+    /**
+     * 移除缓存中的键，例如字典表变更时
+     */
+    @HostAccess.Export
+    public void invalidate(String name, Value key) {
+        LookupCache cache = caches.get(name);
+        if (cache != null) {
+            cache.invalidate(cacheKey(ScriptExecutor.toJava(key)));
+        }
+    }
+
+    /**
+     * 清空缓存
+     */
+    @HostAccess.Export
+    public void invalidateAll(String name) {
+        LookupCache cache = caches.get(name);
+        if (cache != null) {
+            cache.invalidateAll();
+        }
+    }
+
+    /**
+     * 各缓存的统计
+     */
+    public List<LookupCache.Stats> stats() {
+        return caches.values().stream().map(LookupCache::stats).toList();
+    }
+
+    @Override
+    public void destroy() {
+        caches.values().forEach(LookupCache::invalidateAll);
+        caches.clear();
+    }
+}
@@ -0,0 +1,148 @@
+package cn.xtmax.graalcdc.cache;
+
+import cn.xtmax.graalcdc.config.SystemConfig;
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * 一个命名的查找缓存，读穿透：未命中时调用加载函数，同一个键并发的未命中只加载一次
+ * <p>
+ * 加载函数在调用 {@link #get} 的线程上执行（脚本的上下文只能在所属线程访问），
+ * 所以写入后刷新也不在后台线程中进行，而是由过期后的第一次读取发起，刷新完成前返回旧值。
+ * 加载结果为 null 时同样缓存，避免不存在的键反复查询
+ *
+ * @author 起风了
+ * @email m.zxt@foxmail.com
+ * @date 2026/01/12 10:00
+ */
+@Slf4j
+public final class LookupCache {
+
+    /**
+     * 缓存统计
+     *
+     * @param refreshes 发起的刷新次数
+     */
+    public record Stats(String name,
+                        long size,
+                        long hits,
+                        long misses,
+                        double hitRate,
+                        long loads,
+                        long loadFailures,
+                        long refreshes,
+                        long evictions,
+                        long avgLoadMicros) {
+    }
+
+    /**
+     * @param loadedAt 加载完成的时间（System.nanoTime）
+     */
+    record Entry(Object value, long loadedAt) {
+    }
+
+    final String name;
+
+    final SystemConfig.LookupCache options;
+
+    private final AsyncCache<String, Entry> cache;
+
+    // 正在刷新的键
+    private final Set<String> refreshing = ConcurrentHashMap.newKeySet();
+
+    private final LongAdder refreshes = new LongAdder();
+
+    LookupCache(String name, SystemConfig.LookupCache options) {
+        this.name = name;
+        this.options = options;
+        Caffeine<Object, Object> builder = Caffeine.newBuilder()
+            .maximumSize(options.getMaximumSize())
+            .recordStats();
+        if (options.getExpireAfterWriteMs() > 0) {
+            builder.expireAfterWrite(Duration.ofMillis(options.getExpireAfterWriteMs()));
+        }
+        this.cache = builder.buildAsync();
+    }
+
+    /**
+     * 读取缓存，未命中时加载
+     *
+     * @param key    缓存键
+     * @param loader 加载函数
+     * @return 缓存值
+     */
+    CompletableFuture<Object> get(String key, Supplier<CompletableFuture<?>> loader) {
+        CompletableFuture<Entry> future = cache.get(key, (_, _) -> load(loader));
+        if (options.getRefreshAfterWriteMs() > 0 && future.state() == Future.State.SUCCESS) {
+            Entry entry = future.resultNow();
+            long age = System.nanoTime() - entry.loadedAt;
+            if (age >= TimeUnit.MILLISECONDS.toNanos(options.getRefreshAfterWriteMs()) && refreshing.add(key)) {
+                refreshes.increment();
+                load(loader).whenComplete((fresh, e) -> {
+                    refreshing.remove(key);
+                    if (e != null) {
+                        log.warn("缓存 {} 刷新 {} 失败，继续使用旧值", name, key, e);
+                        return;
+                    }
+                    cache.put(key, CompletableFuture.completedFuture(fresh));
+                });
+            }
+        }
+        return future.thenApply(Entry::value);
+    }
+
+    private CompletableFuture<Entry> load(Supplier<CompletableFuture<?>> loader) {
+        CompletableFuture<?> loaded;
+        try {
+            loaded = loader.get();
+        } catch (Throwable e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        // 脚本上下文关闭时加载可能永远不会完成，超时后从缓存中移除
+        return loaded.thenApply(value -> new Entry(value, System.nanoTime()))
+            .orTimeout(options.getLoadTimeoutMs(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 已加载完成的缓存值，不触发加载
+     *
+     * @return 缓存值，未命中或者加载中时为 null
+     */
+    Object getIfPresent(String key) {
+        CompletableFuture<Entry> future = cache.getIfPresent(key);
+        return future != null && future.state() == Future.State.SUCCESS ? future.resultNow().value : null;
+    }
+
+    void put(String key, Object value) {
+        cache.put(key, CompletableFuture.completedFuture(new Entry(value, System.nanoTime())));
+    }
+
+    void invalidate(String key) {
+        cache.synchronous().invalidate(key);
+    }
+
+    void invalidateAll() {
+        cache.synchronous().invalidateAll();
+    }
+
+    Stats stats() {
+        CacheStats stats = cache.synchronous().stats();
+        return new Stats(
+            name, cache.synchronous().estimatedSize(),
+            stats.hitCount(), stats.missCount(), stats.hitRate(),
+            stats.loadSuccessCount(), stats.loadFailureCount(), refreshes.sum(), stats.evictionCount(),
+            (long) (stats.averageLoadPenalty() / 1000)
+        );
+    }
+}
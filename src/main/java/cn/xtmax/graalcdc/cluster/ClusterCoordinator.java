@@ -0,0 +1,261 @@
+package cn.xtmax.graalcdc.cluster;
+
+import cn.xtmax.graalcdc.DebeziumEngineManager;
+import cn.xtmax.graalcdc.config.SystemConfig;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 集群协调器，开启集群模式后由它决定本节点运行哪些实例
+ * <p>
+ * 每个周期：心跳 → 续约已持有的实例（失败立即停止）→ 按存活节点数计算本节点应持有的实例数，
+ * 多余的先停止再释放租约，让新加入的节点接管；不足的认领无主或者租约过期的实例
+ * <p>
+ * 隔离（fencing）：每次续约成功后记录租约的本地截止时间（续约开始的时刻 + 租约时长），
+ * 超过截止时间后实例拒绝写入队列，并由独立的线程停止引擎。均衡线程卡在共享目录的 IO 上时，
+ * 租约在其他节点看来已经过期，本节点也不会继续写入
+ *
+ * @author 起风了
+ * @email m.zxt@foxmail.com
+ * @date 2026/01/02 14:15
+ */
+@Slf4j
+@Component
+public class ClusterCoordinator implements InitializingBean, DisposableBean {
+
+    // Chronicle Queue 依赖 mmap 与文件锁，不支持的网络文件系统
+    static final Set<String> NETWORK_FILE_SYSTEMS = Set.of(
+        "nfs", "nfs4", "cifs", "smb", "smbfs", "smb2", "smb3", "fuse.sshfs", "9p", "afs"
+    );
+
+    @Autowired
+    SystemConfig systemConfig;
+
+    @Autowired
+    DebeziumEngineManager debeziumEngineManager;
+
+    private LeaseStore leaseStore;
+
+    private String nodeId;
+
+    private ScheduledExecutorService scheduler;
+
+    // 租约到期后停止引擎，不能与均衡共用线程，均衡可能阻塞在共享目录上
+    private ScheduledExecutorService fencer;
+
+    // 本节点持有的实例
+    private final Set<String> owned = ConcurrentHashMap.newKeySet();
+
+    // 本节点持有的租约的截止时间（System.nanoTime），key 为实例唯一标识
+    private final Map<String, Long> deadlines = new ConcurrentHashMap<>();
+
+    static String defaultNodeId() {
+        String host;
+        try {
+            host = InetAddress.getLocalHost().getHostName();
+        } catch (Exception e) {
+            host = "unknown";
+        }
+        return host + "-" + ManagementFactory.getRuntimeMXBean().getPid();
+    }
+
+    @Override
+    public void afterPropertiesSet() throws Exception {
+        SystemConfig.Cluster cluster = systemConfig.getCluster();
+        if (!cluster.isEnabled()) {
+            return;
+        }
+        checkFileSystem(Path.of(systemConfig.getRuntimeDirectory()), cluster.isAllowNetworkFileSystem());
+        String directory = cluster.getDirectory() == null
+            ? systemConfig.getRuntimeDirectory() + "/cluster"
+            : cluster.getDirectory();
+        this.leaseStore = new DirectoryLeaseStore(directory);
+        this.nodeId = cluster.getNodeId() == null ? defaultNodeId() : cluster.getNodeId();
+        debeziumEngineManager.setWriteGuard(this::holds);
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "cluster-coordinator");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.fencer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "cluster-fencer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::balance, 0, cluster.getRenewIntervalMs(), TimeUnit.MILLISECONDS);
+        long fenceInterval = Math.max(100, cluster.getLeaseTtlMs() / 10);
+        fencer.scheduleWithFixedDelay(this::fence, fenceInterval, fenceInterval, TimeUnit.MILLISECONDS);
+        log.info("集群模式已开启，节点 {}，租约目录 {}", nodeId, directory);
+    }
+
+    /**
+     * 运行目录（队列、offset）不能位于网络文件系统上：Chronicle Queue 通过 mmap 读写，
+     * NFS 等不保证多个客户端之间映射内容的一致性，文件锁也不可靠
+     *
+     * @param runtimeDirectory 运行目录
+     * @param allowed          是否允许网络文件系统
+     */
+    static void checkFileSystem(Path runtimeDirectory, boolean allowed) throws IOException {
+        Files.createDirectories(runtimeDirectory);
+        String type = Files.getFileStore(runtimeDirectory).type().toLowerCase(Locale.ROOT);
+        if (!NETWORK_FILE_SYSTEMS.contains(type)) {
+            return;
+        }
+        if (!allowed) {
+            throw new IllegalStateException("运行目录 " + runtimeDirectory + " 位于网络文件系统（" + type
+                + "）上，Chronicle Queue 不支持，请使用集群文件系统；仅测试时可以开启 cdc.cluster.allow-network-file-system");
+        }
+        log.warn("运行目录 {} 位于网络文件系统（{}）上，队列与 offset 可能损坏，只能用于测试", runtimeDirectory, type);
+    }
+
+    /**
+     * 本节点持有的实例
+     */
+    public Set<String> getOwned() {
+        return Set.copyOf(owned);
+    }
+
+    /**
+     * 本节点是否仍持有实例的租约（按本地截止时间判断，不访问共享目录）
+     *
+     * @param key 实例唯一标识
+     */
+    boolean holds(String key) {
+        Long deadline = deadlines.get(key);
+        return deadline != null && System.nanoTime() - deadline < 0;
+    }
+
+    /**
+     * 租约资源名，实例唯一标识中含有密码，不直接写入共享目录
+     */
+    static String resource(String key) {
+        return DirectoryLeaseStore.digest(key);
+    }
+
+    private void stopAndRelease(String key) {
+        // 先停止引擎，保证 offset 已经落盘，再释放租约
+        debeziumEngineManager.stop(key);
+        deadlines.remove(key);
+        leaseStore.release(resource(key), nodeId);
+        owned.remove(key);
+    }
+
+    /**
+     * 停止租约已经到期的实例，写入在到期时已经被拒绝，这里只回收引擎
+     */
+    void fence() {
+        for (String key : List.copyOf(owned)) {
+            if (holds(key) || !owned.remove(key)) {
+                continue;
+            }
+            deadlines.remove(key);
+            log.warn("节点 {} 超过租约时长未能续约实例 {}，停止", nodeId, resource(key));
+            try {
+                debeziumEngineManager.stop(key);
+            } catch (Exception e) {
+                log.error("停止实例 {} 失败！", resource(key), e);
+            }
+        }
+    }
+
+    void balance() {
+        try {
+            long ttl = systemConfig.getCluster().getLeaseTtlMs();
+            leaseStore.heartbeat(nodeId, ttl);
+            Set<String> keys = debeziumEngineManager.instanceKeys();
+
+            for (String key : List.copyOf(owned)) {
+                if (!keys.contains(key)) {
+                    // 实例已注销
+                    stopAndRelease(key);
+                    continue;
+                }
+                // 截止时间从发起续约前算起，不会晚于共享目录中记录的过期时间
+                long start = System.nanoTime();
+                if (leaseStore.renew(resource(key), nodeId, ttl)) {
+                    deadlines.put(key, start + TimeUnit.MILLISECONDS.toNanos(ttl));
+                } else {
+                    log.warn("节点 {} 失去实例 {} 的租约，停止", nodeId, resource(key));
+                    deadlines.remove(key);
+                    debeziumEngineManager.stop(key);
+                    owned.remove(key);
+                }
+            }
+
+            int nodes = Math.max(1, leaseStore.liveNodes().size());
+            int target = (keys.size() + nodes - 1) / nodes;
+
+            // 释放多余的实例
+            List<String> extra = new ArrayList<>(owned);
+            extra.sort(null);
+            while (owned.size() > target && !extra.isEmpty()) {
+                String key = extra.removeLast();
+                log.info("节点 {} 释放实例 {}，持有 {} 个，目标 {} 个", nodeId, resource(key), owned.size(), target);
+                stopAndRelease(key);
+            }
+
+            // 认领无主的实例
+            List<String> candidates = new ArrayList<>(keys);
+            candidates.sort(null);
+            for (String key : candidates) {
+                if (owned.size() >= target) {
+                    break;
+                }
+                if (owned.contains(key)) {
+                    continue;
+                }
+                long start = System.nanoTime();
+                if (!leaseStore.tryAcquire(resource(key), nodeId, ttl)) {
+                    continue;
+                }
+                deadlines.put(key, start + TimeUnit.MILLISECONDS.toNanos(ttl));
+                owned.add(key);
+                try {
+                    debeziumEngineManager.start(key);
+                    log.info("节点 {} 认领实例 {}", nodeId, resource(key));
+                } catch (Exception e) {
+                    log.error("节点 {} 启动实例 {} 失败，释放租约", nodeId, resource(key), e);
+                    stopAndRelease(key);
+                }
+            }
+        } catch (Exception e) {
+            log.error("集群均衡失败！", e);
+        }
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        if (scheduler == null) {
+            return;
+        }
+        scheduler.shutdownNow();
+        fencer.shutdownNow();
+        for (String key : List.copyOf(owned)) {
+            try {
+                stopAndRelease(key);
+            } catch (Exception e) {
+                log.error("释放实例 {} 失败！", resource(key), e);
+            }
+        }
+        leaseStore.removeNode(nodeId);
+        leaseStore.close();
+    }
+}
@@ -0,0 +1,205 @@
+package cn.xtmax.graalcdc.cluster;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+/**
+ * 基于共享目录的租约存储，共享目录需要位于 OCFS2、GFS2 等提供集群范围文件锁的集群文件系统上
+ * （与运行目录的要求一致，NFS、SMB 等网络文件系统不受支持，见 ClusterCoordinator#checkFileSystem），
+ * 也可以在本地用临时目录测试
+ * <pre>
+ * directory
+ * ├── .lock            跨进程文件锁，所有修改都在锁内进行
+ * ├── leases/xxx.lease 租约，文件名为资源的摘要
+ * └── nodes/xxx.node   节点心跳
+ * </pre>
+ * 租约过期时间使用各节点的本地时钟，节点间的时钟偏差需要远小于租约时长
+ *
+ * @author 起风了
+ * @email m.zxt@foxmail.com
+ * @date 2026/01/02 10:40
+ */
+@Slf4j
+public class DirectoryLeaseStore implements LeaseStore {
+
+    // 同一个 JVM 内文件锁不可重入，先在进程内互斥
+    private static final Object JVM_LOCK = new Object();
+
+    private final Path leaseDirectory;
+
+    private final Path nodeDirectory;
+
+    private final Path lockFile;
+
+    public DirectoryLeaseStore(String directory) {
+        Path root = Paths.get(directory);
+        this.leaseDirectory = root.resolve("leases");
+        this.nodeDirectory = root.resolve("nodes");
+        this.lockFile = root.resolve(".lock");
+        try {
+            Files.createDirectories(leaseDirectory);
+            Files.createDirectories(nodeDirectory);
+        } catch (IOException e) {
+            throw new UncheckedIOException("创建租约目录失败: " + directory, e);
+        }
+    }
+
+    private <T> T locked(Supplier<T> supplier) {
+        synchronized (JVM_LOCK) {
+            try (FileChannel channel = FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                 FileLock _ = channel.lock()) {
+                return supplier.get();
+            } catch (IOException e) {
+                throw new UncheckedIOException("获取租约锁失败: " + lockFile, e);
+            }
+        }
+    }
+
+    static String digest(String text) {
+        try {
+            byte[] bytes = MessageDigest.getInstance("SHA-256").digest(text.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(bytes, 0, 16);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private Path leaseFile(String resource) {
+        return leaseDirectory.resolve(digest(resource) + ".lease");
+    }
+
+    private static Properties readFile(Path file) {
+        if (!Files.exists(file)) {
+            return null;
+        }
+        Properties properties = new Properties();
+        try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            properties.load(reader);
+            return properties;
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            throw new UncheckedIOException("读取租约文件失败: " + file, e);
+        }
+    }
+
+    private static void writeFile(Path file, Properties properties) {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (Writer writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            properties.store(writer, null);
+        } catch (IOException e) {
+            throw new UncheckedIOException("写入租约文件失败: " + file, e);
+        }
+        try {
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new UncheckedIOException("写入租约文件失败: " + file, e);
+        }
+    }
+
+    private static Lease readLease(Path file) {
+        Properties properties = readFile(file);
+        if (properties == null) {
+            return null;
+        }
+        return new Lease(
+            properties.getProperty("resource"),
+            properties.getProperty("owner"),
+            Long.parseLong(properties.getProperty("expiresAt", "0"))
+        );
+    }
+
+    private void writeLease(String resource, String owner, long ttlMs) {
+        Properties properties = new Properties();
+        properties.setProperty("resource", resource);
+        properties.setProperty("owner", owner);
+        properties.setProperty("expiresAt", String.valueOf(System.currentTimeMillis() + ttlMs));
+        writeFile(leaseFile(resource), properties);
+    }
+
+    @Override
+    public boolean tryAcquire(String resource, String owner, long ttlMs) {
+        return locked(() -> {
+            Lease lease = readLease(leaseFile(resource));
+            if (lease != null && !lease.owner().equals(owner) && !lease.isExpired(System.currentTimeMillis())) {
+                return false;
+            }
+            writeLease(resource, owner, ttlMs);
+            return true;
+        });
+    }
+
+    @Override
+    public boolean renew(String resource, String owner, long ttlMs) {
+        return locked(() -> {
+            Lease lease = readLease(leaseFile(resource));
+            if (lease == null || !lease.owner().equals(owner)) {
+                return false;
+            }
+            writeLease(resource, owner, ttlMs);
+            return true;
+        });
+    }
+
+    @Override
+    public void release(String resource, String owner) {
+        locked(() -> {
+            Path file = leaseFile(resource);
+            Lease lease = readLease(file);
+            if (lease != null && lease.owner().equals(owner)) {
+                try {
+                    Files.deleteIfExists(file);
+                } catch (IOException e) {
+                    throw new UncheckedIOException("删除租约文件失败: " + file, e);
+                }
+            }
+            return null;
+        });
+    }
+
+    @Override
+    public void heartbeat(String nodeId, long ttlMs) {
+        Properties properties = new Properties();
+        properties.setProperty("nodeId", nodeId);
+        properties.setProperty("expiresAt", String.valueOf(System.currentTimeMillis() + ttlMs));
+        writeFile(nodeDirectory.resolve(digest(nodeId) + ".node"), properties);
+    }
+
+    @Override
+    public void removeNode(String nodeId) {
+        try {
+            Files.deleteIfExists(nodeDirectory.resolve(digest(nodeId) + ".node"));
+        } catch (IOException e) {
+            log.warn("删除节点文件失败: {}", nodeId, e);
+        }
+    }
+
+    @Override
+    public Set<String> liveNodes() {
+        long now = System.currentTimeMillis();
+        Set<String> nodes = new TreeSet<>();
+        try (Stream<Path> files = Files.list(nodeDirectory)) {
+            files.filter(file -> file.getFileName().toString().endsWith(".node"))
+                .map(DirectoryLeaseStore::readFile)
+                .filter(Objects::nonNull)
+                .filter(properties -> Long.parseLong(properties.getProperty("expiresAt", "0")) > now)
+                .forEach(properties -> nodes.add(properties.getProperty("nodeId")));
+        } catch (IOException e) {
+            throw new UncheckedIOException("读取节点目录失败: " + nodeDirectory, e);
+        }
+        return nodes;
+    }
+}
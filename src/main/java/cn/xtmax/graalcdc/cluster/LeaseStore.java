@@ -0,0 +1,79 @@
+package cn.xtmax.graalcdc.cluster;
+
+import java.util.Set;
+
+/**
+ * 租约存储，集群中的节点通过租约认领实例
+ *
+ * @author 起风了
+ * @email m.zxt@foxmail.com
+ * @date 2026/01/02 10:10
+ */
+public interface LeaseStore extends AutoCloseable {
+
+    /**
+     * 租约
+     *
+     * @param resource  资源（实例唯一标识）
+     * @param owner     持有者（节点ID）
+     * @param expiresAt 过期时间（毫秒时间戳）
+     */
+    record Lease(String resource, String owner, long expiresAt) {
+
+        public boolean isExpired(long now) {
+            return expiresAt <= now;
+        }
+    }
+
+    /**
+     * 尝试获取租约，租约不存在、已过期或者已经由自己持有时成功
+     *
+     * @param resource 资源
+     * @param owner    持有者
+     * @param ttlMs    租约时长（毫秒）
+     * @return 是否成功
+     */
+    boolean tryAcquire(String resource, String owner, long ttlMs);
+
+    /**
+     * 续约，只有持有者可以续约
+     *
+     * @param resource 资源
+     * @param owner    持有者
+     * @param ttlMs    租约时长（毫秒）
+     * @return 是否成功，失败表示租约已经被其他节点获取
+     */
+    boolean renew(String resource, String owner, long ttlMs);
+
+    /**
+     * 释放租约
+     *
+     * @param resource 资源
+     * @param owner    持有者
+     */
+    void release(String resource, String owner);
+
+    /**
+     * 节点心跳
+     *
+     * @param nodeId 节点ID
+     * @param ttlMs  心跳有效期（毫秒）
+     */
+    void heartbeat(String nodeId, long ttlMs);
+
+    /**
+     * 节点下线
+     *
+     * @param nodeId 节点ID
+     */
+    void removeNode(String nodeId);
+
+    /**
+     * 存活的节点
+     */
+    Set<String> liveNodes();
+
+    @Override
+    default void close() {
+    }
+}
@@ -1,9 +1,15 @@
 package cn.xtmax.graalcdc.config;
 
 import cn.xtmax.graalcdc.WatchFile;
+import io.netty.channel.ChannelOption;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
 import org.springframework.web.reactive.function.client.WebClient;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+
+import java.time.Duration;
 
 /**
  * @author 起风了
@@ -14,9 +20,29 @@ import org.springframework.web.reactive.function.client.WebClient;
 public class BasicConfig {
 
 
+    /**
+     * Elasticsearch 客户端，独立的连接池
+     */
     @Bean
-    public WebClient webClient(){
-        return WebClient.builder().build();
+    public WebClient webClient(SystemConfig systemConfig){
+        SystemConfig.Elasticsearch config = systemConfig.getElasticsearch();
+        ConnectionProvider provider = ConnectionProvider.builder("elasticsearch")
+            .maxConnections(config.getMaxConnections())
+            .pendingAcquireTimeout(Duration.ofMillis(config.getPendingAcquireTimeoutMs()))
+            .maxIdleTime(Duration.ofMillis(config.getMaxIdleTimeMs()))
+            .maxLifeTime(Duration.ofMillis(config.getMaxLifeTimeMs()))
+            .evictInBackground(Duration.ofMillis(config.getMaxIdleTimeMs()))
+            .build();
+        HttpClient httpClient = HttpClient.create(provider)
+            .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, config.getConnectTimeoutMs())
+            .option(ChannelOption.SO_KEEPALIVE, config.isKeepAlive())
+            .keepAlive(true)
+            .responseTimeout(Duration.ofMillis(config.getResponseTimeoutMs()))
+            // 接收 gzip 压缩的响应
+            .compress(config.isGzip());
+        return WebClient.builder()
+            .clientConnector(new ReactorClientHttpConnector(httpClient))
+            .build();
     }
 
     @Bean
@@ -45,6 +45,13 @@ public class ListenDatabaseInstanceConfig {
     // 服务ID mysql用
     private int serverId;
 
+    // 记录处理线程数，大于 1 时使用 debezium 的异步引擎并行转换记录，按源库顺序写入队列
+    private int recordProcessingThreads = 1;
+
+    // 是否开启事务元数据（provide.transaction.metadata），为空时只在订阅的脚本声明了 transaction 时开启。
+    // 开启后队列中每个事务多出 BEGIN/END 两条记录，MySQL 的外部版本号（es.version）也需要开启
+    private Boolean transactionMetadata;
+
     public String uniqueKey(){
         return dbType.getValue() + ":" + host + ":" + port + "@" + username + ":" + password + "#" + serverId;
     }
@@ -61,11 +68,13 @@ public class ListenDatabaseInstanceConfig {
             && Objects.equals(host, that.host)
             && Objects.equals(username, that.username)
             && Objects.equals(password, that.password)
-            && serverId == that.serverId;
+            && serverId == that.serverId
+            && recordProcessingThreads == that.recordProcessingThreads
+            && Objects.equals(transactionMetadata, that.transactionMetadata);
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(name, dbType, databases, tables, host, port, username, password, serverId);
+        return Objects.hash(name, dbType, databases, tables, host, port, username, password, serverId, recordProcessingThreads, transactionMetadata);
     }
 }
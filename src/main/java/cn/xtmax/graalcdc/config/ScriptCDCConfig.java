@@ -0,0 +1,198 @@
+package cn.xtmax.graalcdc.config;
+
+import lombok.Getter;
+import lombok.Setter;
+
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 脚本的cdc配置，由脚本中的 initCDC 方法返回
+ * <pre>
+ * export async function initCDC() {
+ *     return {
+ *         databases: ["shop"],
+ *         tables: ["shop.order"],
+ *         columns: {"shop.order": ["id", "status", "amount"]}
+ *     }
+ * }
+ * </pre>
+ *
+ * @author 起风了
+ * @email m.zxt@foxmail.com
+ * @date 2025/12/30 10:12
+ */
+@Getter
+@Setter
+public class ScriptCDCConfig {
+
+    // 订阅的数据库，为空表示全部
+    private Set<String> databases;
+
+    // 订阅的表，格式为 库名.表名（PG 为 模式名.表名），为空表示全部
+    private Set<String> tables;
+
+    // 需要的列，key 为表，未声明的表表示需要全部列
+    private Map<String, Set<String>> columns;
+
+    // 物化的表，按主键保存最新一行，脚本通过 state.get(table, key) 查询
+    private Set<String> state;
+
+    // 同主键变更合并，为 null 表示不合并
+    private Coalesce coalesce;
+
+    // 按事务成批投递，为 null 表示逐条投递
+    private Transaction transaction;
+
+    // 窗口聚合，key 为窗口名称
+    private Map<String, Window> windows;
+
+    // 窗口状态的检查点间隔（毫秒）
+    private long windowCheckpointMs = 1000;
+
+    // 内存通道容量，通道满了之后脚本改为从磁盘追赶
+    private int channelCapacity = 1024;
+
+    // 通道为空时的等待策略：busy / yielding / backoff / notified，越靠前延迟越低、CPU 占用越高
+    private String waitStrategy = "notified";
+
+    // 调度配额
+    private Quota quota = new Quota();
+
+    // 执行失败后的重试策略
+    private Retry retry = new Retry();
+
+    // 单次执行的资源限制，为 null 表示不限制
+    private Limits limits;
+
+    /**
+     * 同主键变更合并配置，适用于幂等写入的场景，窗口内同一主键只投递最终状态
+     */
+    @Getter
+    @Setter
+    public static class Coalesce {
+
+        // 合并窗口（毫秒）
+        private long windowMs = 100;
+
+        // 单个窗口最多读取的事件数
+        private int maxBatch = 1000;
+    }
+
+    /**
+     * 按事务成批投递配置，脚本每次收到一个已提交事务中订阅的全部变更；开启后不再合并同主键变更
+     */
+    @Getter
+    @Setter
+    public static class Transaction {
+
+        // 单批最大事件数，超过后拆分成多批投递
+        private int maxBatch = 1000;
+    }
+
+    /**
+     * 窗口配置
+     */
+    @Getter
+    @Setter
+    public static class Window {
+
+        // 窗口大小（毫秒）
+        private long sizeMs = 60_000;
+
+        // 滑动步长（毫秒），为 0 表示滚动窗口
+        private long slideMs = 0;
+
+        // 窗口结束后继续接收迟到事件的时间（毫秒）
+        private long allowedLatenessMs = 0;
+
+        // 没有新事件时，按墙上时钟关闭窗口前等待的时间（毫秒）
+        private long idleTimeoutMs = 5_000;
+
+        // 结果写入的输出端，为空时调用脚本导出的 onWindow
+        private String sink;
+    }
+
+    /**
+     * 调度配额
+     */
+    @Getter
+    @Setter
+    public static class Quota {
+
+        // 权重，同优先级的脚本按权重分配执行时间
+        private int weight = 1;
+
+        // 优先级，越大越优先
+        private int priority = 0;
+
+        // 最大并发数
+        private int maxConcurrency = 1;
+
+        // 最大排队数，超出后拒绝，由调用方退避重试
+        private int maxQueued = 1024;
+    }
+
+    /**
+     * 执行失败后的重试策略，失败的事件转入死信队列异步重试，按指数退避
+     */
+    @Getter
+    @Setter
+    public static class Retry {
+
+        // 最大执行次数（包括首次），超过后转入死亡队列
+        private int maxAttempts = 5;
+
+        // 首次重试的等待时间（毫秒）
+        private long initialBackoffMs = 1000;
+
+        // 最大等待时间（毫秒）
+        private long maxBackoffMs = 60_000;
+    }
+
+    /**
+     * 单次执行的资源限制，通过 GraalVM sandbox 选项实现（需要 Oracle GraalVM），
+     * 声明了限制的脚本在每个线程使用独立的 Context，超出限制时本次执行失败，转入死信队列
+     */
+    @Getter
+    @Setter
+    public static class Limits {
+
+        // 单次执行的 CPU 时间上限（毫秒），0 表示不限制
+        private long maxCpuTimeMs = 0;
+
+        // 单次执行的语句数上限，0 表示不限制
+        private long maxStatements = 0;
+
+        // Context 保留的堆内存上限，例如 64MB，为空表示不限制
+        private String maxHeapMemory;
+    }
+
+    /**
+     * 是否订阅了指定的表
+     *
+     * @param database 数据库名称
+     * @param table    表，格式同 tables
+     * @return 是否订阅
+     */
+    public boolean matches(String database, String table) {
+        if (databases != null && !databases.isEmpty() && !databases.contains(database)) {
+            return false;
+        }
+        return tables == null || tables.isEmpty() || tables.contains(table);
+    }
+
+    /**
+     * 获取表需要的列
+     *
+     * @param table 表，格式同 tables
+     * @return 列名，为 null 表示需要全部列
+     */
+    public Set<String> columnsOf(String table) {
+        if (columns == null) {
+            return null;
+        }
+        Set<String> set = columns.get(table);
+        return set == null || set.isEmpty() ? null : set;
+    }
+}
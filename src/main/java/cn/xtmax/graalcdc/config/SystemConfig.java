@@ -1,5 +1,8 @@
 package cn.xtmax.graalcdc.config;
 
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.stereotype.Component;
 
 /**
@@ -9,12 +12,248 @@ import org.springframework.stereotype.Component;
  * @email m.zxt@foxmail.com
  * @date 2025/12/29 09:26
  */
+@Getter
+@Setter
 @Component
+@ConfigurationProperties(prefix = "cdc")
 public class SystemConfig {
 
+    // 运行目录，集群模式下需要指向所有节点共享的目录，offset、队列随实例一起迁移；
+    // 队列是内存映射文件，共享目录必须是支持 mmap 一致性与文件锁的集群文件系统（如 OCFS2、GFS2），不能是 NFS、SMB
+    private String runtimeDirectory = System.getProperty("user.dir") + "/data";
 
-    public String getRuntimeDirectory() {
-        return System.getProperty("user.dir") + "/data";
+    // 延迟启动，没有脚本订阅的实例不启动连接器，直到有脚本订阅
+    private boolean lazyStart = false;
+
+    // 队列文件的块大小（字节），小于等于 0 时按已打开的队列数自动计算（见 QueueManager#blockSize）
+    private long queueBlockSize = 0;
+
+    // offset 存储：log 为所有实例共享的追加写日志，file 为 kafka 的 FileOffsetBackingStore
+    private String offsetStore = "log";
+
+    // offset 日志刷盘策略：always / interval / never
+    private String offsetFsync = "interval";
+
+    // offset 日志批量刷盘间隔（毫秒）
+    private long offsetFsyncIntervalMs = 1000;
+
+    // 引擎提交 offset 的间隔（毫秒），小于等于 0 使用 debezium 默认值
+    private long offsetFlushIntervalMs = 0;
+
+    // schema history 快照之后累积的记录数超过该值时压缩
+    private int schemaHistoryCompactThreshold = 1000;
+
+    // 队列记录压缩
+    private QueueCompression queueCompression = new QueueCompression();
+
+    // 脚本运行在独立的 polyglot isolate 中
+    private Isolate isolate = new Isolate();
+
+    // 脚本查找缓存的默认配置
+    private LookupCache lookupCache = new LookupCache();
+
+    // 脚本性能分析
+    private Profiler profiler = new Profiler();
+
+    // 管理接口的访问控制
+    private Admin admin = new Admin();
+
+    // 集群配置
+    private Cluster cluster = new Cluster();
+
+    // Elasticsearch 客户端配置
+    private Elasticsearch elasticsearch = new Elasticsearch();
+
+    // 输出端的合并与重试配置
+    private Sink sink = new Sink();
+
+    /**
+     * 队列记录压缩，每张表用采样训练的 zstd 字典压缩 debezium value
+     */
+    @Getter
+    @Setter
+    public static class QueueCompression {
+
+        // 是否压缩新写入的记录，关闭后已压缩的记录仍可正常读取
+        private boolean enabled = false;
+
+        // 压缩级别
+        private int level = 3;
+
+        // 字典大小（字节）
+        private int dictionarySize = 64 << 10;
+
+        // 训练字典的采样数，采样期间的记录不压缩
+        private int trainingSamples = 1000;
+
+        // value 小于该大小（字节）不压缩
+        private int minBytes = 128;
+
+        // 压缩率（原始大小 / 压缩后大小）低于该值时重新采样训练新版本的字典，小于等于 0 不重新训练
+        private double retrainRatio = 2.0;
+    }
+
+    /**
+     * 脚本的 isolate 配置，开启后每个脚本一个独立堆、独立 GC 的 isolate，
+     * 脚本的内存分配与 GC 停顿不再影响捕获线程与队列写入；需要 Oracle GraalVM 与 js-isolate 依赖（mvn -Pisolate）
+     */
+    @Getter
+    @Setter
+    public static class Isolate {
+
+        // 是否开启
+        private boolean enabled = false;
+
+        // 每个 isolate 的最大堆内存
+        private String maxHeapMemory = "256MB";
+    }
+
+    /**
+     * 脚本查找缓存的默认配置，脚本可以用 cache.define 为单个缓存覆盖
+     */
+    @Getter
+    @Setter
+    public static class LookupCache {
+
+        // 最大条目数
+        private long maximumSize = 10_000;
+
+        // 写入后过期的时间（毫秒），0 表示不过期
+        private long expireAfterWriteMs = 600_000;
+
+        // 写入后超过该时间（毫秒）的条目在下次读取时后台刷新，刷新完成前返回旧值，0 表示不刷新
+        private long refreshAfterWriteMs = 0;
+
+        // 加载超时时间（毫秒）
+        private long loadTimeoutMs = 30_000;
+    }
+
+    /**
+     * 脚本性能分析（CPU 采样、内存分配追踪），通过管理接口按需开启
+     */
+    @Getter
+    @Setter
+    public static class Profiler {
+
+        // 单次分析的最长时间（秒）
+        private int maxDurationSeconds = 300;
+
+        // 默认的 CPU 采样间隔（毫秒）
+        private int periodMs = 10;
+    }
+
+    /**
+     * 管理接口（/admin/**）的访问控制：配置了 token 时请求需要携带 Authorization: Bearer token，
+     * 未配置时只允许本机访问
+     */
+    @Getter
+    @Setter
+    public static class Admin {
+
+        // 访问令牌
+        private String token;
+    }
+
+    /**
+     * 集群配置，节点通过共享目录中的租约认领实例
+     */
+    @Getter
+    @Setter
+    public static class Cluster {
+
+        // 是否开启集群模式
+        private boolean enabled = false;
+
+        // 节点ID，为空时使用 主机名-进程号
+        private String nodeId;
+
+        // 租约目录，为空时使用 运行目录/cluster
+        private String directory;
+
+        // 租约时长（毫秒），节点失联超过该时长后实例由其他节点接管
+        private long leaseTtlMs = 15000;
+
+        // 续约、均衡的间隔（毫秒）
+        private long renewIntervalMs = 5000;
+
+        // 允许运行目录位于 NFS、SMB 等网络文件系统上，Chronicle Queue 不支持网络文件系统，只用于测试
+        private boolean allowNetworkFileSystem = false;
+    }
+
+    /**
+     * Elasticsearch 客户端配置
+     */
+    @Getter
+    @Setter
+    public static class Elasticsearch {
+
+        // 连接池最大连接数
+        private int maxConnections = 64;
+
+        // 等待获取连接的超时时间（毫秒）
+        private long pendingAcquireTimeoutMs = 10_000;
+
+        // 连接最大空闲时间（毫秒），应小于 ES 及中间负载均衡的空闲断开时间
+        private long maxIdleTimeMs = 30_000;
+
+        // 连接最大存活时间（毫秒）
+        private long maxLifeTimeMs = 300_000;
+
+        // TCP keep-alive
+        private boolean keepAlive = true;
+
+        // 建立连接的超时时间（毫秒）
+        private int connectTimeoutMs = 5_000;
+
+        // 响应超时时间（毫秒）
+        private long responseTimeoutMs = 30_000;
+
+        // 请求体 gzip 压缩，同时接收压缩的响应
+        private boolean gzip = true;
+
+        // 请求体超过该大小（字节）才压缩
+        private int gzipMinBytes = 1024;
+
+        // 自适应并发：初始并发数
+        private int initialConcurrency = 8;
+
+        // 自适应并发：最小并发数
+        private int minConcurrency = 1;
+
+        // 自适应并发：最大并发数，不超过连接池大小
+        private int maxConcurrency = 64;
+
+        // 自适应并发：响应耗时超过该值（毫秒）视为过载，并发数减半
+        private long latencyThresholdMs = 2_000;
+
+        // bulk 中单条被拒绝（429）的记录最多发送的次数（包括首次）
+        private int bulkMaxAttempts = 3;
+
+        // bulk 重发的首次等待时间（毫秒），之后每次翻倍
+        private long bulkRetryBackoffMs = 200;
+    }
+
+    /**
+     * 输出端的合并与重试配置，所有输出端共用
+     */
+    @Getter
+    @Setter
+    public static class Sink {
+
+        // 单批最大记录数
+        private int maxBatchSize = 500;
+
+        // 未达到单批上限时最多等待的时间（毫秒），0 表示不等待
+        private long lingerMs = 5;
+
+        // 最大写入次数（包括首次）
+        private int maxAttempts = 3;
+
+        // 首次重试的等待时间（毫秒）
+        private long initialBackoffMs = 200;
+
+        // 最大等待时间（毫秒）
+        private long maxBackoffMs = 5_000;
     }
 
     public String getScriptDirectory() {
@@ -32,5 +271,19 @@ public class SystemConfig {
     public String getQueueDirectory() {
         return getRuntimeDirectory() + "/queue";
     }
-}
 
+    public String getStateDirectory() {
+        return getRuntimeDirectory() + "/state";
+    }
+
+    /**
+     * 重放时指定的新版本脚本只能放在这个目录下
+     */
+    public String getReplayScriptDirectory() {
+        return getRuntimeDirectory() + "/replay-scripts";
+    }
+
+    public String getWindowDirectory() {
+        return getRuntimeDirectory() + "/windows";
+    }
+}
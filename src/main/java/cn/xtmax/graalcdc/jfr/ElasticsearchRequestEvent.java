@@ -0,0 +1,33 @@
+package cn.xtmax.graalcdc.jfr;
+
+import jdk.jfr.*;
+
+/**
+ * 一次 Elasticsearch 请求，不包括等待并发许可的时间
+ *
+ * @author 起风了
+ * @email m.zxt@foxmail.com
+ * @date 2026/01/09 09:00
+ */
+@Name("cn.xtmax.graalcdc.ElasticsearchRequest")
+@Label("Elasticsearch Request")
+@Category({"GraalCDC", "Sink"})
+@StackTrace(false)
+public class ElasticsearchRequestEvent extends Event {
+
+    @Label("Method")
+    public String method;
+
+    @Label("URI")
+    public String uri;
+
+    @Label("Request Size")
+    @DataAmount
+    public long bytes;
+
+    @Label("Outcome")
+    public String outcome;
+
+    @Label("Error")
+    public String error;
+}
@@ -0,0 +1,36 @@
+package cn.xtmax.graalcdc.jfr;
+
+import jdk.jfr.*;
+
+/**
+ * 写入本地队列，覆盖 handle 中一条记录的追加
+ *
+ * @author 起风了
+ * @email m.zxt@foxmail.com
+ * @date 2026/01/09 09:00
+ */
+@Name("cn.xtmax.graalcdc.QueueAppend")
+@Label("Queue Append")
+@Category({"GraalCDC", "Queue"})
+@StackTrace(false)
+public class QueueAppendEvent extends Event {
+
+    @Label("Instance")
+    public String instance;
+
+    @Label("Index")
+    public long index;
+
+    @Label("Table")
+    public String table;
+
+    @Label("Operation")
+    public String op;
+
+    @Label("Value Size")
+    @DataAmount
+    public long bytes;
+
+    @Label("Compressed")
+    public boolean compressed;
+}
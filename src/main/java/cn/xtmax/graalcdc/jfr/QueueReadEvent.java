@@ -0,0 +1,27 @@
+package cn.xtmax.graalcdc.jfr;
+
+import jdk.jfr.*;
+
+/**
+ * 从本地队列读取并解码一条记录
+ *
+ * @author 起风了
+ * @email m.zxt@foxmail.com
+ * @date 2026/01/09 09:00
+ */
+@Name("cn.xtmax.graalcdc.QueueRead")
+@Label("Queue Read")
+@Category({"GraalCDC", "Queue"})
+@StackTrace(false)
+public class QueueReadEvent extends Event {
+
+    @Label("Reader")
+    @Description("脚本ID、state:表名 或者 replay:任务ID")
+    public String reader;
+
+    @Label("Index")
+    public long index;
+
+    @Label("Table")
+    public String table;
+}
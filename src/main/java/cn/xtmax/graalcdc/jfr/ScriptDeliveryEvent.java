@@ -0,0 +1,30 @@
+package cn.xtmax.graalcdc.jfr;
+
+import jdk.jfr.*;
+
+/**
+ * 投递一次事件给脚本，包括调度排队与执行，失败时转入死信队列
+ *
+ * @author 起风了
+ * @email m.zxt@foxmail.com
+ * @date 2026/01/09 09:00
+ */
+@Name("cn.xtmax.graalcdc.ScriptDelivery")
+@Label("Script Delivery")
+@Category({"GraalCDC", "Script"})
+@StackTrace(false)
+public class ScriptDeliveryEvent extends Event {
+
+    @Label("Script")
+    public String scriptId;
+
+    @Label("Index")
+    @Description("投递的第一条事件的队列索引")
+    public long index;
+
+    @Label("Table")
+    public String table;
+
+    @Label("Failed")
+    public boolean failed;
+}
@@ -0,0 +1,20 @@
+package cn.xtmax.graalcdc.jfr;
+
+import jdk.jfr.*;
+
+/**
+ * 在线程的 Context 中加载脚本模块
+ *
+ * @author 起风了
+ * @email m.zxt@foxmail.com
+ * @date 2026/01/09 09:00
+ */
+@Name("cn.xtmax.graalcdc.ScriptEval")
+@Label("Script Eval")
+@Category({"GraalCDC", "Script"})
+@StackTrace(false)
+public class ScriptEvalEvent extends Event {
+
+    @Label("Script")
+    public String scriptId;
+}
@@ -0,0 +1,20 @@
+package cn.xtmax.graalcdc.jfr;
+
+import jdk.jfr.*;
+
+/**
+ * 执行脚本的 initCDC
+ *
+ * @author 起风了
+ * @email m.zxt@foxmail.com
+ * @date 2026/01/09 09:00
+ */
+@Name("cn.xtmax.graalcdc.ScriptInit")
+@Label("Script Init")
+@Category({"GraalCDC", "Script"})
+@StackTrace(false)
+public class ScriptInitEvent extends Event {
+
+    @Label("Script")
+    public String scriptId;
+}
@@ -0,0 +1,31 @@
+package cn.xtmax.graalcdc.jfr;
+
+import jdk.jfr.*;
+
+/**
+ * 执行脚本导出的异步方法，持续时间到 Promise 完成为止
+ *
+ * @author 起风了
+ * @email m.zxt@foxmail.com
+ * @date 2026/01/09 09:00
+ */
+@Name("cn.xtmax.graalcdc.ScriptInvoke")
+@Label("Script Invoke")
+@Category({"GraalCDC", "Script"})
+@StackTrace(false)
+public class ScriptInvokeEvent extends Event {
+
+    @Label("Script")
+    public String scriptId;
+
+    @Label("Export")
+    public String export;
+
+    @Label("Execute Duration")
+    @Description("同步执行部分的耗时，其余为等待 Promise 完成")
+    @Timespan
+    public long executeDuration;
+
+    @Label("Failed")
+    public boolean failed;
+}
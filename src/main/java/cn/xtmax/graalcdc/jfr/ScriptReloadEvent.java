@@ -0,0 +1,24 @@
+package cn.xtmax.graalcdc.jfr;
+
+import jdk.jfr.*;
+
+/**
+ * 脚本文件变化后重新加载并同步订阅
+ *
+ * @author 起风了
+ * @email m.zxt@foxmail.com
+ * @date 2026/01/09 09:00
+ */
+@Name("cn.xtmax.graalcdc.ScriptReload")
+@Label("Script Reload")
+@Category({"GraalCDC", "Script"})
+@StackTrace(false)
+public class ScriptReloadEvent extends Event {
+
+    @Label("Script")
+    public String scriptId;
+
+    @Label("Kind")
+    @Description("register、reload 或者 unregister")
+    public String kind;
+}
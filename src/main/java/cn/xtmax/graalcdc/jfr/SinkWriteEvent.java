@@ -0,0 +1,29 @@
+package cn.xtmax.graalcdc.jfr;
+
+import jdk.jfr.*;
+
+/**
+ * 输出端的一次批量写入（每次重试单独记录）
+ *
+ * @author 起风了
+ * @email m.zxt@foxmail.com
+ * @date 2026/01/09 09:00
+ */
+@Name("cn.xtmax.graalcdc.SinkWrite")
+@Label("Sink Write")
+@Category({"GraalCDC", "Sink"})
+@StackTrace(false)
+public class SinkWriteEvent extends Event {
+
+    @Label("Sink")
+    public String sink;
+
+    @Label("Records")
+    public int records;
+
+    @Label("Attempt")
+    public int attempt;
+
+    @Label("Error")
+    public String error;
+}
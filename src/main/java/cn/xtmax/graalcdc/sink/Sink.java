@@ -0,0 +1,54 @@
+package cn.xtmax.graalcdc.sink;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionStage;
+
+/**
+ * 输出端扩展点，实现类以 {@link #name()} 为名绑定到脚本上下文
+ * <p>
+ * 实现类可以是 Spring Bean，也可以通过 META-INF/services/cn.xtmax.graalcdc.sink.Sink 注册。
+ * 脚本侧调用 <code>await name.write(records)</code>，多次调用的记录由框架合并成批、失败重试并统计，
+ * 实现类只需要处理一批记录的写入。
+ * 需要并行、乱序写入的实现类可以用 {@link SourceVersion} 计算的版本号做条件写入（例如 JDBC 的
+ * <code>UPDATE ... WHERE version &lt; ?</code>），拒绝比已写入版本更旧的记录
+ *
+ * @author 起风了
+ * @email m.zxt@foxmail.com
+ * @date 2026/01/05 09:30
+ */
+public interface Sink extends AutoCloseable {
+
+    /**
+     * 脚本中的绑定名，不能与内置的 es、state、window、cache 重复
+     */
+    String name();
+
+    /**
+     * 写入一批记录
+     *
+     * @param records 记录，已脱离脚本上下文，可以在任意线程访问
+     * @return 写入完成
+     */
+    CompletionStage<?> write(List<Map<String, Object>> records);
+
+    /**
+     * 单批最大记录数，小于等于 0 使用全局配置
+     */
+    default int maxBatchSize() {
+        return 0;
+    }
+
+    /**
+     * 写入失败后是否重试
+     *
+     * @param error 错误
+     */
+    default boolean retryable(Throwable error) {
+        return true;
+    }
+
+    @Override
+    default void close() throws Exception {
+    }
+}
@@ -0,0 +1,247 @@
+package cn.xtmax.graalcdc.sink;
+
+import cn.xtmax.graalcdc.ScriptExecutor;
+import cn.xtmax.graalcdc.config.SystemConfig;
+import cn.xtmax.graalcdc.jfr.SinkWriteEvent;
+import lombok.extern.slf4j.Slf4j;
+import org.graalvm.polyglot.HostAccess;
+import org.graalvm.polyglot.Value;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 绑定到脚本上下文的输出端，为输出端提供合并成批、失败重试与统计
+ * <p>
+ * 各脚本线程的写入先进入缓冲区，达到单批上限或者等待时间到达后合并成一批写入；
+ * 单次写入的记录不会被拆到不同批次，除非它本身超过单批上限
+ *
+ * @author 起风了
+ * @email m.zxt@foxmail.com
+ * @date 2026/01/05 10:00
+ */
+@Slf4j
+public final class SinkBinding {
+
+    /**
+     * 输出端统计
+     */
+    public record Stats(String name, long records, long batches, long failures, long retries, long avgLatencyMicros) {
+    }
+
+    record Pending(List<Map<String, Object>> records, CompletableFuture<Void> future) {
+    }
+
+    private final Sink sink;
+
+    private final SystemConfig.Sink options;
+
+    private final ScheduledExecutorService scheduler;
+
+    private final int maxBatchSize;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private List<Pending> buffer = new ArrayList<>();
+
+    private int buffered;
+
+    private ScheduledFuture<?> lingerTask;
+
+    private final AtomicLong records = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong retries = new AtomicLong();
+    private final AtomicLong latencyNanos = new AtomicLong();
+
+    SinkBinding(Sink sink, SystemConfig.Sink options, ScheduledExecutorService scheduler) {
+        this.sink = sink;
+        this.options = options;
+        this.scheduler = scheduler;
+        this.maxBatchSize = Math.max(1, sink.maxBatchSize() > 0 ? sink.maxBatchSize() : options.getMaxBatchSize());
+    }
+
+    public String name() {
+        return sink.name();
+    }
+
+    Sink sink() {
+        return sink;
+    }
+
+    /**
+     * 脚本写入记录
+     *
+     * @param value 单条记录或者记录数组
+     * @return 记录所在的批次全部写入完成
+     */
+    @SuppressWarnings("unchecked")
+    @HostAccess.Export
+    public CompletableFuture<Void> write(Value value) {
+        // 在脚本线程上转换，之后在其他线程访问
+        Object object = ScriptExecutor.toJava(value);
+        List<Map<String, Object>> list = new ArrayList<>();
+        if (object instanceof List<?> items) {
+            for (Object item : items) {
+                if (!(item instanceof Map)) {
+                    throw new IllegalArgumentException("输出端 " + name() + " 的记录必须是对象");
+                }
+                list.add((Map<String, Object>) item);
+            }
+        } else if (object instanceof Map) {
+            list.add((Map<String, Object>) object);
+        } else if (object != null) {
+            throw new IllegalArgumentException("输出端 " + name() + " 的记录必须是对象或者数组");
+        }
+        return writeRecords(list);
+    }
+
+    /**
+     * 写入记录
+     *
+     * @param list 记录
+     * @return 记录所在的批次全部写入完成
+     */
+    public CompletableFuture<Void> writeRecords(List<Map<String, Object>> list) {
+        if (list.isEmpty()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        List<Pending> ready = null;
+        lock.lock();
+        try {
+            buffer.add(new Pending(list, future));
+            buffered += list.size();
+            if (buffered >= maxBatchSize || options.getLingerMs() <= 0) {
+                ready = take();
+            } else if (lingerTask == null) {
+                lingerTask = scheduler.schedule(this::flush, options.getLingerMs(), TimeUnit.MILLISECONDS);
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (ready != null) {
+            send(ready);
+        }
+        return future;
+    }
+
+    // 需要持有锁
+    private List<Pending> take() {
+        List<Pending> ready = buffer;
+        buffer = new ArrayList<>();
+        buffered = 0;
+        if (lingerTask != null) {
+            lingerTask.cancel(false);
+            lingerTask = null;
+        }
+        return ready;
+    }
+
+    void flush() {
+        List<Pending> ready;
+        lock.lock();
+        try {
+            ready = take();
+        } finally {
+            lock.unlock();
+        }
+        if (!ready.isEmpty()) {
+            send(ready);
+        }
+    }
+
+    /**
+     * 按单批上限分批写入，每次写入在它所在的批次全部完成后完成
+     */
+    private void send(List<Pending> ready) {
+        List<Map<String, Object>> chunk = new ArrayList<>();
+        List<Pending> members = new ArrayList<>();
+        for (Pending pending : ready) {
+            if (chunk.size() + pending.records.size() > maxBatchSize && !chunk.isEmpty()) {
+                submit(chunk, members);
+                chunk = new ArrayList<>();
+                members = new ArrayList<>();
+            }
+            if (pending.records.size() > maxBatchSize) {
+                // 超过单批上限，单独拆分
+                List<CompletableFuture<Void>> parts = new ArrayList<>();
+                for (int i = 0; i < pending.records.size(); i += maxBatchSize) {
+                    List<Map<String, Object>> part = pending.records.subList(i, Math.min(i + maxBatchSize, pending.records.size()));
+                    parts.add(writeWithRetry(part, 1));
+                }
+                complete(CompletableFuture.allOf(parts.toArray(CompletableFuture[]::new)), List.of(pending));
+                continue;
+            }
+            chunk.addAll(pending.records);
+            members.add(pending);
+        }
+        if (!chunk.isEmpty()) {
+            submit(chunk, members);
+        }
+    }
+
+    private void submit(List<Map<String, Object>> chunk, List<Pending> members) {
+        complete(writeWithRetry(chunk, 1), members);
+    }
+
+    private static void complete(CompletableFuture<Void> result, List<Pending> members) {
+        result.whenComplete((_, e) -> members.forEach(pending -> {
+            if (e == null) {
+                pending.future.complete(null);
+            } else {
+                pending.future.completeExceptionally(e);
+            }
+        }));
+    }
+
+    private CompletableFuture<Void> writeWithRetry(List<Map<String, Object>> chunk, int attempt) {
+        long startedAt = System.nanoTime();
+        SinkWriteEvent writeEvent = new SinkWriteEvent();
+        writeEvent.begin();
+        CompletableFuture<?> result;
+        try {
+            result = sink.write(chunk).toCompletableFuture();
+        } catch (Throwable e) {
+            result = CompletableFuture.failedFuture(e);
+        }
+        return result.handle((_, e) -> {
+                latencyNanos.addAndGet(System.nanoTime() - startedAt);
+                batches.incrementAndGet();
+                writeEvent.end();
+                if (writeEvent.shouldCommit()) {
+                    writeEvent.sink = name();
+                    writeEvent.records = chunk.size();
+                    writeEvent.attempt = attempt;
+                    writeEvent.error = e == null ? null : e.toString();
+                    writeEvent.commit();
+                }
+                if (e == null) {
+                    records.addAndGet(chunk.size());
+                    return CompletableFuture.<Void>completedFuture(null);
+                }
+                Throwable error = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+                if (attempt >= options.getMaxAttempts() || !sink.retryable(error)) {
+                    failures.incrementAndGet();
+                    return CompletableFuture.<Void>failedFuture(error);
+                }
+                retries.incrementAndGet();
+                long delay = Math.min(options.getInitialBackoffMs() << Math.min(attempt - 1, 30), options.getMaxBackoffMs());
+                log.warn("输出端 {} 第 {} 次写入失败，{} 毫秒后重试：{}", name(), attempt, delay, error.toString());
+                Executor delayed = CompletableFuture.delayedExecutor(delay, TimeUnit.MILLISECONDS);
+                return CompletableFuture.supplyAsync(() -> null, delayed)
+                    .thenCompose(_ -> writeWithRetry(chunk, attempt + 1));
+            })
+            .thenCompose(f -> f);
+    }
+
+    Stats stats() {
+        long count = Math.max(1, batches.get());
+        return new Stats(name(), records.get(), batches.get(), failures.get(), retries.get(),
+            TimeUnit.NANOSECONDS.toMicros(latencyNanos.get() / count));
+    }
+}
@@ -0,0 +1,87 @@
+package cn.xtmax.graalcdc.sink;
+
+import cn.xtmax.graalcdc.config.SystemConfig;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+/**
+ * 输出端注册表，启动时发现 Spring 容器与 ServiceLoader 中的 {@link Sink}
+ *
+ * @author 起风了
+ * @email m.zxt@foxmail.com
+ * @date 2026/01/05 10:40
+ */
+@Slf4j
+@Component
+public class SinkRegistry implements InitializingBean, DisposableBean {
+
+    // 内置绑定，输出端不能使用
+    static final Set<String> RESERVED = Set.of("es", "state", "window", "cache");
+
+    @Autowired
+    SystemConfig systemConfig;
+
+    @Autowired
+    ObjectProvider<Sink> sinkProvider;
+
+    private final Map<String, SinkBinding> bindings = new LinkedHashMap<>();
+
+    // 合并等待与重试退避共用
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "sink-linger");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    @Override
+    public void afterPropertiesSet() throws Exception {
+        List<Sink> sinks = new ArrayList<>();
+        sinkProvider.orderedStream().forEach(sinks::add);
+        ServiceLoader.load(Sink.class).forEach(sinks::add);
+        for (Sink sink : sinks) {
+            String name = sink.name();
+            if (name == null || RESERVED.contains(name) || bindings.containsKey(name)) {
+                throw new IllegalStateException("输出端名称无效或者重复: " + name + "（" + sink.getClass().getName() + "）");
+            }
+            bindings.put(name, new SinkBinding(sink, systemConfig.getSink(), scheduler));
+            log.info("注册输出端 {}：{}", name, sink.getClass().getName());
+        }
+    }
+
+    /**
+     * 绑定到脚本上下文的输出端
+     *
+     * @return key 为绑定名
+     */
+    public Map<String, SinkBinding> getBindings() {
+        return Collections.unmodifiableMap(bindings);
+    }
+
+    /**
+     * 各输出端的统计
+     */
+    public List<SinkBinding.Stats> stats() {
+        return bindings.values().stream().map(SinkBinding::stats).toList();
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        bindings.values().forEach(SinkBinding::flush);
+        scheduler.shutdown();
+        for (SinkBinding binding : bindings.values()) {
+            try {
+                binding.sink().close();
+            } catch (Exception e) {
+                log.error("关闭输出端 {} 失败！", binding.name(), e);
+            }
+        }
+    }
+}
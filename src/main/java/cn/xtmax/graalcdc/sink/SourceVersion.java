@@ -0,0 +1,90 @@
+package cn.xtmax.graalcdc.sink;
+
+import java.util.Map;
+
+/**
+ * 由变更在源库中的位置计算单调递增的版本号，用于输出端的版本保护写入（ES version_type=external_gte、JDBC 条件更新），
+ * 乱序到达的旧变更因为版本更小被拒绝，输出端因此可以并行、乱序写入
+ * <ul>
+ *     <li>PostgreSQL：source.lsn，每个变更的 lsn 都不同</li>
+ *     <li>MySQL：binlog 文件序号（16 位）| 事务开始位置 pos（30 位）| 事务内序号 transaction.total_order（17 位）。
+ *     同一事务的所有行事件 pos 相同、source.row 在每个行事件内从 0 重新计数，不能区分同一事务内对同一行的多次修改，
+ *     所以必须开启事务元数据（实例配置 transactionMetadata 或者订阅的脚本声明 transaction）；
+ *     事务从 pos 小于 max_binlog_size（最大 1GB）的位置开始，pos 不会超过 30 位；
+ *     单个事务最多 131071 个行事件（批量导入、大批量更新常见上万行），binlog 文件序号最大 65535</li>
+ * </ul>
+ * 旧的布局（文件序号 20 位、事务内序号 13 位）下写入的版本号小于新布局下同一文件内任意位置的版本号，升级后不需要重建输出端的数据。
+ * 任何一段超出范围时抛出异常而不是截断，截断会让不同的变更得到相同的版本，其中一个被当作旧变更丢弃。
+ * 快照事件（op=r）共用快照开始时的位置，同一主键在快照中只出现一次，不影响比较
+ *
+ * @author 起风了
+ * @email m.zxt@foxmail.com
+ * @date 2026/01/11 10:00
+ */
+public final class SourceVersion {
+
+    static final int ORDINAL_BITS = 17;
+
+    static final int POS_BITS = 30;
+
+    static final int FILE_SEQUENCE_BITS = 63 - POS_BITS - ORDINAL_BITS;
+
+    private SourceVersion() {
+    }
+
+    /**
+     * 计算版本号
+     *
+     * @param payload debezium value 中的 payload
+     * @return 版本号，大于等于 0
+     */
+    @SuppressWarnings("unchecked")
+    public static long of(Map<String, ?> payload) {
+        if (!(payload.get("source") instanceof Map<?, ?> map)) {
+            throw new IllegalArgumentException("payload 中缺少 source");
+        }
+        Map<String, ?> source = (Map<String, ?>) map;
+        Object lsn = source.get("lsn");
+        if (lsn != null) {
+            return toLong(lsn);
+        }
+        Object file = source.get("file");
+        Object pos = source.get("pos");
+        if (file == null || pos == null) {
+            throw new IllegalArgumentException("source 中缺少 lsn 或者 binlog 位置（file、pos）");
+        }
+        String name = file.toString();
+        long sequence = Long.parseLong(name.substring(name.lastIndexOf('.') + 1));
+        long order;
+        if (payload.get("transaction") instanceof Map<?, ?> transaction && transaction.get("total_order") != null) {
+            order = toLong(transaction.get("total_order"));
+        } else if ("r".equals(payload.get("op"))) {
+            // 快照事件没有事务信息
+            order = 0;
+        } else {
+            throw new IllegalArgumentException("MySQL 的版本号需要事务元数据（transaction.total_order），请开启实例的 transactionMetadata");
+        }
+        return field("binlog 文件序号", sequence, FILE_SEQUENCE_BITS) << (POS_BITS + ORDINAL_BITS)
+            | field("pos", toLong(pos), POS_BITS) << ORDINAL_BITS
+            | field("total_order", order, ORDINAL_BITS);
+    }
+
+    private static long field(String name, long value, int bits) {
+        if (value < 0 || value >= 1L << bits) {
+            throw new IllegalArgumentException(name + " 超出版本号的范围（" + bits + " 位）: " + value);
+        }
+        return value;
+    }
+
+    /**
+     * 读取记录中的版本号，建议脚本以字符串传递，避免超过 2^53 的数值在 JS 中丢失精度
+     *
+     * @param value 字符串或者数值
+     */
+    public static long toLong(Object value) {
+        if (value instanceof Number number) {
+            return number.longValue();
+        }
+        return Long.parseLong(value.toString());
+    }
+}
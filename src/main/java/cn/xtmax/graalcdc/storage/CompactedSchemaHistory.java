@@ -0,0 +1,298 @@
+package cn.xtmax.graalcdc.storage;
+
+import io.debezium.config.Configuration;
+import io.debezium.config.Field;
+import io.debezium.document.Array;
+import io.debezium.document.Document;
+import io.debezium.document.DocumentReader;
+import io.debezium.document.DocumentWriter;
+import io.debezium.relational.history.*;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * 可压缩的 schema history，启动回放时间不随 DDL 数量增长
+ * <p>
+ * 文件格式与 FileSchemaHistory 相同（每行一条记录）。回放完成后，如果上一次压缩之后的记录数超过阈值，
+ * 将回放时已经应用的记录（位置不晚于连接器已提交的 offset）按 tableChanges 折叠，之后的记录原样保留：
+ * 连续的带 tableChanges 的记录折叠为一条记录（每张表的最终结构，被删除的表保留 DROP），位置取这段中最后一条记录的位置；
+ * 不带 tableChanges 的记录（如 SET、CREATE DATABASE）原样保留在原来的相对位置，回放顺序与压缩前一致。
+ * 是否已经应用由回放时的 {@link SchemaHistoryListener#onChangeApplied} 得知，
+ * 折叠后的记录不会晚于已提交的 offset，不会因为位置超过 offset 而在回放时被整条跳过
+ * <p>
+ * 配置项：
+ * <ul>
+ *     <li>schema.history.internal.file.filename：history 文件</li>
+ *     <li>schema.history.internal.compact.threshold：触发压缩的记录数，默认 1000</li>
+ * </ul>
+ *
+ * @author 起风了
+ * @email m.zxt@foxmail.com
+ * @date 2025/12/31 15:40
+ */
+public final class CompactedSchemaHistory extends AbstractSchemaHistory {
+
+    public static final Field FILE_PATH = Field.create(CONFIGURATION_FIELD_PREFIX_STRING + "file.filename")
+        .withDescription("history 文件路径")
+        .required();
+
+    public static final Field COMPACT_THRESHOLD = Field.create(CONFIGURATION_FIELD_PREFIX_STRING + "compact.threshold")
+        .withDescription("上次压缩之后的记录数超过该值时压缩")
+        .withDefault(1000);
+
+    // 折叠记录的标记字段
+    static final String COMPACTED = "compacted";
+
+    private final DocumentReader reader = DocumentReader.defaultReader();
+
+    private final DocumentWriter writer = DocumentWriter.defaultWriter();
+
+    private Path path;
+
+    private int compactThreshold;
+
+    // 回放时当前记录是否被应用
+    private boolean applied;
+
+    @Override
+    public void configure(Configuration config, HistoryRecordComparator comparator,
+                          SchemaHistoryListener listener, boolean useCatalogBeforeSchema) {
+        super.configure(config, comparator, new AppliedListener(listener == null ? SchemaHistoryListener.NOOP : listener), useCatalogBeforeSchema);
+        this.path = Path.of(config.getString(FILE_PATH));
+        this.compactThreshold = config.getInteger(COMPACT_THRESHOLD);
+    }
+
+    /**
+     * 记录回放时哪些记录被应用，其余调用转发给原来的监听器
+     */
+    private final class AppliedListener implements SchemaHistoryListener {
+
+        private final SchemaHistoryListener delegate;
+
+        AppliedListener(SchemaHistoryListener delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void started() {
+            delegate.started();
+        }
+
+        @Override
+        public void stopped() {
+            delegate.stopped();
+        }
+
+        @Override
+        public void recoveryStarted() {
+            delegate.recoveryStarted();
+        }
+
+        @Override
+        public void recoveryStopped() {
+            delegate.recoveryStopped();
+        }
+
+        @Override
+        public void onChangeFromHistory(HistoryRecord record) {
+            delegate.onChangeFromHistory(record);
+        }
+
+        @Override
+        public void onChangeApplied(HistoryRecord record) {
+            applied = true;
+            delegate.onChangeApplied(record);
+        }
+    }
+
+    @Override
+    public synchronized void start() {
+        super.start();
+        try {
+            Path parent = path.toAbsolutePath().getParent();
+            if (parent != null) {
+                Files.createDirectories(parent);
+            }
+        } catch (IOException e) {
+            throw new SchemaHistoryException("创建 history 目录失败: " + path, e);
+        }
+    }
+
+    @Override
+    protected synchronized void storeRecord(HistoryRecord record) throws SchemaHistoryException {
+        try (BufferedWriter bw = Files.newBufferedWriter(path, StandardCharsets.UTF_8,
+            StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            bw.write(writer.write(record.document()));
+            bw.newLine();
+        } catch (IOException e) {
+            throw new SchemaHistoryException("写入 history 失败: " + path, e);
+        }
+    }
+
+    @Override
+    protected synchronized void recoverRecords(Consumer<HistoryRecord> records) {
+        if (!exists()) {
+            return;
+        }
+        List<Document> documents = new ArrayList<>();
+        try {
+            for (String line : Files.readAllLines(path, StandardCharsets.UTF_8)) {
+                if (!line.isBlank()) {
+                    documents.add(reader.read(line));
+                }
+            }
+        } catch (IOException e) {
+            throw new SchemaHistoryException("读取 history 失败: " + path, e);
+        }
+        // 连续被应用的前缀，history 按位置追加，之后的记录晚于已提交的 offset
+        int appliedPrefix = 0;
+        boolean contiguous = true;
+        for (Document document : documents) {
+            applied = false;
+            records.accept(new HistoryRecord(document));
+            contiguous &= applied;
+            if (contiguous) {
+                appliedPrefix++;
+            }
+        }
+        if (sinceCompaction(documents) > compactThreshold) {
+            compact(documents, appliedPrefix);
+        }
+    }
+
+    private static int sinceCompaction(List<Document> documents) {
+        for (int i = documents.size() - 1; i >= 0; i--) {
+            if (documents.get(i).getBoolean(COMPACTED, false)) {
+                return documents.size() - 1 - i;
+            }
+        }
+        return documents.size();
+    }
+
+    private static boolean hasTableChanges(Document document) {
+        Array changes = document.getArray("tableChanges");
+        return changes != null && !changes.isEmpty();
+    }
+
+    /**
+     * 折叠前 foldCount 条记录并重写文件
+     *
+     * @param documents 全部记录
+     * @param foldCount 可以折叠的记录数，即回放时已经应用的前缀
+     */
+    void compact(List<Document> documents, int foldCount) {
+        List<Document> output = fold(documents.subList(0, foldCount));
+        if (output.size() >= foldCount) {
+            return;
+        }
+        Path tmp = path.resolveSibling(path.getFileName() + ".compact");
+        try (BufferedWriter bw = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            for (Document document : output) {
+                bw.write(writer.write(document));
+                bw.newLine();
+            }
+            for (Document document : documents.subList(foldCount, documents.size())) {
+                bw.write(writer.write(document));
+                bw.newLine();
+            }
+        } catch (IOException e) {
+            logger.warn("压缩 history {} 失败，保留原文件", path, e);
+            return;
+        }
+        try {
+            Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            logger.info("history {} 压缩完成，{} 条已应用的记录折叠为 {} 条，保留之后的 {} 条",
+                path, foldCount, output.size(), documents.size() - foldCount);
+        } catch (IOException e) {
+            logger.warn("替换 history {} 失败，保留原文件", path, e);
+        }
+    }
+
+    /**
+     * 折叠记录：连续的带 tableChanges 的记录合并为一条，不带 tableChanges 的记录保持原来的相对位置
+     *
+     * @param documents 按位置排列的记录
+     * @return 折叠后的记录
+     */
+    static List<Document> fold(List<Document> documents) {
+        List<Document> output = new ArrayList<>();
+        // 本段中每张表最后的变更，key 为表ID，保持首次出现的顺序
+        Map<String, Document> changes = new LinkedHashMap<>();
+        // 本段最后一条带 tableChanges 的记录
+        Document last = null;
+        // 之前是否出现过表结构，没有时被删除的表不需要保留 DROP
+        boolean seenTables = false;
+        for (Document document : documents) {
+            if (!hasTableChanges(document)) {
+                if (last != null) {
+                    output.add(merged(last, changes));
+                    changes.clear();
+                    last = null;
+                    seenTables = true;
+                }
+                output.add(document);
+                continue;
+            }
+            for (Array.Entry entry : document.getArray("tableChanges")) {
+                Document change = entry.getValue().asDocument();
+                String id = change.getString("id");
+                changes.remove(id);
+                if (!"DROP".equals(change.getString("type"))) {
+                    Document create = Document.create();
+                    create.setString("type", "CREATE");
+                    create.setString("id", id);
+                    create.setDocument("table", change.getDocument("table"));
+                    changes.put(id, create);
+                } else if (seenTables) {
+                    changes.put(id, change);
+                }
+            }
+            last = document;
+        }
+        if (last != null) {
+            output.add(merged(last, changes));
+        }
+        return output;
+    }
+
+    /**
+     * 一段记录折叠后的记录，位置取这段中最后一条记录的位置
+     */
+    private static Document merged(Document last, Map<String, Document> changes) {
+        Document document = Document.create();
+        document.setDocument("source", last.getDocument("source"));
+        document.setDocument("position", last.getDocument("position"));
+        document.setString("databaseName", last.getString("databaseName", ""));
+        document.setString("ddl", "");
+        document.setArray("tableChanges", Array.create(new ArrayList<>(changes.values())));
+        document.setBoolean(COMPACTED, true);
+        return document;
+    }
+
+    @Override
+    public boolean storageExists() {
+        return true;
+    }
+
+    @Override
+    public boolean exists() {
+        try {
+            return Files.exists(path) && Files.size(path) > 0;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "compacted file " + path;
+    }
+}
@@ -0,0 +1,146 @@
+package cn.xtmax.graalcdc.storage;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.connect.errors.ConnectException;
+import org.apache.kafka.connect.runtime.WorkerConfig;
+import org.apache.kafka.connect.storage.OffsetBackingStore;
+import org.apache.kafka.connect.util.Callback;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+
+/**
+ * 基于 {@link OffsetLog} 的 offset 存储，替代每次全量重写文件的 FileOffsetBackingStore
+ * <p>
+ * 配置项：
+ * <ul>
+ *     <li>offset.storage.file.filename：日志文件，多个引擎可以配置同一个文件</li>
+ *     <li>offset.storage.log.fsync：刷盘策略 always / interval / never，默认 interval</li>
+ *     <li>offset.storage.log.fsync.interval.ms：批量刷盘间隔，默认 1000</li>
+ *     <li>offset.storage.log.compact.min.bytes：触发压缩的最小文件大小，默认 1MB</li>
+ *     <li>offset.storage.log.legacy.filename：FileOffsetBackingStore 的旧文件，首次启动时导入</li>
+ * </ul>
+ *
+ * @author 起风了
+ * @email m.zxt@foxmail.com
+ * @date 2025/12/31 11:20
+ */
+@Slf4j
+public class LogOffsetBackingStore implements OffsetBackingStore {
+
+    public static final String FILENAME_CONFIG = "offset.storage.file.filename";
+    public static final String FSYNC_CONFIG = "offset.storage.log.fsync";
+    public static final String FSYNC_INTERVAL_MS_CONFIG = "offset.storage.log.fsync.interval.ms";
+    public static final String COMPACT_MIN_BYTES_CONFIG = "offset.storage.log.compact.min.bytes";
+    public static final String LEGACY_FILENAME_CONFIG = "offset.storage.log.legacy.filename";
+
+    private Path path;
+
+    private String namespace;
+
+    private OffsetLog.Options options;
+
+    private String legacyFilename;
+
+    private volatile OffsetLog offsetLog;
+
+    @Override
+    public void configure(WorkerConfig config) {
+        Map<String, String> props = config.originalsStrings();
+        String filename = props.get(FILENAME_CONFIG);
+        if (filename == null || filename.isBlank()) {
+            throw new ConnectException("缺少配置 " + FILENAME_CONFIG);
+        }
+        this.path = Path.of(filename);
+        this.namespace = props.getOrDefault("name", "default");
+        this.options = new OffsetLog.Options(
+            OffsetLog.FsyncPolicy.valueOf(props.getOrDefault(FSYNC_CONFIG, "interval").toUpperCase()),
+            Long.parseLong(props.getOrDefault(FSYNC_INTERVAL_MS_CONFIG, "1000")),
+            Long.parseLong(props.getOrDefault(COMPACT_MIN_BYTES_CONFIG, String.valueOf(1 << 20)))
+        );
+        this.legacyFilename = props.get(LEGACY_FILENAME_CONFIG);
+    }
+
+    @Override
+    public void start() {
+        try {
+            offsetLog = OffsetLog.acquire(path, options);
+        } catch (IOException e) {
+            throw new ConnectException("打开 offset 日志失败: " + path, e);
+        }
+        importLegacy();
+    }
+
+    /**
+     * 导入 FileOffsetBackingStore 的旧文件，只在日志中还没有该引擎的数据时执行
+     */
+    @SuppressWarnings("unchecked")
+    private void importLegacy() {
+        if (legacyFilename == null || offsetLog.contains(namespace)) {
+            return;
+        }
+        Path legacy = Path.of(legacyFilename);
+        if (!Files.exists(legacy)) {
+            return;
+        }
+        try (ObjectInputStream is = new ObjectInputStream(Files.newInputStream(legacy))) {
+            Map<byte[], byte[]> raw = (Map<byte[], byte[]>) is.readObject();
+            Map<ByteBuffer, ByteBuffer> values = new HashMap<>();
+            raw.forEach((key, value) -> values.put(
+                key == null ? null : ByteBuffer.wrap(key),
+                value == null ? null : ByteBuffer.wrap(value)
+            ));
+            offsetLog.append(namespace, values).join();
+            log.info("已从 {} 导入 {} 条 offset", legacy, values.size());
+        } catch (IOException | ClassNotFoundException e) {
+            throw new ConnectException("导入旧的 offset 文件失败: " + legacy, e);
+        }
+    }
+
+    @Override
+    public void stop() {
+        OffsetLog current = offsetLog;
+        if (current != null) {
+            offsetLog = null;
+            OffsetLog.release(current);
+        }
+    }
+
+    private ConnectException stopped() {
+        return new ConnectException("offset 存储 " + path + "（" + namespace + "）未启动或者已停止");
+    }
+
+    @Override
+    public Future<Map<ByteBuffer, ByteBuffer>> get(Collection<ByteBuffer> keys) {
+        OffsetLog current = offsetLog;
+        if (current == null) {
+            return CompletableFuture.failedFuture(stopped());
+        }
+        return CompletableFuture.completedFuture(current.get(namespace, keys));
+    }
+
+    @Override
+    public Future<Void> set(Map<ByteBuffer, ByteBuffer> values, Callback<Void> callback) {
+        OffsetLog current = offsetLog;
+        CompletableFuture<Void> future = current == null
+            ? CompletableFuture.failedFuture(stopped())
+            : current.append(namespace, values);
+        return future.whenComplete((_, e) -> {
+            if (callback != null) {
+                callback.onCompletion(e, null);
+            }
+        });
+    }
+
+    @Override
+    public Set<Map<String, Object>> connectorPartitions(String connectorName) {
+        // 仅 Kafka Connect 的 offset REST 接口使用，嵌入式引擎不需要
+        return Collections.emptySet();
+    }
+}
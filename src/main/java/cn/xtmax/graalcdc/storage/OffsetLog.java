@@ -0,0 +1,403 @@
+package cn.xtmax.graalcdc.storage;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.zip.CRC32;
+
+/**
+ * 追加写的 offset 日志，多个引擎共享同一个文件，按命名空间（引擎名称）隔离
+ * <p>
+ * 每次提交写入一条记录：[长度][CRC32][命名空间][键值对...]，一次提交的所有键值要么全部生效要么全部丢弃，
+ * 加载时遇到不完整或者校验失败的记录即截断。日志中失效的记录超过阈值时重写为快照（压缩）
+ *
+ * @author 起风了
+ * @email m.zxt@foxmail.com
+ * @date 2025/12/31 10:30
+ */
+@Slf4j
+public final class OffsetLog {
+
+    /**
+     * 刷盘策略
+     */
+    public enum FsyncPolicy {
+        // 每次提交都刷盘
+        ALWAYS,
+        // 按间隔批量刷盘，提交在下一次刷盘后完成（组提交）
+        INTERVAL,
+        // 不主动刷盘，交给操作系统
+        NEVER
+    }
+
+    /**
+     * 日志配置
+     *
+     * @param fsyncPolicy     刷盘策略
+     * @param fsyncIntervalMs 批量刷盘间隔（毫秒）
+     * @param compactMinBytes 触发压缩的最小文件大小
+     */
+    public record Options(FsyncPolicy fsyncPolicy, long fsyncIntervalMs, long compactMinBytes) {
+    }
+
+    private static final Map<Path, OffsetLog> LOGS = new HashMap<>();
+
+    private final Path path;
+
+    private final Options options;
+
+    private final Map<String, Map<ByteBuffer, ByteBuffer>> data = new HashMap<>();
+
+    private final ScheduledExecutorService flusher;
+
+    // 等待下一次刷盘的提交
+    private final List<CompletableFuture<Void>> pendingSync = new ArrayList<>();
+
+    private FileChannel channel;
+
+    // 当前有效数据重写为快照后的大小，每次写入时增量维护，用于判断是否需要压缩
+    private long liveBytes;
+
+    // 最后一个使用者释放后关闭，之后的写入被拒绝
+    private boolean closed;
+
+    private int refCount;
+
+    private OffsetLog(Path path, Options options) throws IOException {
+        this.path = path;
+        this.options = options;
+        Files.createDirectories(path.toAbsolutePath().getParent());
+        load();
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        if (options.fsyncPolicy == FsyncPolicy.INTERVAL) {
+            this.flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "offset-log-flusher");
+                thread.setDaemon(true);
+                return thread;
+            });
+            flusher.scheduleWithFixedDelay(this::sync, options.fsyncIntervalMs, options.fsyncIntervalMs, TimeUnit.MILLISECONDS);
+        } else {
+            this.flusher = null;
+        }
+    }
+
+    /**
+     * 获取共享的日志，同一路径只打开一次
+     *
+     * @param path    日志文件路径
+     * @param options 日志配置，以第一次打开时为准
+     * @return 日志
+     */
+    public static OffsetLog acquire(Path path, Options options) throws IOException {
+        Path key = path.toAbsolutePath().normalize();
+        synchronized (LOGS) {
+            OffsetLog offsetLog = LOGS.get(key);
+            if (offsetLog == null) {
+                offsetLog = new OffsetLog(key, options);
+                LOGS.put(key, offsetLog);
+            }
+            offsetLog.refCount++;
+            return offsetLog;
+        }
+    }
+
+    /**
+     * 释放日志，最后一个使用者释放时关闭文件
+     *
+     * @param offsetLog 日志
+     */
+    public static void release(OffsetLog offsetLog) {
+        synchronized (LOGS) {
+            if (--offsetLog.refCount > 0) {
+                return;
+            }
+            LOGS.remove(offsetLog.path);
+        }
+        offsetLog.close();
+    }
+
+    /**
+     * 命名空间是否有数据
+     *
+     * @param namespace 命名空间
+     */
+    public synchronized boolean contains(String namespace) {
+        return data.containsKey(namespace);
+    }
+
+    /**
+     * 读取 offset
+     *
+     * @param namespace 命名空间
+     * @param keys      键
+     * @return 键值，不存在的键值为 null
+     */
+    public synchronized Map<ByteBuffer, ByteBuffer> get(String namespace, Collection<ByteBuffer> keys) {
+        Map<ByteBuffer, ByteBuffer> values = data.getOrDefault(namespace, Collections.emptyMap());
+        Map<ByteBuffer, ByteBuffer> result = new HashMap<>();
+        for (ByteBuffer key : keys) {
+            result.put(key, values.get(key));
+        }
+        return result;
+    }
+
+    /**
+     * 原子写入一批 offset
+     *
+     * @param namespace 命名空间
+     * @param values    键值，值为 null 表示删除
+     * @return 写入完成（按刷盘策略持久化）后完成
+     */
+    public CompletableFuture<Void> append(String namespace, Map<ByteBuffer, ByteBuffer> values) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        try {
+            synchronized (this) {
+                if (closed) {
+                    future.completeExceptionally(new IllegalStateException("offset 日志 " + path + " 已关闭，不能再写入"));
+                    return future;
+                }
+                byte[] record = encode(namespace, values);
+                ByteBuffer buffer = ByteBuffer.wrap(record);
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                apply(namespace, values);
+                switch (options.fsyncPolicy) {
+                    case ALWAYS -> {
+                        channel.force(false);
+                        future.complete(null);
+                    }
+                    case INTERVAL -> pendingSync.add(future);
+                    case NEVER -> future.complete(null);
+                }
+                compactIfNecessary();
+            }
+        } catch (IOException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    /**
+     * 刷盘并完成等待中的提交
+     */
+    void sync() {
+        List<CompletableFuture<Void>> futures;
+        synchronized (this) {
+            if (pendingSync.isEmpty()) {
+                return;
+            }
+            futures = new ArrayList<>(pendingSync);
+            pendingSync.clear();
+            try {
+                channel.force(false);
+            } catch (IOException e) {
+                futures.forEach(f -> f.completeExceptionally(e));
+                return;
+            }
+        }
+        futures.forEach(f -> f.complete(null));
+    }
+
+    /**
+     * 更新内存中的数据，同时维护快照大小：每个命名空间一条记录，头部为 长度、CRC32、命名空间、键值数，
+     * 每个键值为 长度 + 内容
+     */
+    private void apply(String namespace, Map<ByteBuffer, ByteBuffer> values) {
+        Map<ByteBuffer, ByteBuffer> map = data.get(namespace);
+        if (map == null) {
+            map = new HashMap<>();
+            data.put(namespace, map);
+            liveBytes += 8 + 2 + utfLength(namespace) + 4;
+        }
+        for (Map.Entry<ByteBuffer, ByteBuffer> entry : values.entrySet()) {
+            ByteBuffer key = copy(entry.getKey());
+            ByteBuffer old;
+            if (entry.getValue() == null) {
+                old = map.remove(key);
+                if (old != null) {
+                    liveBytes -= 4 + key.remaining() + 4 + old.remaining();
+                }
+            } else {
+                ByteBuffer value = copy(entry.getValue());
+                old = map.put(key, value);
+                liveBytes += old == null ? 4 + key.remaining() + 4 + value.remaining() : value.remaining() - old.remaining();
+            }
+        }
+    }
+
+    /**
+     * {@link DataOutputStream#writeUTF} 写入的字节数（不含长度）
+     */
+    static int utfLength(String text) {
+        int length = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            length += c >= 0x0001 && c <= 0x007F ? 1 : c <= 0x07FF ? 2 : 3;
+        }
+        return length;
+    }
+
+    private static ByteBuffer copy(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+        return ByteBuffer.wrap(bytes);
+    }
+
+    private static byte[] encode(String namespace, Map<ByteBuffer, ByteBuffer> values) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        DataOutputStream payload = new DataOutputStream(bos);
+        payload.writeUTF(namespace);
+        payload.writeInt(values.size());
+        for (Map.Entry<ByteBuffer, ByteBuffer> entry : values.entrySet()) {
+            writeBuffer(payload, entry.getKey());
+            writeBuffer(payload, entry.getValue());
+        }
+        byte[] body = bos.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(body);
+        ByteBuffer record = ByteBuffer.allocate(8 + body.length);
+        record.putInt(body.length).putInt((int) crc.getValue()).put(body);
+        return record.array();
+    }
+
+    private static void writeBuffer(DataOutputStream out, ByteBuffer buffer) throws IOException {
+        if (buffer == null) {
+            out.writeInt(-1);
+            return;
+        }
+        ByteBuffer dup = buffer.duplicate();
+        out.writeInt(dup.remaining());
+        byte[] bytes = new byte[dup.remaining()];
+        dup.get(bytes);
+        out.write(bytes);
+    }
+
+    private static ByteBuffer readBuffer(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return ByteBuffer.wrap(bytes);
+    }
+
+    private void load() throws IOException {
+        if (!Files.exists(path)) {
+            return;
+        }
+        long valid = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            while (true) {
+                int length;
+                try {
+                    length = in.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                int checksum;
+                byte[] body;
+                try {
+                    checksum = in.readInt();
+                    if (length < 0) {
+                        break;
+                    }
+                    body = new byte[length];
+                    in.readFully(body);
+                } catch (EOFException e) {
+                    break;
+                }
+                CRC32 crc = new CRC32();
+                crc.update(body);
+                if ((int) crc.getValue() != checksum) {
+                    break;
+                }
+                DataInputStream payload = new DataInputStream(new ByteArrayInputStream(body));
+                String namespace = payload.readUTF();
+                int count = payload.readInt();
+                Map<ByteBuffer, ByteBuffer> values = new HashMap<>();
+                for (int i = 0; i < count; i++) {
+                    values.put(readBuffer(payload), readBuffer(payload));
+                }
+                apply(namespace, values);
+                valid += 8 + length;
+            }
+        }
+        long size = Files.size(path);
+        if (valid < size) {
+            // 截断写了一半的记录
+            log.warn("offset 日志 {} 尾部存在不完整的记录，截断 {} 字节", path, size - valid);
+            try (FileChannel fc = FileChannel.open(path, StandardOpenOption.WRITE)) {
+                fc.truncate(valid);
+            }
+        }
+    }
+
+    /**
+     * 快照大小，供测试核对增量维护的结果
+     */
+    synchronized long liveBytes() {
+        return liveBytes;
+    }
+
+    private void compactIfNecessary() throws IOException {
+        long size = channel.size();
+        if (size < options.compactMinBytes || size < liveBytes * 4) {
+            // 有效数据占比还较高，暂不压缩
+            return;
+        }
+        compact();
+    }
+
+    /**
+     * 将当前数据重写为快照，每个命名空间一条记录
+     */
+    private void compact() throws IOException {
+        Path tmp = path.resolveSibling(path.getFileName() + ".compact");
+        long size = 0;
+        try (FileChannel fc = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            for (Map.Entry<String, Map<ByteBuffer, ByteBuffer>> entry : data.entrySet()) {
+                ByteBuffer buffer = ByteBuffer.wrap(encode(entry.getKey(), entry.getValue()));
+                size += buffer.remaining();
+                while (buffer.hasRemaining()) {
+                    fc.write(buffer);
+                }
+            }
+            fc.force(true);
+        }
+        channel.force(false);
+        channel.close();
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        channel = FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        liveBytes = size;
+        if (log.isDebugEnabled()) {
+            log.debug("offset 日志 {} 压缩完成，大小 {} 字节", path, size);
+        }
+    }
+
+    private void close() {
+        if (flusher != null) {
+            flusher.shutdown();
+        }
+        sync();
+        synchronized (this) {
+            closed = true;
+            try {
+                channel.force(false);
+                channel.close();
+            } catch (IOException e) {
+                log.error("关闭 offset 日志 {} 失败！", path, e);
+            }
+        }
+    }
+}
@@ -0,0 +1,269 @@
+package cn.xtmax.graalcdc.storage;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+/**
+ * 表状态存储，保存一张表每个主键的最新一行，由变更流持续更新
+ * <p>
+ * 行数据追加写入文件：[长度][CRC32][类型][主键长度][主键][行]，内存中只保留 主键 → 记录位置 的索引，
+ * 行数据留在文件（操作系统页缓存）中，按位置随机读取。加载时重建索引并截断不完整的记录，
+ * 失效的记录超过阈值时重写文件（压缩）
+ *
+ * @author 起风了
+ * @email m.zxt@foxmail.com
+ * @date 2026/01/05 16:10
+ */
+@Slf4j
+public final class TableStateStore implements AutoCloseable {
+
+    private static final byte PUT = 1;
+
+    private static final byte DELETE = 2;
+
+    // 记录头：长度 + CRC32
+    private static final int HEADER = 8;
+
+    // 索引中记录长度占用的位数，单条记录最大 16MB
+    private static final int LENGTH_BITS = 24;
+
+    private static final long MAX_RECORD = (1L << LENGTH_BITS) - 1;
+
+    private final Path path;
+
+    private final long compactMinBytes;
+
+    // 主键 → 位置 << 24 | 记录长度
+    private final Map<String, Long> index = new ConcurrentHashMap<>();
+
+    // 读取与压缩互斥
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private FileChannel channel;
+
+    private long writePosition;
+
+    // 有效记录的总大小
+    private long liveBytes;
+
+    public TableStateStore(Path path, long compactMinBytes) throws IOException {
+        this.path = path;
+        this.compactMinBytes = compactMinBytes;
+        Files.createDirectories(path.toAbsolutePath().getParent());
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        load();
+    }
+
+    private static long pack(long position, int length) {
+        return position << LENGTH_BITS | length;
+    }
+
+    private static long position(long packed) {
+        return packed >>> LENGTH_BITS;
+    }
+
+    private static int length(long packed) {
+        return (int) (packed & MAX_RECORD);
+    }
+
+    /**
+     * 读取主键对应的行
+     *
+     * @param key 主键
+     * @return 行（JSON），不存在时为 null
+     */
+    public String get(String key) {
+        lock.readLock().lock();
+        try {
+            Long packed = index.get(key);
+            if (packed == null) {
+                return null;
+            }
+            ByteBuffer record = read(position(packed), length(packed));
+            record.position(HEADER + 1);
+            int keyLength = record.getInt();
+            record.position(record.position() + keyLength);
+            return StandardCharsets.UTF_8.decode(record).toString();
+        } catch (IOException e) {
+            throw new IllegalStateException("读取状态存储 " + path + " 失败", e);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public boolean contains(String key) {
+        return index.containsKey(key);
+    }
+
+    public int size() {
+        return index.size();
+    }
+
+    /**
+     * 写入主键对应的行
+     *
+     * @param key   主键
+     * @param value 行（JSON）
+     */
+    public void put(String key, String value) throws IOException {
+        append(PUT, key, value);
+    }
+
+    /**
+     * 删除主键对应的行
+     *
+     * @param key 主键
+     */
+    public void delete(String key) throws IOException {
+        if (index.containsKey(key)) {
+            append(DELETE, key, "");
+        }
+    }
+
+    private void append(byte type, String key, String value) throws IOException {
+        byte[] record = encode(type, key, value);
+        if (record.length > MAX_RECORD) {
+            throw new IllegalArgumentException("状态存储 " + path + " 单行超过 16MB，主键 " + key);
+        }
+        lock.writeLock().lock();
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(record);
+            long position = writePosition;
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer, position);
+            }
+            apply(type, key, pack(writePosition, record.length));
+            writePosition = position;
+            compactIfNecessary();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void apply(byte type, String key, long packed) {
+        Long old = type == PUT ? index.put(key, packed) : index.remove(key);
+        if (old != null) {
+            liveBytes -= length(old);
+        }
+        if (type == PUT) {
+            liveBytes += length(packed);
+        }
+    }
+
+    private static byte[] encode(byte type, String key, String value) {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        byte[] valueBytes = value.getBytes(StandardCharsets.UTF_8);
+        int bodyLength = 1 + 4 + keyBytes.length + valueBytes.length;
+        ByteBuffer record = ByteBuffer.allocate(HEADER + bodyLength);
+        record.putInt(bodyLength).putInt(0).put(type).putInt(keyBytes.length).put(keyBytes).put(valueBytes);
+        CRC32 crc = new CRC32();
+        crc.update(record.array(), HEADER, bodyLength);
+        record.putInt(4, (int) crc.getValue());
+        return record.array();
+    }
+
+    private ByteBuffer read(long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                break;
+            }
+        }
+        return buffer.flip();
+    }
+
+    private void load() throws IOException {
+        long size = channel.size();
+        long position = 0;
+        ByteBuffer header = ByteBuffer.allocate(HEADER);
+        while (position + HEADER <= size) {
+            header.clear();
+            channel.read(header, position);
+            int bodyLength = header.getInt(0);
+            int checksum = header.getInt(4);
+            if (bodyLength < 5 || position + HEADER + bodyLength > size) {
+                break;
+            }
+            ByteBuffer body = read(position + HEADER, bodyLength);
+            CRC32 crc = new CRC32();
+            crc.update(body.duplicate());
+            if ((int) crc.getValue() != checksum) {
+                break;
+            }
+            byte type = body.get();
+            byte[] keyBytes = new byte[body.getInt()];
+            body.get(keyBytes);
+            apply(type, new String(keyBytes, StandardCharsets.UTF_8), pack(position, HEADER + bodyLength));
+            position += HEADER + bodyLength;
+        }
+        if (position < size) {
+            // 截断写了一半的记录
+            log.warn("状态存储 {} 尾部存在不完整的记录，截断 {} 字节", path, size - position);
+            channel.truncate(position);
+        }
+        writePosition = position;
+    }
+
+    private void compactIfNecessary() throws IOException {
+        if (writePosition < compactMinBytes || writePosition < liveBytes * 4) {
+            // 有效数据占比还较高，暂不压缩
+            return;
+        }
+        compact();
+    }
+
+    /**
+     * 只保留有效记录重写文件，需要持有写锁
+     */
+    private void compact() throws IOException {
+        Path tmp = path.resolveSibling(path.getFileName() + ".compact");
+        Map<String, Long> rewritten = new ConcurrentHashMap<>();
+        long position = 0;
+        try (FileChannel fc = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            for (Map.Entry<String, Long> entry : index.entrySet()) {
+                int length = length(entry.getValue());
+                ByteBuffer record = read(position(entry.getValue()), length);
+                rewritten.put(entry.getKey(), pack(position, length));
+                while (record.hasRemaining()) {
+                    position += fc.write(record, position);
+                }
+            }
+            fc.force(true);
+        }
+        channel.close();
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        index.putAll(rewritten);
+        writePosition = position;
+        liveBytes = position;
+        if (log.isDebugEnabled()) {
+            log.debug("状态存储 {} 压缩完成，{} 行，大小 {} 字节", path, index.size(), position);
+        }
+    }
+
+    @Override
+    public void close() {
+        lock.writeLock().lock();
+        try {
+            channel.force(false);
+            channel.close();
+        } catch (IOException e) {
+            log.error("关闭状态存储 {} 失败！", path, e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+}
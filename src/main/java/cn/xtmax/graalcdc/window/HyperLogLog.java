@@ -0,0 +1,92 @@
+package cn.xtmax.graalcdc.window;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * HyperLogLog 近似去重计数，精度 p=12（4096 个寄存器，标准误差约 1.6%）
+ *
+ * @author 起风了
+ * @email m.zxt@foxmail.com
+ * @date 2026/01/06 10:00
+ */
+public final class HyperLogLog {
+
+    static final int P = 12;
+
+    static final int M = 1 << P;
+
+    private static final double ALPHA = 0.7213 / (1 + 1.079 / M);
+
+    private final byte[] registers;
+
+    public HyperLogLog() {
+        this(new byte[M]);
+    }
+
+    private HyperLogLog(byte[] registers) {
+        this.registers = registers;
+    }
+
+    public void add(String value) {
+        long hash = hash(value);
+        int index = (int) (hash >>> (64 - P));
+        // 剩余位的前导零个数 + 1，哨兵位保证不超过 64 - P + 1
+        int rank = Long.numberOfLeadingZeros((hash << P) | (1L << (P - 1))) + 1;
+        if (rank > registers[index]) {
+            registers[index] = (byte) rank;
+        }
+    }
+
+    public void merge(HyperLogLog other) {
+        for (int i = 0; i < M; i++) {
+            registers[i] = (byte) Math.max(registers[i], other.registers[i]);
+        }
+    }
+
+    public long estimate() {
+        double sum = 0;
+        int zeros = 0;
+        for (byte register : registers) {
+            sum += 1.0 / (1L << register);
+            if (register == 0) {
+                zeros++;
+            }
+        }
+        double estimate = ALPHA * M * M / sum;
+        if (estimate <= 2.5 * M && zeros > 0) {
+            // 小基数使用线性计数
+            estimate = M * Math.log((double) M / zeros);
+        }
+        return Math.round(estimate);
+    }
+
+    public String encode() {
+        return Base64.getEncoder().encodeToString(registers);
+    }
+
+    public static HyperLogLog decode(String text) {
+        byte[] registers = Base64.getDecoder().decode(text);
+        if (registers.length != M) {
+            throw new IllegalArgumentException("HyperLogLog 寄存器数量不正确: " + registers.length);
+        }
+        return new HyperLogLog(registers);
+    }
+
+    /**
+     * FNV-1a 64 位哈希，再做一次 murmur3 fmix64 打散
+     */
+    static long hash(String value) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+            h ^= b;
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb93fe53a87a5L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
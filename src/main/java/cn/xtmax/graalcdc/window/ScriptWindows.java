@@ -0,0 +1,367 @@
+package cn.xtmax.graalcdc.window;
+
+import cn.xtmax.graalcdc.config.ScriptCDCConfig;
+import com.alibaba.fastjson2.JSON;
+import com.alibaba.fastjson2.JSONArray;
+import com.alibaba.fastjson2.JSONObject;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 一个脚本在一个实例上的窗口聚合状态
+ * <p>
+ * 按事件时间（source.ts_ms）分配窗口：滚动窗口 slideMs 为 0，滑动窗口一个事件属于 sizeMs / slideMs 个窗口。
+ * 水位为已处理事件的最大事件时间，窗口结束时间加上允许的延迟不超过水位时关闭并输出；
+ * 脚本消费者超过 idleTimeoutMs 没有收到事件时，水位从最后一个事件的时间起按空闲时长推进，避免没有新事件时窗口一直不关闭，
+ * 复制延迟较大时也不会因为墙上时钟领先而提前关闭窗口。
+ * 关闭的窗口先进入待输出队列，输出成功后才移除，失败时按指数退避重试，后面关闭的窗口排在它之后；
+ * 待输出的结果与聚合状态、对应的队列索引一起写入检查点，重启后从检查点的索引之后重新消费，聚合结果与不重启时一致
+ *
+ * @author 起风了
+ * @email m.zxt@foxmail.com
+ * @date 2026/01/06 10:30
+ */
+@Slf4j
+public final class ScriptWindows {
+
+    /**
+     * 窗口结果输出
+     */
+    public interface Emitter {
+
+        /**
+         * 输出一个窗口名称下新关闭的结果，失败时抛出异常，结果保留并稍后重试
+         */
+        void emit(String name, ScriptCDCConfig.Window window, List<Map<String, Object>> results) throws Exception;
+    }
+
+    /**
+     * 已关闭、待输出的结果
+     */
+    record Closed(String name, List<Map<String, Object>> results) {
+    }
+
+    // 输出失败后的重试间隔（毫秒），按指数退避
+    static final long RETRY_MIN_MS = 1_000;
+    static final long RETRY_MAX_MS = 60_000;
+
+    static final class Accumulator {
+        long count;
+        double sum;
+        double min = Double.POSITIVE_INFINITY;
+        double max = Double.NEGATIVE_INFINITY;
+        HyperLogLog distinct;
+
+        void add(Double value, String distinctValue) {
+            count++;
+            if (value != null) {
+                sum += value;
+                min = Math.min(min, value);
+                max = Math.max(max, value);
+            }
+            if (distinctValue != null) {
+                if (distinct == null) {
+                    distinct = new HyperLogLog();
+                }
+                distinct.add(distinctValue);
+            }
+        }
+    }
+
+    private final Map<String, ScriptCDCConfig.Window> configs;
+
+    private final Path checkpointPath;
+
+    private final long checkpointIntervalMs;
+
+    // 窗口名称 → 窗口开始时间 → 分组键 → 聚合值
+    private final Map<String, TreeMap<Long, Map<String, Accumulator>>> state = new HashMap<>();
+
+    // 已处理事件的最大事件时间
+    private long watermark = Long.MIN_VALUE;
+
+    // 窗口名称 → 已关闭的最后一个窗口的开始时间，空闲关闭的窗口之后到达的事件不再进入这些窗口
+    private final Map<String, Long> closedThrough = new HashMap<>();
+
+    // 已关闭、待输出的结果，按关闭顺序输出
+    private final Deque<Closed> pending = new ArrayDeque<>();
+
+    // 当前的重试间隔，为 0 表示上次输出成功
+    private long retryDelayMs;
+
+    // 下次重试的时间（System.nanoTime）
+    private long retryAt;
+
+    private long lastCheckpointAt;
+
+    // 迟到被丢弃的事件数
+    private long dropped;
+
+    public ScriptWindows(Map<String, ScriptCDCConfig.Window> configs, Path checkpointPath, long checkpointIntervalMs) {
+        this.configs = configs;
+        this.checkpointPath = checkpointPath;
+        this.checkpointIntervalMs = checkpointIntervalMs;
+        configs.keySet().forEach(name -> state.put(name, new TreeMap<>()));
+    }
+
+    static long slide(ScriptCDCConfig.Window window) {
+        return window.getSlideMs() > 0 ? window.getSlideMs() : window.getSizeMs();
+    }
+
+    /**
+     * 聚合一个值
+     *
+     * @param name      窗口名称
+     * @param key       分组键
+     * @param value     参与 sum/min/max 的值，可以为 null
+     * @param distinct  参与近似去重的值，可以为 null
+     * @param eventTime 事件时间
+     */
+    public synchronized void add(String name, String key, Double value, String distinct, long eventTime) {
+        ScriptCDCConfig.Window window = configs.get(name);
+        if (window == null) {
+            throw new IllegalArgumentException("未在 initCDC 中声明窗口 " + name);
+        }
+        long size = window.getSizeMs();
+        long slide = slide(window);
+        TreeMap<Long, Map<String, Accumulator>> windows = state.get(name);
+        long closed = closedThrough.getOrDefault(name, Long.MIN_VALUE);
+        for (long start = Math.floorDiv(eventTime, slide) * slide; start > eventTime - size; start -= slide) {
+            if (start + size + window.getAllowedLatenessMs() <= watermark || start <= closed) {
+                // 窗口已经关闭
+                dropped++;
+                continue;
+            }
+            windows.computeIfAbsent(start, _ -> new HashMap<>())
+                .computeIfAbsent(key, _ -> new Accumulator())
+                .add(value, distinct);
+        }
+    }
+
+    /**
+     * 推进水位，关闭的窗口进入待输出队列，再按顺序输出
+     *
+     * @param eventTime 新处理事件的最大事件时间，没有时为 Long.MIN_VALUE
+     * @param idleMs    消费者距离上次收到事件的时长（毫秒），不空闲时为 0
+     * @param emitter   结果输出
+     */
+    public void advance(long eventTime, long idleMs, Emitter emitter) throws InterruptedException {
+        synchronized (this) {
+            watermark = Math.max(watermark, eventTime);
+            for (Map.Entry<String, ScriptCDCConfig.Window> entry : configs.entrySet()) {
+                ScriptCDCConfig.Window window = entry.getValue();
+                long effective = watermark;
+                if (watermark != Long.MIN_VALUE && idleMs > window.getIdleTimeoutMs()) {
+                    // 空闲期间事件时间至多前进了空闲的时长
+                    effective = watermark + (idleMs - window.getIdleTimeoutMs());
+                }
+                TreeMap<Long, Map<String, Accumulator>> windows = state.get(entry.getKey());
+                List<Map<String, Object>> results = new ArrayList<>();
+                while (!windows.isEmpty()) {
+                    long start = windows.firstKey();
+                    long end = start + window.getSizeMs();
+                    if (end + window.getAllowedLatenessMs() > effective) {
+                        break;
+                    }
+                    windows.pollFirstEntry().getValue().forEach((key, acc) -> results.add(result(entry.getKey(), key, start, end, acc)));
+                    closedThrough.merge(entry.getKey(), start, Math::max);
+                }
+                if (!results.isEmpty()) {
+                    pending.addLast(new Closed(entry.getKey(), results));
+                }
+            }
+        }
+        emitPending(emitter);
+    }
+
+    /**
+     * 按关闭顺序输出待输出的结果，失败时保留并退避，不跳过失败的结果输出后面的
+     */
+    private void emitPending(Emitter emitter) throws InterruptedException {
+        if (retryDelayMs > 0 && System.nanoTime() - retryAt < 0) {
+            return;
+        }
+        while (true) {
+            Closed head;
+            int remaining;
+            synchronized (this) {
+                head = pending.peekFirst();
+                remaining = pending.size();
+            }
+            if (head == null) {
+                return;
+            }
+            try {
+                emitter.emit(head.name(), configs.get(head.name()), head.results());
+            } catch (InterruptedException e) {
+                throw e;
+            } catch (Exception e) {
+                retryDelayMs = retryDelayMs == 0 ? RETRY_MIN_MS : Math.min(RETRY_MAX_MS, retryDelayMs * 2);
+                retryAt = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(retryDelayMs);
+                log.error("窗口 {} 的 {} 条结果输出失败，{} 毫秒后重试，待输出 {} 批，检查点 {}",
+                    head.name(), head.results().size(), retryDelayMs, remaining, checkpointPath, e);
+                return;
+            }
+            synchronized (this) {
+                pending.pollFirst();
+            }
+            retryDelayMs = 0;
+        }
+    }
+
+    /**
+     * 待输出的结果批数
+     */
+    public synchronized int getPending() {
+        return pending.size();
+    }
+
+    private static Map<String, Object> result(String name, String key, long start, long end, Accumulator acc) {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("window", name);
+        result.put("key", key);
+        result.put("start", start);
+        result.put("end", end);
+        result.put("count", acc.count);
+        result.put("sum", acc.sum);
+        result.put("min", acc.min == Double.POSITIVE_INFINITY ? null : acc.min);
+        result.put("max", acc.max == Double.NEGATIVE_INFINITY ? null : acc.max);
+        result.put("distinct", acc.distinct == null ? null : acc.distinct.estimate());
+        return result;
+    }
+
+    /**
+     * 迟到被丢弃的事件数
+     */
+    public synchronized long getDropped() {
+        return dropped;
+    }
+
+    /**
+     * 到达检查点间隔时写入检查点
+     *
+     * @param index 已处理的最后一个队列索引
+     */
+    public void checkpointIfDue(long index) throws IOException {
+        long now = System.currentTimeMillis();
+        if (now - lastCheckpointAt >= checkpointIntervalMs) {
+            checkpoint(index);
+            lastCheckpointAt = now;
+        }
+    }
+
+    /**
+     * 写入检查点：先写临时文件再原子替换
+     *
+     * @param index 已处理的最后一个队列索引
+     */
+    public void checkpoint(long index) throws IOException {
+        JSONObject root = new JSONObject();
+        synchronized (this) {
+            root.put("index", index);
+            root.put("watermark", watermark);
+            root.put("dropped", dropped);
+            JSONObject windowsJson = new JSONObject();
+            state.forEach((name, windows) -> {
+                JSONArray array = new JSONArray();
+                windows.forEach((start, accumulators) -> accumulators.forEach((key, acc) -> {
+                    JSONObject item = new JSONObject();
+                    item.put("start", start);
+                    item.put("key", key);
+                    item.put("count", acc.count);
+                    item.put("sum", acc.sum);
+                    if (acc.min != Double.POSITIVE_INFINITY) {
+                        item.put("min", acc.min);
+                        item.put("max", acc.max);
+                    }
+                    if (acc.distinct != null) {
+                        item.put("distinct", acc.distinct.encode());
+                    }
+                    array.add(item);
+                }));
+                windowsJson.put(name, array);
+            });
+            root.put("windows", windowsJson);
+            root.put("closedThrough", new JSONObject(closedThrough));
+            JSONArray pendingJson = new JSONArray();
+            for (Closed closed : pending) {
+                JSONObject item = new JSONObject();
+                item.put("name", closed.name());
+                item.put("results", closed.results());
+                pendingJson.add(item);
+            }
+            root.put("pending", pendingJson);
+        }
+        Files.createDirectories(checkpointPath.toAbsolutePath().getParent());
+        Path tmp = checkpointPath.resolveSibling(checkpointPath.getFileName() + ".tmp");
+        Files.writeString(tmp, root.toJSONString(), StandardCharsets.UTF_8);
+        Files.move(tmp, checkpointPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * 加载检查点，已不再声明的窗口丢弃
+     *
+     * @return 检查点对应的队列索引，没有检查点时为 -1
+     */
+    public synchronized long load() throws IOException {
+        if (!Files.exists(checkpointPath)) {
+            return -1;
+        }
+        JSONObject root = JSON.parseObject(Files.readString(checkpointPath, StandardCharsets.UTF_8));
+        watermark = root.getLongValue("watermark", Long.MIN_VALUE);
+        dropped = root.getLongValue("dropped");
+        JSONObject windowsJson = root.getJSONObject("windows");
+        if (windowsJson != null) {
+            for (String name : windowsJson.keySet()) {
+                TreeMap<Long, Map<String, Accumulator>> windows = state.get(name);
+                if (windows == null) {
+                    continue;
+                }
+                for (JSONObject item : windowsJson.getJSONArray(name).toList(JSONObject.class)) {
+                    Accumulator acc = new Accumulator();
+                    acc.count = item.getLongValue("count");
+                    acc.sum = item.getDoubleValue("sum");
+                    if (item.get("min") != null) {
+                        acc.min = item.getDoubleValue("min");
+                        acc.max = item.getDoubleValue("max");
+                    }
+                    String distinct = item.getString("distinct");
+                    if (distinct != null) {
+                        acc.distinct = HyperLogLog.decode(distinct);
+                    }
+                    windows.computeIfAbsent(item.getLongValue("start"), _ -> new HashMap<>()).put(item.getString("key"), acc);
+                }
+            }
+        }
+        JSONObject closedJson = root.getJSONObject("closedThrough");
+        if (closedJson != null) {
+            closedJson.forEach((name, start) -> {
+                if (configs.containsKey(name)) {
+                    closedThrough.put(name, ((Number) start).longValue());
+                }
+            });
+        }
+        JSONArray pendingJson = root.getJSONArray("pending");
+        if (pendingJson != null) {
+            for (JSONObject item : pendingJson.toList(JSONObject.class)) {
+                String name = item.getString("name");
+                if (!configs.containsKey(name)) {
+                    log.warn("窗口 {} 已不再声明，丢弃检查点中待输出的结果", name);
+                    continue;
+                }
+                List<Map<String, Object>> results = new ArrayList<>();
+                item.getJSONArray("results").toList(JSONObject.class).forEach(results::add);
+                pending.addLast(new Closed(name, results));
+            }
+        }
+        log.info("加载窗口检查点 {}，队列索引 {}，待输出 {} 批", checkpointPath, root.getLongValue("index"), pending.size());
+        return root.getLongValue("index", -1);
+    }
+}
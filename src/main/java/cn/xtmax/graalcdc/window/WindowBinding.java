@@ -0,0 +1,109 @@
+package cn.xtmax.graalcdc.window;
+
+import cn.xtmax.graalcdc.ScriptExecutor;
+import com.alibaba.fastjson2.JSONArray;
+import lombok.extern.slf4j.Slf4j;
+import org.graalvm.polyglot.HostAccess;
+import org.graalvm.polyglot.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+/**
+ * 窗口聚合，以 window 绑定到脚本上下文
+ * <pre>
+ * export async function initCDC() {
+ *     return {
+ *         tables: ["shop.order"],
+ *         windows: {sales: {sizeMs: 60000, sink: "metrics"}}
+ *     }
+ * }
+ * export default async function (event) {
+ *     const order = JSON.parse(event).payload.after
+ *     window.add("sales", order.shop_id, order.amount, order.customer_id)
+ * }
+ * // 没有配置 sink 时，窗口关闭后调用
+ * export async function onWindow(results) {}
+ * </pre>
+ * 聚合只在脚本消费者处理事件时生效，事件时间为事件的 source.ts_ms
+ *
+ * @author 起风了
+ * @email m.zxt@foxmail.com
+ * @date 2026/01/06 11:30
+ */
+@Slf4j
+@Component
+public class WindowBinding {
+
+    record Scope(ScriptWindows windows, long eventTime) {
+    }
+
+    private static final ThreadLocal<Scope> CURRENT = new ThreadLocal<>();
+
+    /**
+     * 在窗口上下文中执行脚本
+     *
+     * @param windows   脚本的窗口状态，为 null 时直接执行
+     * @param eventTime 事件时间
+     * @param task      任务
+     */
+    public static void run(ScriptWindows windows, long eventTime, Runnable task) {
+        if (windows == null) {
+            task.run();
+            return;
+        }
+        CURRENT.set(new Scope(windows, eventTime));
+        try {
+            task.run();
+        } finally {
+            CURRENT.remove();
+        }
+    }
+
+    static String groupKey(Value key) {
+        Object value = ScriptExecutor.toJava(key);
+        if (value instanceof List<?> list) {
+            return new JSONArray(list).toJSONString();
+        }
+        return String.valueOf(value);
+    }
+
+    /**
+     * 只计数
+     */
+    @HostAccess.Export
+    public void add(String name, Value key) {
+        add(name, key, null, null);
+    }
+
+    /**
+     * 聚合一个数值
+     */
+    @HostAccess.Export
+    public void add(String name, Value key, Value value) {
+        add(name, key, value, null);
+    }
+
+    /**
+     * 聚合一个值
+     *
+     * @param name     窗口名称
+     * @param key      分组键，联合分组传数组
+     * @param value    参与 sum/min/max 的数值，可以省略
+     * @param distinct 参与近似去重的值，可以省略
+     */
+    @HostAccess.Export
+    public void add(String name, Value key, Value value, Value distinct) {
+        Scope scope = CURRENT.get();
+        if (scope == null) {
+            // 死信重试等不在消费者中执行的场景，事件已经聚合过
+            if (log.isDebugEnabled()) {
+                log.debug("当前不在脚本消费者中执行，忽略窗口 {} 的聚合", name);
+            }
+            return;
+        }
+        Double number = value == null || value.isNull() ? null : value.asDouble();
+        String distinctValue = distinct == null || distinct.isNull() ? null : String.valueOf(ScriptExecutor.toJava(distinct));
+        scope.windows.add(name, groupKey(key), number, distinctValue, scope.eventTime);
+    }
+}
@@ -0,0 +1,77 @@
+package cn.xtmax.graalcdc;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author 起风了
+ * @email m.zxt@foxmail.com
+ * @date 2026/01/15 09:20
+ */
+class AdaptiveConcurrencyLimiterTest {
+
+    @Test
+    void waitersAreGrantedInOrder() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(1, 1, 1, 10_000);
+        assertTrue(limiter.acquire().isDone());
+        CompletableFuture<Void> first = limiter.acquire();
+        CompletableFuture<Void> second = limiter.acquire();
+        assertFalse(first.isDone());
+        assertEquals(2, limiter.stats().waiting());
+
+        limiter.release(AdaptiveConcurrencyLimiter.Outcome.IGNORED, System.nanoTime());
+        assertTrue(first.isDone());
+        assertFalse(second.isDone());
+        limiter.release(AdaptiveConcurrencyLimiter.Outcome.IGNORED, System.nanoTime());
+        assertTrue(second.isDone());
+        assertEquals(1, limiter.stats().inflight());
+    }
+
+    @Test
+    void successGrowsAboutOnePerRound() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(2, 1, 16, 10_000);
+        for (int i = 0; i < 2; i++) {
+            limiter.acquire();
+            limiter.release(AdaptiveConcurrencyLimiter.Outcome.SUCCESS, System.nanoTime());
+        }
+        assertEquals(3, limiter.stats().limit());
+    }
+
+    @Test
+    void overloadInOneRoundHalvesOnce() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(8, 1, 16, 10_000);
+        long round = System.nanoTime();
+        for (int i = 0; i < 4; i++) {
+            limiter.acquire();
+        }
+        for (int i = 0; i < 4; i++) {
+            limiter.release(AdaptiveConcurrencyLimiter.Outcome.DROPPED, round);
+        }
+        assertEquals(4, limiter.stats().limit());
+        assertEquals(4, limiter.stats().dropped());
+
+        // 减小之后发出的请求再次过载
+        limiter.acquire();
+        limiter.release(AdaptiveConcurrencyLimiter.Outcome.DROPPED, System.nanoTime());
+        assertEquals(2, limiter.stats().limit());
+    }
+
+    @Test
+    void slowSuccessCountsAsOverloadAndLimitStaysInBounds() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(2, 2, 4, 10);
+        limiter.acquire();
+        limiter.release(AdaptiveConcurrencyLimiter.Outcome.SUCCESS, System.nanoTime() - TimeUnit.SECONDS.toNanos(1));
+        assertEquals(2, limiter.stats().limit());
+        assertEquals(1, limiter.stats().dropped());
+
+        for (int i = 0; i < 100; i++) {
+            limiter.acquire();
+            limiter.release(AdaptiveConcurrencyLimiter.Outcome.SUCCESS, System.nanoTime());
+        }
+        assertEquals(4, limiter.stats().limit());
+    }
+}
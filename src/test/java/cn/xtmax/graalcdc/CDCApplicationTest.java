@@ -0,0 +1,46 @@
+package cn.xtmax.graalcdc;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 启动耗时回归：空的运行目录下刷新完整的 Spring 上下文，超过预算时失败
+ * <p>
+ * 预算通过 -Dstartup.budget-ms 调整，默认值留有余量，只拦截明显的回退
+ *
+ * @author 起风了
+ * @email m.zxt@foxmail.com
+ * @date 2026/01/14 17:00
+ */
+class CDCApplicationTest {
+
+    static final long BUDGET_MS = Long.getLong("startup.budget-ms", 20_000);
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void contextStartsWithinBudget() {
+        long start = System.nanoTime();
+        try (ConfigurableApplicationContext context = new SpringApplicationBuilder(CDCApplication.class)
+            .properties(
+                "cdc.runtime-directory=" + directory,
+                // 没有脚本订阅时不连接数据库
+                "cdc.lazy-start=true",
+                "server.port=0"
+            )
+            .run()) {
+            long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            assertTrue(context.isRunning());
+            assertNotNull(context.getBean(DebeziumEngineManager.class));
+            assertTrue(elapsed < BUDGET_MS, "启动耗时 " + elapsed + " 毫秒，超过预算 " + BUDGET_MS + " 毫秒");
+        }
+    }
+}
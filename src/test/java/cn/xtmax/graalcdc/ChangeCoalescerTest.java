@@ -0,0 +1,47 @@
+package cn.xtmax.graalcdc;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author 起风了
+ * @email m.zxt@foxmail.com
+ * @date 2026/01/15 09:00
+ */
+class ChangeCoalescerTest {
+
+    @Test
+    void lastChangePerKeyWinsInOrderOfLastChange() {
+        ChangeCoalescer<String> coalescer = new ChangeCoalescer<>();
+        coalescer.add("1", "c1");
+        coalescer.add("2", "c2");
+        coalescer.add("1", "u1");
+        coalescer.add("3", "c3");
+        coalescer.add("2", "d2");
+        assertEquals(5, coalescer.received());
+        assertEquals(List.of("u1", "c3", "d2"), coalescer.drain());
+    }
+
+    @Test
+    void keylessChangesAreNotMerged() {
+        ChangeCoalescer<String> coalescer = new ChangeCoalescer<>();
+        coalescer.add("", "a");
+        coalescer.add(null, "b");
+        coalescer.add("", "c");
+        assertEquals(List.of("a", "b", "c"), coalescer.drain());
+    }
+
+    @Test
+    void drainResetsTheWindow() {
+        ChangeCoalescer<String> coalescer = new ChangeCoalescer<>();
+        coalescer.add("1", "c1");
+        coalescer.drain();
+        assertTrue(coalescer.isEmpty());
+        assertEquals(0, coalescer.received());
+        coalescer.add("1", "u1");
+        assertEquals(List.of("u1"), coalescer.drain());
+    }
+}
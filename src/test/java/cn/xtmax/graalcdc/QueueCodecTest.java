@@ -0,0 +1,102 @@
+package cn.xtmax.graalcdc;
+
+import cn.xtmax.graalcdc.config.SystemConfig;
+import net.openhft.chronicle.bytes.Bytes;
+import net.openhft.chronicle.wire.Wire;
+import net.openhft.chronicle.wire.WireType;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author 起风了
+ * @email m.zxt@foxmail.com
+ * @date 2026/01/15 10:30
+ */
+class QueueCodecTest {
+
+    @TempDir
+    Path directory;
+
+    static SystemConfig.QueueCompression compression(boolean enabled) {
+        SystemConfig.QueueCompression config = new SystemConfig.QueueCompression();
+        config.setEnabled(enabled);
+        config.setTrainingSamples(500);
+        config.setDictionarySize(4 << 10);
+        return config;
+    }
+
+    static String value(int id) {
+        return "{\"payload\":{\"op\":\"u\",\"source\":{\"db\":\"shop\",\"table\":\"orders\",\"ts_ms\":" + (1_700_000_000_000L + id)
+            + "},\"before\":{\"id\":" + id + ",\"status\":\"new\",\"amount\":" + (id % 97) + ".50,\"remark\":\"customer order\"}"
+            + ",\"after\":{\"id\":" + id + ",\"status\":\"paid\",\"amount\":" + (id % 97) + ".50,\"remark\":\"customer order\"}}}";
+    }
+
+    /**
+     * 写入采样直到字典训练完成，返回第一条压缩结果
+     */
+    static QueueCodec.Encoded train(QueueCodec codec) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        for (int i = 0; System.nanoTime() < deadline; i++) {
+            QueueCodec.Encoded encoded = codec.encode("shop.orders", value(i));
+            if (encoded != null) {
+                return encoded;
+            }
+            if (i >= 500) {
+                Thread.sleep(10);
+            }
+        }
+        return fail("字典训练超时");
+    }
+
+    @Test
+    void disabledOrSmallValuesAreWrittenAsIs() {
+        try (QueueCodec codec = new QueueCodec(compression(false), directory)) {
+            assertNull(codec.encode("shop.orders", value(1)));
+        }
+        try (QueueCodec codec = new QueueCodec(compression(true), directory)) {
+            assertNull(codec.encode("shop.orders", "{}"));
+        }
+    }
+
+    @Test
+    void encodedValuesRoundTripAcrossCodecs() throws Exception {
+        QueueCodec.Encoded encoded;
+        try (QueueCodec codec = new QueueCodec(compression(true), directory)) {
+            encoded = train(codec);
+            assertTrue(encoded.data().length < encoded.length());
+            assertEquals(value(1234), decode(codec, codec.encode("shop.orders", value(1234))));
+        }
+        // 其他节点（或重启后）按版本号从目录加载字典
+        try (QueueCodec codec = new QueueCodec(compression(false), directory)) {
+            String decoded = codec.decode(encoded.dict(), encoded.length(), encoded.data());
+            assertTrue(decoded.startsWith("{\"payload\":{\"op\":\"u\""));
+            assertEquals(encoded.length(), decoded.length());
+        }
+    }
+
+    @Test
+    void queueEventRoundTripsThroughWire() throws Exception {
+        try (QueueCodec codec = new QueueCodec(compression(true), directory)) {
+            train(codec);
+            Wire wire = WireType.BINARY.apply(Bytes.allocateElasticOnHeap());
+            QueueEvent.write(wire, "{\"id\":7}", "shop", "shop.orders", "u", value(7), "tx-1",
+                codec.encode("shop.orders", value(7)));
+            QueueEvent event = QueueEvent.read(42, wire, codec);
+            assertEquals(new QueueEvent(42, "{\"id\":7}", "shop", "shop.orders", "u", value(7), "tx-1"), event);
+
+            // 未压缩的记录没有 dict 字段
+            Wire plain = WireType.BINARY.apply(Bytes.allocateElasticOnHeap());
+            QueueEvent.write(plain, "", "shop", "shop.orders", "c", "{}", "");
+            assertEquals("{}", QueueEvent.read(43, plain, codec).value());
+        }
+    }
+
+    static String decode(QueueCodec codec, QueueCodec.Encoded encoded) {
+        return codec.decode(encoded.dict(), encoded.length(), encoded.data());
+    }
+}
@@ -0,0 +1,24 @@
+package cn.xtmax.graalcdc;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author 起风了
+ * @email m.zxt@foxmail.com
+ * @date 2026/01/16 14:00
+ */
+class QueueManagerTest {
+
+    @Test
+    void blockSizeShrinksWithOpenQueues() {
+        assertEquals(16L << 20, QueueManager.blockSize(0, 1));
+        assertEquals(16L << 20, QueueManager.blockSize(0, 16));
+        assertEquals(8L << 20, QueueManager.blockSize(0, 17));
+        assertEquals(1L << 20, QueueManager.blockSize(0, 200));
+        assertEquals(1L << 20, QueueManager.blockSize(-1, 10_000));
+        // 配置了块大小时不调整
+        assertEquals(4L << 20, QueueManager.blockSize(4L << 20, 200));
+    }
+}
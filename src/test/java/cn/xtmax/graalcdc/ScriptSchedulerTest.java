@@ -0,0 +1,127 @@
+package cn.xtmax.graalcdc;
+
+import cn.xtmax.graalcdc.config.ScriptCDCConfig;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * @author 起风了
+ * @email m.zxt@foxmail.com
+ * @date 2026/01/14 14:00
+ */
+class ScriptSchedulerTest {
+
+    final ScriptScheduler scheduler = new ScriptScheduler();
+
+    @AfterEach
+    void close() throws Exception {
+        scheduler.close();
+    }
+
+    static ScriptCDCConfig.Quota quota(int maxConcurrency, int maxQueued) {
+        ScriptCDCConfig.Quota quota = new ScriptCDCConfig.Quota();
+        quota.setMaxConcurrency(maxConcurrency);
+        quota.setMaxQueued(maxQueued);
+        return quota;
+    }
+
+    boolean hasLane(String scriptId) {
+        return scheduler.stats().stream().anyMatch(stats -> stats.scriptId().equals(scriptId));
+    }
+
+    @Test
+    void laneIsRemovedWithLastOwner() {
+        scheduler.configure("a.js", null);
+        scheduler.configure("a.js", null);
+        scheduler.remove("a.js");
+        assertTrue(hasLane("a.js"));
+        scheduler.remove("a.js");
+        assertFalse(hasLane("a.js"));
+    }
+
+    @Test
+    void laneWithRunningTaskIsRemovedAfterIt() throws Exception {
+        scheduler.configure("a.js", null);
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<?> future = scheduler.schedule("a.js", () -> await(release));
+        scheduler.remove("a.js");
+        assertTrue(hasLane("a.js"));
+        release.countDown();
+        future.get(5, TimeUnit.SECONDS);
+        // 任务结束后在同一把锁内移除
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (hasLane("a.js") && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertFalse(hasLane("a.js"));
+    }
+
+    @Test
+    void tasksRunUpToMaxConcurrency() throws Exception {
+        assumeTrue(Runtime.getRuntime().availableProcessors() >= 2);
+        scheduler.configure("a.js", quota(2, 16));
+        CountDownLatch started = new CountDownLatch(2);
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<?> first = scheduler.submit("a.js", () -> {
+            started.countDown();
+            await(release);
+        });
+        CompletableFuture<?> second = scheduler.submit("a.js", () -> {
+            started.countDown();
+            await(release);
+        });
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        release.countDown();
+        assertNull(ScriptScheduler.errorOf(first));
+        assertNull(ScriptScheduler.errorOf(second));
+    }
+
+    @Test
+    void tasksBeyondMaxQueuedAreRejected() {
+        scheduler.configure("a.js", quota(1, 1));
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<?> running = scheduler.schedule("a.js", () -> await(release));
+        // 等待第一个任务开始执行，之后的任务进入排队
+        while (scheduler.stats().getFirst().running() == 0) {
+            Thread.onSpinWait();
+        }
+        CompletableFuture<?> queued = scheduler.schedule("a.js", () -> {
+        });
+        CompletableFuture<?> rejected = scheduler.schedule("a.js", () -> {
+        });
+        assertInstanceOf(RejectedExecutionException.class, ScriptScheduler.errorOf(rejected));
+        release.countDown();
+        assertNull(ScriptScheduler.errorOf(running));
+        assertNull(ScriptScheduler.errorOf(queued));
+    }
+
+    @Test
+    void invalidQuotaIsClampedAndStillRuns() throws Exception {
+        ScriptCDCConfig.Quota quota = quota(0, 0);
+        quota.setWeight(0);
+        scheduler.configure("a.js", quota);
+        ScriptScheduler.LaneStats stats = scheduler.stats().getFirst();
+        assertEquals(1, stats.weight());
+        assertEquals(1, stats.maxConcurrency());
+        CompletableFuture<?> future = scheduler.submit("a.js", () -> {
+        });
+        future.get(5, TimeUnit.SECONDS);
+        assertNull(ScriptScheduler.errorOf(future));
+    }
+
+    static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package cn.xtmax.graalcdc;
+
+import cn.xtmax.graalcdc.config.ScriptCDCConfig;
+import cn.xtmax.graalcdc.config.SystemConfig;
+import net.openhft.chronicle.queue.ExcerptAppender;
+import net.openhft.chronicle.queue.impl.single.SingleChronicleQueue;
+import net.openhft.chronicle.queue.impl.single.SingleChronicleQueueBuilder;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author 起风了
+ * @email m.zxt@foxmail.com
+ * @date 2026/01/16 10:00
+ */
+class ScriptWorkerTest {
+
+    static final String SCRIPT = "a.js";
+
+    @TempDir
+    Path directory;
+
+    final ScriptScheduler scheduler = new ScriptScheduler();
+
+    final List<String> delivered = new CopyOnWriteArrayList<>();
+
+    // 执行到对应的事件时阻塞，直到放行
+    final Map<String, CountDownLatch> gates = new ConcurrentHashMap<>();
+
+    final Map<String, CountDownLatch> started = new ConcurrentHashMap<>();
+
+    final List<AutoCloseable> resources = new ArrayList<>();
+
+    ScriptExecutor executor;
+
+    SingleChronicleQueue queue;
+
+    ExcerptAppender appender;
+
+    @AfterEach
+    void close() throws Exception {
+        gates.values().forEach(CountDownLatch::countDown);
+        for (AutoCloseable resource : resources.reversed()) {
+            resource.close();
+        }
+        if (executor != null) {
+            executor.destroy();
+        }
+        scheduler.close();
+    }
+
+    ScriptWorker worker(int channelCapacity) {
+        executor = new ScriptExecutor() {
+            @Override
+            public void execute(String filepath, Object... args) {
+                String text = (String) args[0];
+                started.computeIfAbsent(text, _ -> new CountDownLatch(1)).countDown();
+                CountDownLatch gate = gates.get(text);
+                if (gate != null) {
+                    try {
+                        gate.await(10, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                delivered.add(text);
+            }
+        };
+        queue = SingleChronicleQueueBuilder.binary(directory.resolve("queue")).build();
+        resources.add(queue);
+        appender = queue.createAppender();
+        resources.add(appender);
+        QueueCodec codec = new QueueCodec(new SystemConfig.QueueCompression(), directory.resolve("dictionaries"));
+        resources.add(codec);
+        DeadLetterQueue deadLetterQueue = new DeadLetterQueue(
+            SCRIPT, "mysql-a", directory.resolve("dlq").toString(), null, () -> true, scheduler, executor
+        );
+        resources.add(deadLetterQueue);
+        ScriptCDCConfig cdcConfig = new ScriptCDCConfig();
+        cdcConfig.setChannelCapacity(channelCapacity);
+        ScriptWorker worker = new ScriptWorker(
+            SCRIPT, cdcConfig, scheduler, executor, deadLetterQueue, null, (_, _, _) -> {
+        }, queue, codec
+        );
+        resources.add(worker);
+        return worker;
+    }
+
+    /**
+     * 写入队列并投递，与 DebeziumEngineRecordHandler 的顺序一致
+     */
+    void append(ScriptWorker worker, int n) {
+        String key = "{\"id\":" + n + "}";
+        String value = "{\"n\":" + n + "}";
+        appender.writeDocument(w -> QueueEvent.write(w, key, "shop", "shop.orders", "c", value, ""));
+        worker.offer(new QueueEvent(appender.lastIndexAppended(), key, "shop", "shop.orders", "c", value, ""));
+    }
+
+    static String value(int n) {
+        return "{\"n\":" + n + "}";
+    }
+
+    CountDownLatch gate(int n) {
+        return gates.computeIfAbsent(value(n), _ -> new CountDownLatch(1));
+    }
+
+    void awaitStarted(int n) throws InterruptedException {
+        assertTrue(started.computeIfAbsent(value(n), _ -> new CountDownLatch(1)).await(10, TimeUnit.SECONDS));
+    }
+
+    static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.nanoTime() < deadline, "等待超时");
+            Thread.sleep(5);
+        }
+    }
+
+    @Test
+    void channelIsUsedAgainAfterCatchingUpFromDisk() throws Exception {
+        ScriptWorker worker = worker(2);
+        // 启动时从磁盘追赶，空队列立即追上
+        await(() -> !worker.lagging);
+
+        CountDownLatch first = gate(1);
+        append(worker, 1);
+        awaitStarted(1);
+        // 第 1 个阻塞在脚本中，2、3 填满通道，4 投递失败后落后，5 不再投递
+        append(worker, 2);
+        append(worker, 3);
+        append(worker, 4);
+        assertTrue(worker.lagging);
+        append(worker, 5);
+
+        CountDownLatch fifth = gate(5);
+        first.countDown();
+        // 从磁盘读到 2-5，读到末尾时已经取消落后标记
+        awaitStarted(5);
+        assertFalse(worker.lagging);
+
+        // 通道中残留的 2、3 已经从磁盘读到，新事件可以直接进入通道
+        append(worker, 6);
+        assertFalse(worker.lagging);
+        fifth.countDown();
+
+        await(() -> delivered.size() >= 6);
+        Thread.sleep(50);
+        assertEquals(List.of(value(1), value(2), value(3), value(4), value(5), value(6)), delivered);
+        assertFalse(worker.lagging);
+    }
+}
@@ -0,0 +1,55 @@
+package cn.xtmax.graalcdc;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author 起风了
+ * @email m.zxt@foxmail.com
+ * @date 2026/01/16 11:00
+ */
+class WatchFileTest {
+
+    @TempDir
+    Path directory;
+
+    record Change(WatchEvent.Kind<?> kind, Path path) {
+    }
+
+    @Test
+    void deletedScriptIsReported() throws Exception {
+        BlockingQueue<Change> changes = new LinkedBlockingQueue<>();
+        try (WatchFile watchFile = new WatchFile()) {
+            watchFile.watch(directory, (kind, _, path) -> changes.add(new Change(kind, path)),
+                StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_MODIFY,
+                StandardWatchEventKinds.ENTRY_DELETE
+            );
+            Path script = directory.resolve("orders.js");
+            Files.writeString(script, "export function initCDC() {}");
+            Change created = changes.poll(10, TimeUnit.SECONDS);
+            assertNotNull(created);
+            assertNotEquals(StandardWatchEventKinds.ENTRY_DELETE, created.kind());
+            assertEquals(script, created.path());
+            // 防抖窗口内的其他事件（创建后的修改）
+            Thread.sleep(1000);
+            changes.clear();
+
+            Files.delete(script);
+            Change deleted = changes.poll(10, TimeUnit.SECONDS);
+            assertNotNull(deleted);
+            assertEquals(StandardWatchEventKinds.ENTRY_DELETE, deleted.kind());
+            assertEquals(script, deleted.path());
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package cn.xtmax.graalcdc.cluster;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author 起风了
+ * @email m.zxt@foxmail.com
+ * @date 2026/01/14 10:00
+ */
+class DirectoryLeaseStoreTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void leaseIsExclusiveUntilExpired() throws Exception {
+        try (DirectoryLeaseStore first = new DirectoryLeaseStore(directory.toString());
+             DirectoryLeaseStore second = new DirectoryLeaseStore(directory.toString())) {
+            assertTrue(first.tryAcquire("mysql-a", "node-1", 60_000));
+            assertFalse(second.tryAcquire("mysql-a", "node-2", 60_000));
+            // 持有者可以重复获取
+            assertTrue(first.tryAcquire("mysql-a", "node-1", 60_000));
+            assertTrue(second.tryAcquire("mysql-b", "node-2", 60_000));
+        }
+    }
+
+    @Test
+    void expiredLeaseIsTakenOverAndOldOwnerCannotRenew() throws Exception {
+        try (DirectoryLeaseStore store = new DirectoryLeaseStore(directory.toString())) {
+            assertTrue(store.tryAcquire("mysql-a", "node-1", 1));
+            Thread.sleep(20);
+            assertTrue(store.tryAcquire("mysql-a", "node-2", 60_000));
+            assertFalse(store.renew("mysql-a", "node-1", 60_000));
+            assertTrue(store.renew("mysql-a", "node-2", 60_000));
+        }
+    }
+
+    @Test
+    void onlyOwnerCanRelease() throws Exception {
+        try (DirectoryLeaseStore store = new DirectoryLeaseStore(directory.toString())) {
+            assertTrue(store.tryAcquire("mysql-a", "node-1", 60_000));
+            store.release("mysql-a", "node-2");
+            assertFalse(store.tryAcquire("mysql-a", "node-2", 60_000));
+            store.release("mysql-a", "node-1");
+            assertTrue(store.tryAcquire("mysql-a", "node-2", 60_000));
+            assertFalse(store.renew("mysql-a", "node-1", 60_000));
+        }
+    }
+
+    @Test
+    void liveNodesFollowHeartbeats() throws Exception {
+        try (DirectoryLeaseStore store = new DirectoryLeaseStore(directory.toString())) {
+            store.heartbeat("node-1", 60_000);
+            store.heartbeat("node-2", 60_000);
+            store.heartbeat("node-3", 1);
+            Thread.sleep(20);
+            assertEquals(Set.of("node-1", "node-2"), store.liveNodes());
+            store.removeNode("node-2");
+            assertEquals(Set.of("node-1"), store.liveNodes());
+        }
+    }
+
+    @Test
+    void concurrentAcquireHasSingleWinner() throws Exception {
+        int nodes = 8;
+        ExecutorService executor = Executors.newFixedThreadPool(nodes);
+        CountDownLatch start = new CountDownLatch(1);
+        try {
+            List<Future<Boolean>> futures = new ArrayList<>();
+            for (int i = 0; i < nodes; i++) {
+                String owner = "node-" + i;
+                futures.add(executor.submit(() -> {
+                    try (DirectoryLeaseStore store = new DirectoryLeaseStore(directory.toString())) {
+                        start.await();
+                        return store.tryAcquire("mysql-a", owner, 60_000);
+                    }
+                }));
+            }
+            start.countDown();
+            int winners = 0;
+            for (Future<Boolean> future : futures) {
+                if (future.get()) {
+                    winners++;
+                }
+            }
+            assertEquals(1, winners);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package cn.xtmax.graalcdc.sink;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author 起风了
+ * @email m.zxt@foxmail.com
+ * @date 2026/01/15 11:30
+ */
+class SourceVersionTest {
+
+    static Map<String, Object> mysql(String file, long pos, Long totalOrder) {
+        Map<String, Object> payload = new HashMap<>();
+        payload.put("op", "u");
+        payload.put("source", Map.of("file", file, "pos", pos));
+        if (totalOrder != null) {
+            payload.put("transaction", Map.of("total_order", totalOrder));
+        }
+        return payload;
+    }
+
+    @Test
+    void mysqlVersionsFollowBinlogOrder() {
+        long first = SourceVersion.of(mysql("binlog.000001", 4_000, 1L));
+        long sameTransaction = SourceVersion.of(mysql("binlog.000001", 4_000, 2L));
+        long nextTransaction = SourceVersion.of(mysql("binlog.000001", 9_000, 1L));
+        long nextFile = SourceVersion.of(mysql("binlog.000002", 4, 1L));
+        assertTrue(first < sameTransaction);
+        assertTrue(sameTransaction < nextTransaction);
+        assertTrue(nextTransaction < nextFile);
+        assertTrue(first >= 0);
+    }
+
+    @Test
+    void largestPositionsStayPositiveAndOrdered() {
+        long max = (1L << SourceVersion.POS_BITS) - 1;
+        long last = SourceVersion.of(mysql("binlog.000007", max, (1L << SourceVersion.ORDINAL_BITS) - 1));
+        long next = SourceVersion.of(mysql("binlog.000008", 4, 1L));
+        assertTrue(last > 0);
+        assertTrue(last < next);
+    }
+
+    @Test
+    void largeTransactionsKeepEveryEventOrdered() {
+        long previous = SourceVersion.of(mysql("binlog.000001", 4_000, 0L));
+        for (long order = 1; order <= 20_000; order++) {
+            long version = SourceVersion.of(mysql("binlog.000001", 4_000, order));
+            assertTrue(version > previous);
+            previous = version;
+        }
+        // 下一个事务的版本号大于上一个事务的所有事件
+        long last = SourceVersion.of(mysql("binlog.000001", 4_000, (1L << SourceVersion.ORDINAL_BITS) - 1));
+        assertTrue(last >= previous);
+        assertTrue(SourceVersion.of(mysql("binlog.000001", 4_001, 1L)) > last);
+        assertTrue((1L << SourceVersion.ORDINAL_BITS) - 1 >= 100_000);
+    }
+
+    @Test
+    void versionsFromTheOldLayoutStayBelowNewOnes() {
+        // 旧布局：文件序号 20 位 | pos 30 位 | 事务内序号 13 位
+        long old = 1L << 43 | ((1L << 30) - 1) << 13 | 8191;
+        assertTrue(SourceVersion.of(mysql("binlog.000001", 4, 1L)) > old);
+    }
+
+    @Test
+    void outOfRangeFieldsAreRejected() {
+        assertThrows(IllegalArgumentException.class,
+            () -> SourceVersion.of(mysql("binlog.000001", 1L << SourceVersion.POS_BITS, 1L)));
+        assertThrows(IllegalArgumentException.class,
+            () -> SourceVersion.of(mysql("binlog.000001", 4, 1L << SourceVersion.ORDINAL_BITS)));
+        assertThrows(IllegalArgumentException.class,
+            () -> SourceVersion.of(mysql("binlog." + (1L << SourceVersion.FILE_SEQUENCE_BITS), 4, 1L)));
+    }
+
+    @Test
+    void mysqlChangesNeedTransactionMetadataExceptSnapshot() {
+        assertThrows(IllegalArgumentException.class, () -> SourceVersion.of(mysql("binlog.000001", 4, null)));
+        Map<String, Object> snapshot = mysql("binlog.000001", 4, null);
+        snapshot.put("op", "r");
+        assertEquals(1L << (SourceVersion.POS_BITS + SourceVersion.ORDINAL_BITS) | 4L << SourceVersion.ORDINAL_BITS,
+            SourceVersion.of(snapshot));
+    }
+
+    @Test
+    void postgresUsesLsn() {
+        assertEquals(123_456_789L, SourceVersion.of(Map.of("source", Map.of("lsn", 123_456_789L))));
+        assertEquals(42L, SourceVersion.toLong("42"));
+        assertThrows(IllegalArgumentException.class, () -> SourceVersion.of(Map.of("op", "c")));
+    }
+}
@@ -0,0 +1,93 @@
+package cn.xtmax.graalcdc.storage;
+
+import io.debezium.document.Array;
+import io.debezium.document.Document;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author 起风了
+ * @email m.zxt@foxmail.com
+ * @date 2026/01/14 15:00
+ */
+class CompactedSchemaHistoryTest {
+
+    static Document record(long pos, String ddl, Document... changes) {
+        Document document = Document.create();
+        document.setDocument("source", Document.create("server", "mysql-a"));
+        document.setDocument("position", Document.create("file", "binlog.000001", "pos", pos));
+        document.setString("databaseName", "shop");
+        document.setString("ddl", ddl);
+        if (changes.length > 0) {
+            document.setArray("tableChanges", Array.create((Object[]) changes));
+        }
+        return document;
+    }
+
+    static Document change(String type, String id, String column) {
+        Document change = Document.create();
+        change.setString("type", type);
+        change.setString("id", id);
+        change.setDocument("table", Document.create("columns", Array.create(Document.create("name", column))));
+        return change;
+    }
+
+    static List<String> ids(Document document) {
+        List<String> ids = new ArrayList<>();
+        for (Array.Entry entry : document.getArray("tableChanges")) {
+            Document change = entry.getValue().asDocument();
+            ids.add(change.getString("type") + " " + change.getString("id"));
+        }
+        return ids;
+    }
+
+    @Test
+    void recordsWithoutTableChangesKeepTheirPosition() {
+        List<Document> folded = CompactedSchemaHistory.fold(List.of(
+            record(4, "SET character_set_server=utf8mb4"),
+            record(10, "CREATE TABLE a", change("CREATE", "shop.a", "id")),
+            record(20, "ALTER TABLE a", change("ALTER", "shop.a", "name")),
+            record(30, "CREATE DATABASE report"),
+            record(40, "CREATE TABLE b", change("CREATE", "shop.b", "id")),
+            record(50, "DROP TABLE a", change("DROP", "shop.a", "name"))
+        ));
+        assertEquals(4, folded.size());
+        assertEquals("SET character_set_server=utf8mb4", folded.get(0).getString("ddl"));
+        assertEquals(List.of("CREATE shop.a"), ids(folded.get(1)));
+        assertEquals(20L, folded.get(1).getDocument("position").getLong("pos"));
+        assertEquals("name", folded.get(1).getArray("tableChanges").get(0).asDocument()
+            .getDocument("table").getArray("columns").get(0).asDocument().getString("name"));
+        assertEquals("CREATE DATABASE report", folded.get(2).getString("ddl"));
+        // a 在之前的段中创建，删除需要保留
+        assertEquals(List.of("CREATE shop.b", "DROP shop.a"), ids(folded.get(3)));
+        assertEquals(50L, folded.get(3).getDocument("position").getLong("pos"));
+        assertTrue(folded.get(3).getBoolean(CompactedSchemaHistory.COMPACTED, false));
+    }
+
+    @Test
+    void tableCreatedAndDroppedBeforeAnyStateIsDropped() {
+        List<Document> folded = CompactedSchemaHistory.fold(List.of(
+            record(10, "CREATE TABLE a", change("CREATE", "shop.a", "id")),
+            record(20, "DROP TABLE a", change("DROP", "shop.a", "id")),
+            record(30, "CREATE TABLE b", change("CREATE", "shop.b", "id"))
+        ));
+        assertEquals(1, folded.size());
+        assertEquals(List.of("CREATE shop.b"), ids(folded.getFirst()));
+        assertEquals(30L, folded.getFirst().getDocument("position").getLong("pos"));
+    }
+
+    @Test
+    void foldingFoldedRecordsIsStable() {
+        List<Document> once = CompactedSchemaHistory.fold(List.of(
+            record(10, "CREATE TABLE a", change("CREATE", "shop.a", "id")),
+            record(20, "CREATE DATABASE report"),
+            record(30, "CREATE TABLE b", change("CREATE", "shop.b", "id"))
+        ));
+        List<Document> twice = CompactedSchemaHistory.fold(once);
+        assertEquals(once, twice);
+    }
+}
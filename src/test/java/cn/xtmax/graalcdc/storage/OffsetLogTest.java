@@ -0,0 +1,141 @@
+package cn.xtmax.graalcdc.storage;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author 起风了
+ * @email m.zxt@foxmail.com
+ * @date 2026/01/14 16:00
+ */
+class OffsetLogTest {
+
+    static final OffsetLog.Options NO_COMPACTION = new OffsetLog.Options(OffsetLog.FsyncPolicy.ALWAYS, 1000, Long.MAX_VALUE);
+
+    @TempDir
+    Path directory;
+
+    static ByteBuffer bytes(String text) {
+        return ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    static Map<ByteBuffer, ByteBuffer> entry(String key, String value) {
+        Map<ByteBuffer, ByteBuffer> values = new HashMap<>();
+        values.put(bytes(key), value == null ? null : bytes(value));
+        return values;
+    }
+
+    static String read(OffsetLog offsetLog, String namespace, String key) {
+        ByteBuffer value = offsetLog.get(namespace, List.of(bytes(key))).get(bytes(key));
+        return value == null ? null : StandardCharsets.UTF_8.decode(value.duplicate()).toString();
+    }
+
+    @Test
+    void valuesSurviveReopen() throws Exception {
+        Path path = directory.resolve("offsets.log");
+        OffsetLog offsetLog = OffsetLog.acquire(path, NO_COMPACTION);
+        offsetLog.append("mysql-a", entry("partition", "pos=4")).join();
+        offsetLog.append("mysql-b", entry("partition", "lsn=10")).join();
+        offsetLog.append("mysql-a", entry("partition", "pos=8")).join();
+        OffsetLog.release(offsetLog);
+
+        OffsetLog reopened = OffsetLog.acquire(path, NO_COMPACTION);
+        try {
+            assertEquals("pos=8", read(reopened, "mysql-a", "partition"));
+            assertEquals("lsn=10", read(reopened, "mysql-b", "partition"));
+            assertFalse(reopened.contains("mysql-c"));
+        } finally {
+            OffsetLog.release(reopened);
+        }
+    }
+
+    @Test
+    void tornTailIsTruncated() throws Exception {
+        Path path = directory.resolve("offsets.log");
+        OffsetLog offsetLog = OffsetLog.acquire(path, NO_COMPACTION);
+        offsetLog.append("mysql-a", entry("partition", "pos=4")).join();
+        OffsetLog.release(offsetLog);
+        long valid = Files.size(path);
+        // 写了一半的记录：长度声明为 100，只有 3 个字节
+        Files.write(path, new byte[]{0, 0, 0, 100, 1, 2, 3}, StandardOpenOption.APPEND);
+
+        OffsetLog reopened = OffsetLog.acquire(path, NO_COMPACTION);
+        try {
+            assertEquals("pos=4", read(reopened, "mysql-a", "partition"));
+            assertEquals(valid, Files.size(path));
+            reopened.append("mysql-a", entry("partition", "pos=8")).join();
+        } finally {
+            OffsetLog.release(reopened);
+        }
+        OffsetLog again = OffsetLog.acquire(path, NO_COMPACTION);
+        try {
+            assertEquals("pos=8", read(again, "mysql-a", "partition"));
+        } finally {
+            OffsetLog.release(again);
+        }
+    }
+
+    @Test
+    void liveBytesFollowEveryAppend() throws Exception {
+        OffsetLog offsetLog = OffsetLog.acquire(directory.resolve("offsets.log"), NO_COMPACTION);
+        try {
+            // 头部 8 + 命名空间 2 + 1 + 键值数 4，键值 4 + 1 + 4 + 2
+            offsetLog.append("a", entry("k", "v1")).join();
+            assertEquals(26, offsetLog.liveBytes());
+            // 新的命名空间
+            offsetLog.append("b", entry("k", "v")).join();
+            assertEquals(51, offsetLog.liveBytes());
+            offsetLog.append("a", entry("k", "v22")).join();
+            assertEquals(52, offsetLog.liveBytes());
+            offsetLog.append("a", entry("k", null)).join();
+            assertEquals(40, offsetLog.liveBytes());
+        } finally {
+            OffsetLog.release(offsetLog);
+        }
+    }
+
+    @Test
+    void compactionKeepsLatestValues() throws Exception {
+        Path path = directory.resolve("offsets.log");
+        OffsetLog.Options options = new OffsetLog.Options(OffsetLog.FsyncPolicy.NEVER, 1000, 1024);
+        OffsetLog offsetLog = OffsetLog.acquire(path, options);
+        try {
+            for (int i = 0; i < 1000; i++) {
+                offsetLog.append("mysql-" + (i % 3), entry("partition", "pos=" + i)).join();
+            }
+            assertTrue(Files.size(path) < offsetLog.liveBytes() * 4 + 1024);
+        } finally {
+            OffsetLog.release(offsetLog);
+        }
+        OffsetLog reopened = OffsetLog.acquire(path, options);
+        try {
+            assertEquals("pos=999", read(reopened, "mysql-0", "partition"));
+            assertEquals("pos=997", read(reopened, "mysql-1", "partition"));
+            assertEquals("pos=998", read(reopened, "mysql-2", "partition"));
+        } finally {
+            OffsetLog.release(reopened);
+        }
+    }
+
+    @Test
+    void appendAfterCloseIsRejected() throws Exception {
+        OffsetLog offsetLog = OffsetLog.acquire(directory.resolve("offsets.log"), NO_COMPACTION);
+        OffsetLog.release(offsetLog);
+        CompletableFuture<Void> future = offsetLog.append("mysql-a", entry("partition", "pos=4"));
+        ExecutionException e = assertThrows(ExecutionException.class, future::get);
+        assertInstanceOf(IllegalStateException.class, e.getCause());
+    }
+}
@@ -0,0 +1,99 @@
+package cn.xtmax.graalcdc.storage;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author 起风了
+ * @email m.zxt@foxmail.com
+ * @date 2026/01/15 10:00
+ */
+class TableStateStoreTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void rowsSurviveReopen() throws Exception {
+        Path path = directory.resolve("shop.orders.state");
+        try (TableStateStore store = new TableStateStore(path, Long.MAX_VALUE)) {
+            store.put("1", "{\"id\":1,\"status\":\"new\"}");
+            store.put("2", "{\"id\":2,\"status\":\"new\"}");
+            store.put("1", "{\"id\":1,\"status\":\"paid\"}");
+            store.delete("2");
+            // 不存在的主键不写入删除记录
+            store.delete("3");
+        }
+        try (TableStateStore store = new TableStateStore(path, Long.MAX_VALUE)) {
+            assertEquals(1, store.size());
+            assertEquals("{\"id\":1,\"status\":\"paid\"}", store.get("1"));
+            assertNull(store.get("2"));
+            assertFalse(store.contains("3"));
+        }
+    }
+
+    @Test
+    void tornTailIsTruncated() throws Exception {
+        Path path = directory.resolve("shop.orders.state");
+        try (TableStateStore store = new TableStateStore(path, Long.MAX_VALUE)) {
+            store.put("1", "{\"id\":1}");
+        }
+        long valid = Files.size(path);
+        // 写了一半的记录：长度声明为 100，只有 3 个字节
+        Files.write(path, new byte[]{0, 0, 0, 100, 1, 2, 3}, StandardOpenOption.APPEND);
+
+        try (TableStateStore store = new TableStateStore(path, Long.MAX_VALUE)) {
+            assertEquals(valid, Files.size(path));
+            assertEquals("{\"id\":1}", store.get("1"));
+            store.put("2", "{\"id\":2}");
+        }
+        try (TableStateStore store = new TableStateStore(path, Long.MAX_VALUE)) {
+            assertEquals("{\"id\":2}", store.get("2"));
+        }
+    }
+
+    @Test
+    void recordWithBadChecksumEndsTheLog() throws Exception {
+        Path path = directory.resolve("shop.orders.state");
+        try (TableStateStore store = new TableStateStore(path, Long.MAX_VALUE)) {
+            store.put("1", "{\"id\":1}");
+        }
+        long valid = Files.size(path);
+        try (TableStateStore store = new TableStateStore(path, Long.MAX_VALUE)) {
+            store.put("2", "{\"id\":2}");
+        }
+        byte[] bytes = Files.readAllBytes(path);
+        bytes[bytes.length - 1] ^= 1;
+        Files.write(path, bytes);
+
+        try (TableStateStore store = new TableStateStore(path, Long.MAX_VALUE)) {
+            assertEquals(valid, Files.size(path));
+            assertTrue(store.contains("1"));
+            assertFalse(store.contains("2"));
+        }
+    }
+
+    @Test
+    void compactionKeepsLatestRows() throws Exception {
+        Path path = directory.resolve("shop.orders.state");
+        try (TableStateStore store = new TableStateStore(path, 1024)) {
+            for (int i = 0; i < 1000; i++) {
+                store.put(String.valueOf(i % 10), "{\"id\":" + (i % 10) + ",\"version\":" + i + "}");
+            }
+            store.delete("9");
+            assertTrue(Files.size(path) < 4096);
+            assertEquals("{\"id\":0,\"version\":990}", store.get("0"));
+        }
+        try (TableStateStore store = new TableStateStore(path, 1024)) {
+            assertEquals(9, store.size());
+            assertEquals("{\"id\":8,\"version\":998}", store.get("8"));
+            assertNull(store.get("9"));
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package cn.xtmax.graalcdc.window;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author 起风了
+ * @email m.zxt@foxmail.com
+ * @date 2026/01/15 11:00
+ */
+class HyperLogLogTest {
+
+    static void assertNear(long expected, long actual) {
+        // 标准误差约 1.6%，按 5% 判断
+        assertTrue(Math.abs(actual - expected) <= expected * 0.05, "期望约 " + expected + "，实际 " + actual);
+    }
+
+    @Test
+    void smallAndLargeCardinalities() {
+        HyperLogLog small = new HyperLogLog();
+        assertEquals(0, small.estimate());
+        for (int i = 0; i < 100; i++) {
+            small.add("user-" + i);
+            // 重复值不影响结果
+            small.add("user-" + i);
+        }
+        assertNear(100, small.estimate());
+
+        HyperLogLog large = new HyperLogLog();
+        for (int i = 0; i < 200_000; i++) {
+            large.add("user-" + i);
+        }
+        assertNear(200_000, large.estimate());
+    }
+
+    @Test
+    void mergeEstimatesTheUnion() {
+        HyperLogLog a = new HyperLogLog();
+        HyperLogLog b = new HyperLogLog();
+        for (int i = 0; i < 30_000; i++) {
+            a.add("user-" + i);
+        }
+        for (int i = 20_000; i < 50_000; i++) {
+            b.add("user-" + i);
+        }
+        a.merge(b);
+        assertNear(50_000, a.estimate());
+    }
+
+    @Test
+    void encodeRoundTrip() {
+        HyperLogLog hll = new HyperLogLog();
+        for (int i = 0; i < 10_000; i++) {
+            hll.add("user-" + i);
+        }
+        HyperLogLog decoded = HyperLogLog.decode(hll.encode());
+        assertEquals(hll.estimate(), decoded.estimate());
+        assertEquals(hll.encode(), decoded.encode());
+        assertThrows(IllegalArgumentException.class, () -> HyperLogLog.decode("AAAA"));
+    }
+}
@@ -0,0 +1,104 @@
+package cn.xtmax.graalcdc.window;
+
+import cn.xtmax.graalcdc.config.ScriptCDCConfig;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author 起风了
+ * @email m.zxt@foxmail.com
+ * @date 2026/01/14 11:00
+ */
+class ScriptWindowsTest {
+
+    @TempDir
+    Path directory;
+
+    static Map<String, ScriptCDCConfig.Window> tumbling() {
+        ScriptCDCConfig.Window window = new ScriptCDCConfig.Window();
+        window.setSizeMs(60_000);
+        window.setIdleTimeoutMs(5_000);
+        return Map.of("orders", window);
+    }
+
+    @Test
+    void idleAdvanceStartsFromLastEventTime() throws Exception {
+        ScriptWindows windows = new ScriptWindows(tumbling(), directory.resolve("w.json"), 0);
+        List<Map<String, Object>> emitted = new ArrayList<>();
+        ScriptWindows.Emitter emitter = (_, _, results) -> emitted.addAll(results);
+
+        // 事件时间远早于墙上时钟（复制延迟），窗口为 [960000, 1020000)
+        windows.add("orders", "a", 1.0, null, 1_000_000);
+        windows.advance(1_000_000, 0, emitter);
+        assertTrue(emitted.isEmpty());
+
+        // 空闲 24 秒：水位推进到 1_019_000，窗口不关闭
+        windows.advance(Long.MIN_VALUE, 24_000, emitter);
+        assertTrue(emitted.isEmpty());
+
+        windows.advance(Long.MIN_VALUE, 26_000, emitter);
+        assertEquals(1, emitted.size());
+        assertEquals(960_000L, emitted.getFirst().get("start"));
+        assertEquals(1L, emitted.getFirst().get("count"));
+
+        // 空闲关闭之后到达的事件不再进入已输出的窗口
+        windows.add("orders", "a", 1.0, null, 1_010_000);
+        windows.advance(Long.MIN_VALUE, 120_000, emitter);
+        assertEquals(1, emitted.size());
+        assertEquals(1, windows.getDropped());
+    }
+
+    @Test
+    void failedEmitIsKeptAcrossCheckpoint() throws Exception {
+        Path checkpoint = directory.resolve("w.json");
+        ScriptWindows windows = new ScriptWindows(tumbling(), checkpoint, 0);
+        windows.add("orders", "a", 2.0, null, 0);
+        windows.add("orders", "b", 3.0, null, 60_000);
+        windows.advance(130_000, 0, (_, _, _) -> {
+            throw new IllegalStateException("sink down");
+        });
+        assertEquals(1, windows.getPending());
+        windows.checkpoint(42);
+
+        ScriptWindows restored = new ScriptWindows(tumbling(), checkpoint, 0);
+        assertEquals(42, restored.load());
+        assertEquals(1, restored.getPending());
+        List<Map<String, Object>> emitted = new ArrayList<>();
+        restored.advance(Long.MIN_VALUE, 0, (_, _, results) -> emitted.addAll(results));
+        assertEquals(0, restored.getPending());
+        assertEquals(List.of("a", "b"), emitted.stream().map(result -> result.get("key")).toList());
+    }
+
+    @Test
+    void laterWindowsWaitForFailedOne() throws Exception {
+        ScriptWindows windows = new ScriptWindows(tumbling(), directory.resolve("w.json"), 0);
+        List<Object> emitted = new ArrayList<>();
+        boolean[] failing = {true};
+        ScriptWindows.Emitter emitter = (_, _, results) -> {
+            if (failing[0]) {
+                throw new IllegalStateException("sink down");
+            }
+            results.forEach(result -> emitted.add(result.get("start")));
+        };
+        windows.add("orders", "a", 1.0, null, 0);
+        windows.advance(70_000, 0, emitter);
+        windows.add("orders", "a", 1.0, null, 70_000);
+        // 处于退避中，新关闭的窗口排在失败的窗口之后
+        windows.advance(130_000, 0, emitter);
+        assertEquals(2, windows.getPending());
+        assertTrue(emitted.isEmpty());
+
+        failing[0] = false;
+        Thread.sleep(ScriptWindows.RETRY_MIN_MS + 100);
+        windows.advance(Long.MIN_VALUE, 0, emitter);
+        assertEquals(List.of(0L, 60_000L), emitted);
+        assertEquals(0, windows.getPending());
+    }
+}